@@ -0,0 +1,104 @@
+package com.obliquity.astronomy.tass17;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.Matrix;
+import com.obliquity.astronomy.almanac.Vector;
+
+/*
+ * The matrices which rotate a vector from the J2000 equatorial frame to the mean
+ * equator and equinox of date (precession) and to the true equator and equinox of
+ * date (precession and nutation).  They are held for the most recent epoch, so that
+ * every body and every reference system at one epoch shares a single calculation.
+ *
+ * The reference system indices are those of SaturnSystemApparentPlace.  Instances
+ * are not thread-safe.
+ */
+
+public class ReferenceSystemMatrices {
+	public static final int J2000 = 0, MEAN = 1, OF_DATE = 2;
+	
+	private final IAUEarthRotationModel erm;
+	
+	private final Vector basis = new Vector();
+	private final Matrix precession = new Matrix(), nutation = new Matrix();
+	
+	private final double[][][] matrices = new double[3][3][3];
+	
+	private double jd = Double.NaN;
+	
+	public ReferenceSystemMatrices(IAUEarthRotationModel erm) {
+		this.erm = erm;
+		
+		for (int i = 0; i < 3; i++)
+			matrices[J2000][i][i] = 1.0;
+	}
+	
+	public void setEpoch(double jd) {
+		if (jd == this.jd)
+			return;
+		
+		erm.precessionMatrix(2451545.0, jd, precession);
+		erm.nutationMatrix(jd, nutation);
+		
+		for (int j = 0; j < 3; j++) {
+			basis.setComponents(j == 0 ? 1.0 : 0.0, j == 1 ? 1.0 : 0.0, j == 2 ? 1.0 : 0.0);
+			
+			basis.multiplyBy(precession);
+			
+			matrices[MEAN][0][j] = basis.getX();
+			matrices[MEAN][1][j] = basis.getY();
+			matrices[MEAN][2][j] = basis.getZ();
+			
+			basis.multiplyBy(nutation);
+			
+			matrices[OF_DATE][0][j] = basis.getX();
+			matrices[OF_DATE][1][j] = basis.getY();
+			matrices[OF_DATE][2][j] = basis.getZ();
+		}
+		
+		this.jd = jd;
+	}
+	
+	public double getEpoch() {
+		return jd;
+	}
+	
+	public double[][] getMatrix(int refsys) {
+		if (refsys < J2000 || refsys > OF_DATE)
+			throw new IllegalArgumentException("Reference systems should be J2000 or MEAN or OF_DATE");
+		
+		return matrices[refsys];
+	}
+	
+	/*
+	 * Rotate a J2000 vector into the given reference system at the current epoch.  The
+	 * result array may be the same as the input.
+	 */
+	
+	public void rotate(int refsys, double[] v, double[] result) {
+		double[][] m = getMatrix(refsys);
+		
+		double x = v[0], y = v[1], z = v[2];
+		
+		for (int i = 0; i < 3; i++)
+			result[i] = m[i][0] * x + m[i][1] * y + m[i][2] * z;
+	}
+}
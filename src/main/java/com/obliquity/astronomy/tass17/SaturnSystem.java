@@ -0,0 +1,273 @@
+package com.obliquity.astronomy.tass17;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.IOException;
+
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.almanac.StateVector;
+import com.obliquity.astronomy.almanac.Vector;
+
+/*
+ * A SaturnSystem hands out MovingPoint views of Saturn and of each of the eight
+ * satellites.  The views share a small cache of Saturn's barycentric state vector
+ * and of the TASS17 elements of all eight satellites, keyed on epoch, so asking for
+ * every satellite at the same epoch costs one Saturn lookup and one pass through
+ * the theory.  The cache holds several epochs because an ApparentPlace asks for
+ * the retarded epochs of one satellite before it moves on to the next.
+ *
+ * Instances are not thread-safe.  Each thread should use its own SaturnSystem,
+ * although the TASSTheory may be shared.
+ */
+
+public class SaturnSystem {
+	private final TASSTheory theory;
+	private final MovingPoint saturn;
+	private final double cosObliquity, sinObliquity;
+
+	private final MovingPoint saturnView;
+	private final MovingPoint[] satelliteViews = new MovingPoint[8];
+
+	private static final int CACHE_SIZE = 4;
+
+	private final double[] saturnEpochs = new double[CACHE_SIZE];
+	private final long[] saturnLastUsed = new long[CACHE_SIZE];
+	private final StateVector[] saturnStates = new StateVector[CACHE_SIZE];
+
+	private final double[] elementEpochs = new double[CACHE_SIZE];
+	private final long[] elementLastUsed = new long[CACHE_SIZE];
+	private final TASSElements[][] elements = new TASSElements[CACHE_SIZE][8];
+
+	private long useCounter = 0;
+
+	private final double[] position = new double[3];
+	private final double[] velocity = new double[3];
+
+	public SaturnSystem(JPLEphemeris ephemeris, TASSTheory theory) {
+		this.theory = theory;
+
+		IAUEarthRotationModel erm = new IAUEarthRotationModel();
+
+		double obliquity = erm.meanObliquity(2451545.0);
+
+		sinObliquity = Math.sin(obliquity);
+		cosObliquity = Math.cos(obliquity);
+
+		this.saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+
+		this.saturnView = new SaturnView();
+
+		for (int iSat = 0; iSat < 8; iSat++)
+			satelliteViews[iSat] = new SatelliteView(iSat);
+
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			saturnEpochs[i] = Double.NaN;
+			saturnStates[i] = new StateVector(new Vector(), new Vector());
+
+			elementEpochs[i] = Double.NaN;
+
+			for (int iSat = 0; iSat < 8; iSat++)
+				elements[i][iSat] = new TASSElements();
+		}
+	}
+
+	public SaturnSystem(JPLEphemeris ephemeris) throws IOException {
+		this(ephemeris, new TASSTheory());
+	}
+
+	public TASSTheory getTheory() {
+		return theory;
+	}
+
+	public MovingPoint getSaturn() {
+		return saturnView;
+	}
+
+	public MovingPoint getSatellite(int iSat) {
+		if (iSat < 0 || iSat > 7)
+			throw new IllegalArgumentException("Satellite index is out of range");
+
+		return satelliteViews[iSat];
+	}
+
+	private static int findSlot(double jd, double[] epochs, long[] lastUsed) {
+		int oldest = 0;
+
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			if (epochs[i] == jd)
+				return i;
+
+			if (lastUsed[i] < lastUsed[oldest])
+				oldest = i;
+		}
+
+		return -1 - oldest;
+	}
+
+	private StateVector getSaturnState(double jd) throws JPLEphemerisException {
+		int slot = findSlot(jd, saturnEpochs, saturnLastUsed);
+
+		if (slot < 0) {
+			slot = -1 - slot;
+
+			saturnEpochs[slot] = Double.NaN;
+			saturn.getStateVector(jd, saturnStates[slot]);
+			saturnEpochs[slot] = jd;
+		}
+
+		saturnLastUsed[slot] = ++useCounter;
+
+		return saturnStates[slot];
+	}
+
+	private TASSElements getElements(int iSat, double jd) {
+		int slot = findSlot(jd, elementEpochs, elementLastUsed);
+
+		if (slot < 0) {
+			slot = -1 - slot;
+
+			theory.calculateElementsForAllSatellites(jd, elements[slot]);
+			elementEpochs[slot] = jd;
+		}
+
+		elementLastUsed[slot] = ++useCounter;
+
+		return elements[slot][iSat];
+	}
+
+	private void rotateToJ2000(double[] xyz) {
+		double y = xyz[1], z = xyz[2];
+
+		xyz[1] = y * cosObliquity - z * sinObliquity;
+		xyz[2] = y * sinObliquity + z * cosObliquity;
+	}
+
+	private void getSatellitePosition(int iSat, double jd, Vector pos) throws JPLEphemerisException {
+		StateVector saturnState = getSaturnState(jd);
+
+		theory.calculatePosition(iSat, getElements(iSat, jd), position);
+
+		rotateToJ2000(position);
+
+		Vector saturnPosition = saturnState.getPosition();
+
+		pos.setComponents(saturnPosition.getX() + position[0],
+				saturnPosition.getY() + position[1],
+				saturnPosition.getZ() + position[2]);
+	}
+
+	private void getSatelliteStateVector(int iSat, double jd, StateVector sv) throws JPLEphemerisException {
+		StateVector saturnState = getSaturnState(jd);
+
+		theory.calculatePositionAndVelocity(iSat, getElements(iSat, jd), position, velocity);
+
+		rotateToJ2000(position);
+		rotateToJ2000(velocity);
+
+		Vector saturnPosition = saturnState.getPosition();
+		Vector saturnVelocity = saturnState.getVelocity();
+
+		sv.getPosition().setComponents(saturnPosition.getX() + position[0],
+				saturnPosition.getY() + position[1],
+				saturnPosition.getZ() + position[2]);
+
+		sv.getVelocity().setComponents(saturnVelocity.getX() + velocity[0],
+				saturnVelocity.getY() + velocity[1],
+				saturnVelocity.getZ() + velocity[2]);
+	}
+
+	private abstract class SystemMember implements MovingPoint {
+		public JPLEphemeris getEphemeris() {
+			return saturn.getEphemeris();
+		}
+
+		public double getEpoch() {
+			return saturn.getEpoch();
+		}
+
+		public double getEarliestDate() {
+			return saturn.getEarliestDate();
+		}
+
+		public double getLatestDate() {
+			return saturn.getLatestDate();
+		}
+
+		public boolean isValidDate(double t) {
+			return saturn.isValidDate(t);
+		}
+
+		public Vector getPosition(double jd) throws JPLEphemerisException {
+			Vector pos = new Vector();
+
+			getPosition(jd, pos);
+
+			return pos;
+		}
+
+		public StateVector getStateVector(double jd) throws JPLEphemerisException {
+			StateVector sv = new StateVector(new Vector(), new Vector());
+
+			getStateVector(jd, sv);
+
+			return sv;
+		}
+	}
+
+	private class SaturnView extends SystemMember {
+		public int getBodyCode() {
+			return saturn.getBodyCode();
+		}
+
+		public void getPosition(double jd, Vector pos) throws JPLEphemerisException {
+			pos.copy(getSaturnState(jd).getPosition());
+		}
+
+		public void getStateVector(double jd, StateVector sv) throws JPLEphemerisException {
+			StateVector saturnState = getSaturnState(jd);
+
+			sv.getPosition().copy(saturnState.getPosition());
+			sv.getVelocity().copy(saturnState.getVelocity());
+		}
+	}
+
+	private class SatelliteView extends SystemMember {
+		private final int satelliteID;
+
+		private SatelliteView(int satelliteID) {
+			this.satelliteID = satelliteID;
+		}
+
+		public int getBodyCode() {
+			return satelliteID;
+		}
+
+		public void getPosition(double jd, Vector pos) throws JPLEphemerisException {
+			getSatellitePosition(satelliteID, jd, pos);
+		}
+
+		public void getStateVector(double jd, StateVector sv) throws JPLEphemerisException {
+			getSatelliteStateVector(satelliteID, jd, sv);
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package com.obliquity.astronomy.tass17;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.EarthCentre;
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.almanac.StateVector;
+import com.obliquity.astronomy.almanac.Vector;
+
+/*
+ * Rigorous apparent places of Saturn and its eight major satellites, computed together.
+ *
+ * The position and velocity of the Earth, the position of the Sun and the precession
+ * and nutation matrices are calculated once per epoch.  Saturn's light time is found by
+ * iteration, and the theory is evaluated once for all eight satellites at Saturn's
+ * retarded epoch.  The light time of each satellite is then refined from Saturn's,
+ * moving the satellite along a local expansion of its orbit.  Over the light-time
+ * difference of at most a few seconds, the expansion is accurate to better than 1.0e-9 AU
+ * (0.00002 arc-seconds at the distance of Saturn).
+ *
+ * The corrections applied are light time, gravitational deflection by the Sun and
+ * annual aberration.  The J2000 place is the resulting apparent direction referred to
+ * the J2000 axes; the mean place is that direction precessed to the epoch, and the
+ * place of date also includes nutation.  The geometric distance is the distance at the
+ * epoch itself, without light time, and is calculated only when requested.
+ *
+ * Instances are not thread-safe.
+ */
+
+public class SaturnSystemApparentPlace {
+	public static final int SATURN = 8;
+	public static final int J2000 = 0, MEAN = 1, OF_DATE = 2;
+
+	private static final double SPEED_OF_LIGHT = 173.1446326846693;
+	private static final double SOLAR_DEFLECTION = 2.0 * 9.87062998e-9;
+	private static final double LIGHT_TIME_TOLERANCE = 1.0e-12;
+	private static final int MAX_ITERATIONS = 10;
+	private static final double GM_SATURN = TASSConstants.GK1/(365.25 * 365.25);
+
+	private final TASSTheory theory;
+	private final IAUEarthRotationModel erm;
+	private final MovingPoint earth, sun, saturn;
+	private final double cosObliquity, sinObliquity;
+
+	private final StateVector earthState = new StateVector(new Vector(), new Vector());
+	private final StateVector saturnState = new StateVector(new Vector(), new Vector());
+	private final Vector sunPosition = new Vector();
+	private final Vector saturnPosition = new Vector();
+	private final Vector saturnGeometricPosition = new Vector();
+	private final ReferenceSystemMatrices matrices;
+
+	private final TASSElements[] elements = new TASSElements[8];
+	private final double[] position = new double[3];
+	private final double[] velocity = new double[3];
+	private final double[] direction = new double[3];
+	private final double[] rotated = new double[3];
+
+	private double jd = Double.NaN;
+	private boolean haveGeometricDistances = false;
+
+	private final double[][] rightAscension = new double[3][9];
+	private final double[][] declination = new double[3][9];
+	private final double[] lightTime = new double[9];
+	private final double[] geometricDistance = new double[9];
+
+	public SaturnSystemApparentPlace(JPLEphemeris ephemeris, TASSTheory theory) {
+		this.theory = theory;
+
+		this.erm = new IAUEarthRotationModel();
+		this.matrices = new ReferenceSystemMatrices(erm);
+
+		double obliquity = erm.meanObliquity(2451545.0);
+
+		sinObliquity = Math.sin(obliquity);
+		cosObliquity = Math.cos(obliquity);
+
+		this.earth = new EarthCentre(ephemeris);
+		this.sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
+		this.saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+
+		for (int iSat = 0; iSat < 8; iSat++)
+			elements[iSat] = new TASSElements();
+	}
+
+	public TASSTheory getTheory() {
+		return theory;
+	}
+
+	public IAUEarthRotationModel getEarthRotationModel() {
+		return erm;
+	}
+
+	public ReferenceSystemMatrices getReferenceSystemMatrices() {
+		return matrices;
+	}
+
+	public double getEpoch() {
+		return jd;
+	}
+
+	public void calculateApparentPlaces(double jd) throws JPLEphemerisException {
+		this.jd = Double.NaN;
+		haveGeometricDistances = false;
+
+		earth.getStateVector(jd, earthState);
+
+		sun.getPosition(jd, sunPosition);
+
+		matrices.setEpoch(jd);
+
+		Vector E = earthState.getPosition();
+
+		double ex = E.getX(), ey = E.getY(), ez = E.getZ();
+
+		double tau = 0.0;
+
+		for (int i = 0; i < MAX_ITERATIONS; i++) {
+			saturn.getPosition(jd - tau, saturnPosition);
+
+			if (i == 0) {
+				saturnGeometricPosition.copy(saturnPosition);
+				geometricDistance[SATURN] = distance(saturnPosition, ex, ey, ez);
+			}
+
+			double newTau = distance(saturnPosition, ex, ey, ez)/SPEED_OF_LIGHT;
+
+			boolean converged = Math.abs(newTau - tau) < LIGHT_TIME_TOLERANCE;
+
+			tau = newTau;
+
+			if (converged)
+				break;
+		}
+
+		double jdRetarded = jd - tau;
+
+		saturn.getStateVector(jdRetarded, saturnState);
+
+		lightTime[SATURN] = tau;
+
+		Vector S = saturnState.getPosition();
+		Vector SV = saturnState.getVelocity();
+
+		storePlace(SATURN, S.getX() - ex, S.getY() - ey, S.getZ() - ez);
+
+		theory.calculateElementsForAllSatellites(jdRetarded, elements);
+
+		for (int iSat = 0; iSat < 8; iSat++) {
+			theory.calculatePositionAndVelocity(iSat, elements[iSat], position, velocity);
+
+			rotateToJ2000(position);
+			rotateToJ2000(velocity);
+
+			double r = Math.sqrt(position[0] * position[0] + position[1] * position[1] + position[2] * position[2]);
+			double k = -GM_SATURN * (1.0 + TASSConstants.MASSES[iSat])/(r * r * r);
+
+			double x0 = S.getX() + position[0], y0 = S.getY() + position[1], z0 = S.getZ() + position[2];
+			double vx = SV.getX() + velocity[0], vy = SV.getY() + velocity[1], vz = SV.getZ() + velocity[2];
+			double ax = k * position[0], ay = k * position[1], az = k * position[2];
+
+			double satelliteTau = tau;
+			double dx = 0.0, dy = 0.0, dz = 0.0;
+
+			for (int i = 0; i < MAX_ITERATIONS; i++) {
+				double dt = tau - satelliteTau;
+
+				dx = x0 + dt * (vx + 0.5 * dt * ax) - ex;
+				dy = y0 + dt * (vy + 0.5 * dt * ay) - ey;
+				dz = z0 + dt * (vz + 0.5 * dt * az) - ez;
+
+				double newTau = Math.sqrt(dx * dx + dy * dy + dz * dz)/SPEED_OF_LIGHT;
+
+				boolean converged = Math.abs(newTau - satelliteTau) < LIGHT_TIME_TOLERANCE;
+
+				satelliteTau = newTau;
+
+				if (converged)
+					break;
+			}
+
+			lightTime[iSat] = satelliteTau;
+
+			storePlace(iSat, dx, dy, dz);
+		}
+
+		this.jd = jd;
+	}
+
+	private static double distance(Vector v, double x, double y, double z) {
+		double dx = v.getX() - x, dy = v.getY() - y, dz = v.getZ() - z;
+
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	private void rotateToJ2000(double[] xyz) {
+		double y = xyz[1], z = xyz[2];
+
+		xyz[1] = y * cosObliquity - z * sinObliquity;
+		xyz[2] = y * sinObliquity + z * cosObliquity;
+	}
+
+	/*
+	 * Apply light deflection and aberration to the geocentric vector (x, y, z) of the
+	 * body at the retarded epoch, then store the right ascension and declination in each
+	 * reference system.  The formulae are those of the Explanatory Supplement to the
+	 * Astronomical Almanac (1992), section 3.32.
+	 */
+
+	private void storePlace(int iBody, double x, double y, double z) {
+		Vector E = earthState.getPosition();
+		Vector V = earthState.getVelocity();
+
+		double d = Math.sqrt(x * x + y * y + z * z);
+
+		double px = x/d, py = y/d, pz = z/d;
+
+		// Heliocentric position of the observer at the epoch.
+		double ehx = E.getX() - sunPosition.getX();
+		double ehy = E.getY() - sunPosition.getY();
+		double ehz = E.getZ() - sunPosition.getZ();
+
+		double eh = Math.sqrt(ehx * ehx + ehy * ehy + ehz * ehz);
+
+		ehx /= eh;
+		ehy /= eh;
+		ehz /= eh;
+
+		// Heliocentric position of the body at the retarded epoch; the Sun moves too little
+		// during the light-time difference between the bodies for this to matter.
+		double qx = x + E.getX() - sunPosition.getX();
+		double qy = y + E.getY() - sunPosition.getY();
+		double qz = z + E.getZ() - sunPosition.getZ();
+
+		double q = Math.sqrt(qx * qx + qy * qy + qz * qz);
+
+		qx /= q;
+		qy /= q;
+		qz /= q;
+
+		double pq = px * qx + py * qy + pz * qz;
+		double ep = ehx * px + ehy * py + ehz * pz;
+		double qe = qx * ehx + qy * ehy + qz * ehz;
+
+		double g = (SOLAR_DEFLECTION/eh)/(1.0 + qe);
+
+		double p1x = px + g * (pq * ehx - ep * qx);
+		double p1y = py + g * (pq * ehy - ep * qy);
+		double p1z = pz + g * (pq * ehz - ep * qz);
+
+		double vx = V.getX()/SPEED_OF_LIGHT, vy = V.getY()/SPEED_OF_LIGHT, vz = V.getZ()/SPEED_OF_LIGHT;
+
+		double betaInverse = Math.sqrt(1.0 - (vx * vx + vy * vy + vz * vz));
+
+		double f1 = p1x * vx + p1y * vy + p1z * vz;
+		double f2 = 1.0 + f1/(1.0 + betaInverse);
+
+		direction[0] = (betaInverse * p1x + f2 * vx)/(1.0 + f1);
+		direction[1] = (betaInverse * p1y + f2 * vy)/(1.0 + f1);
+		direction[2] = (betaInverse * p1z + f2 * vz)/(1.0 + f1);
+
+		storeAngles(J2000, iBody, direction);
+
+		matrices.rotate(MEAN, direction, rotated);
+		storeAngles(MEAN, iBody, rotated);
+
+		matrices.rotate(OF_DATE, direction, rotated);
+		storeAngles(OF_DATE, iBody, rotated);
+	}
+
+	private void storeAngles(int refsys, int iBody, double[] v) {
+		rightAscension[refsys][iBody] = Math.atan2(v[1], v[0]);
+		declination[refsys][iBody] = Math.atan2(v[2], Math.sqrt(v[0] * v[0] + v[1] * v[1]));
+	}
+
+	private void calculateGeometricDistances() {
+		theory.calculateElementsForAllSatellites(jd, elements);
+
+		Vector E = earthState.getPosition();
+
+		double ex = E.getX() - saturnGeometricPosition.getX();
+		double ey = E.getY() - saturnGeometricPosition.getY();
+		double ez = E.getZ() - saturnGeometricPosition.getZ();
+
+		for (int iSat = 0; iSat < 8; iSat++) {
+			theory.calculatePosition(iSat, elements[iSat], position);
+
+			rotateToJ2000(position);
+
+			double dx = position[0] - ex, dy = position[1] - ey, dz = position[2] - ez;
+
+			geometricDistance[iSat] = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		}
+
+		haveGeometricDistances = true;
+	}
+
+	private void checkBody(int iBody) {
+		if (Double.isNaN(jd))
+			throw new IllegalStateException("No apparent places have been calculated");
+
+		if (iBody < 0 || iBody > SATURN)
+			throw new IllegalArgumentException("Body index is out of range");
+	}
+
+	public double getRightAscension(int iBody, int refsys) {
+		checkBody(iBody);
+
+		if (refsys < J2000 || refsys > OF_DATE)
+			throw new IllegalArgumentException("Reference systems should be J2000 or MEAN or OF_DATE");
+
+		return rightAscension[refsys][iBody];
+	}
+
+	public double getDeclination(int iBody, int refsys) {
+		checkBody(iBody);
+
+		if (refsys < J2000 || refsys > OF_DATE)
+			throw new IllegalArgumentException("Reference systems should be J2000 or MEAN or OF_DATE");
+
+		return declination[refsys][iBody];
+	}
+
+	public double getRightAscensionJ2000(int iBody) {
+		return getRightAscension(iBody, J2000);
+	}
+
+	public double getDeclinationJ2000(int iBody) {
+		return getDeclination(iBody, J2000);
+	}
+
+	public double getMeanRightAscension(int iBody) {
+		return getRightAscension(iBody, MEAN);
+	}
+
+	public double getMeanDeclination(int iBody) {
+		return getDeclination(iBody, MEAN);
+	}
+
+	public double getRightAscensionOfDate(int iBody) {
+		return getRightAscension(iBody, OF_DATE);
+	}
+
+	public double getDeclinationOfDate(int iBody) {
+		return getDeclination(iBody, OF_DATE);
+	}
+
+	public double getLightTime(int iBody) {
+		checkBody(iBody);
+
+		return lightTime[iBody];
+	}
+
+	public double getGeometricDistance(int iBody) {
+		checkBody(iBody);
+
+		if (iBody != SATURN && !haveGeometricDistances)
+			calculateGeometricDistances();
+
+		return geometricDistance[iBody];
+	}
+}
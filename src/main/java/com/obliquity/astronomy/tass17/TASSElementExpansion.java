@@ -0,0 +1,90 @@
+package com.obliquity.astronomy.tass17;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+/*
+ * A second-order Taylor expansion of the TASS17 elements of one satellite about
+ * a fixed epoch.  Rates are per day, accelerations per day squared, and the bounds
+ * are upper limits on the magnitude of the third derivative, per day cubed.
+ */
+
+public class TASSElementExpansion {
+	private static final double TWO_PI = 2.0 * Math.PI;
+	
+	public int satelliteID = -1;
+	public double epoch = Double.NaN;
+	public double semiMajorAxis;
+	
+	public final TASSElements elements = new TASSElements();
+	public final TASSElements rates = new TASSElements();
+	public final TASSElements accelerations = new TASSElements();
+	public final TASSElements bounds = new TASSElements();
+	
+	public boolean isValid() {
+		return satelliteID >= 0 && !Double.isNaN(epoch);
+	}
+	
+	public void invalidate() {
+		epoch = Double.NaN;
+	}
+	
+	public void extrapolate(double jd, TASSElements result) {
+		double dt = jd - epoch;
+		
+		result.meanMotionAdjustment = extrapolate(elements.meanMotionAdjustment, rates.meanMotionAdjustment,
+				accelerations.meanMotionAdjustment, dt);
+		
+		double lambda = extrapolate(elements.lambda, rates.lambda, accelerations.lambda, dt) % TWO_PI;
+		
+		if (lambda > Math.PI)
+			lambda -= TWO_PI;
+		
+		if (lambda < -Math.PI)
+			lambda += TWO_PI;
+		
+		result.lambda = lambda;
+		
+		result.k = extrapolate(elements.k, rates.k, accelerations.k, dt);
+		result.h = extrapolate(elements.h, rates.h, accelerations.h, dt);
+		result.q = extrapolate(elements.q, rates.q, accelerations.q, dt);
+		result.p = extrapolate(elements.p, rates.p, accelerations.p, dt);
+	}
+	
+	private static double extrapolate(double value, double rate, double acceleration, double dt) {
+		return value + dt * (rate + 0.5 * dt * acceleration);
+	}
+	
+	/*
+	 * An approximate upper bound, in AU, on the position error caused by using the
+	 * expansion at the specified epoch instead of the full series.  The element errors
+	 * are bounded by the Taylor remainder, and are converted to a displacement using
+	 * the first-order sensitivity of the orbit to each element.
+	 */
+	
+	public double getPositionErrorBound(double jd) {
+		double dt = Math.abs(jd - epoch);
+		
+		double remainder = dt * dt * dt / 6.0;
+		
+		double sum = bounds.lambda + 2.0 * (bounds.k + bounds.h + bounds.q + bounds.p)
+				+ 2.0 * bounds.meanMotionAdjustment / 3.0;
+		
+		return semiMajorAxis * sum * remainder;
+	}
+}
@@ -113,6 +113,76 @@ public class TASSElementSeries {
 		return value;
 	}
 
+	/*
+	 * The following methods calculate the value of a range of terms and its first two
+	 * derivatives with respect to the series time argument, for the sine series, the
+	 * cosine series or both.  Either result array may be null.  The long-period
+	 * longitudes are assumed to change linearly at the specified rates.  The fourth
+	 * element of each result is an upper bound on the magnitude of the third derivative,
+	 * which limits the error of a second-order Taylor expansion about t.
+	 */
+	
+	public void calculateCriticalTerms(double t, double[] longPeriodLongitudes, double[] longPeriodRates,
+			double[] cosine, double[] sine) {
+		calculateTermsWithDerivatives(0, nCriticalTerms, t, longPeriodLongitudes, longPeriodRates, cosine, sine);
+	}
+	
+	public void calculateShortPeriodTerms(double t, double[] longPeriodLongitudes, double[] longPeriodRates,
+			double[] cosine, double[] sine) {
+		calculateTermsWithDerivatives(nCriticalTerms, periodicTerms.length, t, longPeriodLongitudes, longPeriodRates, cosine, sine);
+	}
+	
+	public void calculateAllTerms(double t, double[] longPeriodLongitudes, double[] longPeriodRates,
+			double[] cosine, double[] sine) {
+		calculateTermsWithDerivatives(0, periodicTerms.length, t, longPeriodLongitudes, longPeriodRates, cosine, sine);
+	}
+	
+	private void calculateTermsWithDerivatives(int first, int last, double t, double[] longPeriodLongitudes,
+			double[] longPeriodRates, double[] cosine, double[] sine) {
+		if ((cosine != null && cosine.length < 4) || (sine != null && sine.length < 4))
+			throw new IllegalArgumentException("result array is too small");
+		
+		double cosValue = 0.0, cosRate = 0.0, cosAcceleration = 0.0;
+		double sinValue = 0.0, sinRate = 0.0, sinAcceleration = 0.0;
+		double bound = 0.0;
+		
+		for (int i = first; i < last; i++) {
+			double amplitude = periodicTerms[i].getAmplitude();
+			double argument = periodicTerms[i].getArgument(t, longPeriodLongitudes);
+			double omega = periodicTerms[i].getArgumentRate(longPeriodRates);
+			
+			double sa = Math.sin(argument);
+			double ca = Math.cos(argument);
+			
+			double aw = amplitude * omega;
+			double aww = aw * omega;
+			
+			cosValue += amplitude * ca;
+			cosRate -= aw * sa;
+			cosAcceleration -= aww * ca;
+			
+			sinValue += amplitude * sa;
+			sinRate += aw * ca;
+			sinAcceleration -= aww * sa;
+			
+			bound += Math.abs(aww * omega);
+		}
+		
+		if (cosine != null) {
+			cosine[0] = cosValue;
+			cosine[1] = cosRate;
+			cosine[2] = cosAcceleration;
+			cosine[3] = bound;
+		}
+		
+		if (sine != null) {
+			sine[0] = sinValue;
+			sine[1] = sinRate;
+			sine[2] = sinAcceleration;
+			sine[3] = bound;
+		}
+	}
+
 	public String toString() {
 		return getClass().getName() + "[ constantTerm = " + constantTerm
 				+ ", secularRate = " + secularRate
@@ -19,6 +19,7 @@ package com.obliquity.astronomy.tass17;
 */
 
 import java.io.IOException;
+import java.util.stream.IntStream;
 
 import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
 import com.obliquity.astronomy.almanac.JPLEphemeris;
@@ -36,16 +37,26 @@ public class TASSMovingPoint implements MovingPoint {
 	private MovingPoint saturn;
 	private final int satelliteID;
 	private Matrix rotateTASS17ToJ2000;
+	private final double cosObliquity, sinObliquity;
+	
+	private boolean useLocalExpansion = false;
+	private double expansionTolerance = 1.0e-9;
+	private final TASSElementExpansion expansion = new TASSElementExpansion();
+	private final TASSElements expandedElements = new TASSElements();
 	
 	public TASSMovingPoint(JPLEphemeris ephemeris, int satelliteID) throws IOException {
-		this.theory = new TASSTheory();
+		this(ephemeris, new TASSTheory(), satelliteID);
+	}
+	
+	public TASSMovingPoint(JPLEphemeris ephemeris, TASSTheory theory, int satelliteID) {
+		this.theory = theory;
 
 		this.erm = new IAUEarthRotationModel();
 		
 		double obliquity = erm.meanObliquity(2451545.0);
 		
-		double sinObliquity = Math.sin(obliquity);
-		double cosObliquity = Math.cos(obliquity);
+		sinObliquity = Math.sin(obliquity);
+		cosObliquity = Math.cos(obliquity);
 		
 		double[][] m = {
 				{ 1.0, 0.0, 0.0 },
@@ -60,6 +71,46 @@ public class TASSMovingPoint implements MovingPoint {
 		this.satelliteID = satelliteID;
 	}
 
+	/*
+	 * When local expansion is enabled, each full evaluation of the theory also yields
+	 * the rates of the elements, and later requests are answered from a second-order
+	 * expansion of the elements for as long as its error bound stays below the
+	 * tolerance (in AU).  This suits the light-time iteration of ApparentPlace, which
+	 * asks for positions at a sequence of very close retarded epochs.
+	 */
+	
+	public void setLocalExpansion(boolean useLocalExpansion) {
+		this.useLocalExpansion = useLocalExpansion;
+		expansion.invalidate();
+	}
+	
+	public boolean isLocalExpansion() {
+		return useLocalExpansion;
+	}
+	
+	public void setExpansionTolerance(double expansionTolerance) {
+		if (expansionTolerance <= 0.0)
+			throw new IllegalArgumentException("Expansion tolerance must be positive");
+		
+		this.expansionTolerance = expansionTolerance;
+	}
+	
+	public double getExpansionTolerance() {
+		return expansionTolerance;
+	}
+	
+	private TASSElements calculateElements(double jd) {
+		if (!useLocalExpansion)
+			return theory.calculateElements(jd, satelliteID);
+		
+		if (!expansion.isValid() || expansion.getPositionErrorBound(jd) > expansionTolerance)
+			theory.calculateElementExpansion(jd, satelliteID, expansion);
+		
+		expansion.extrapolate(jd, expandedElements);
+		
+		return expandedElements;
+	}
+
 	public int getBodyCode() {
 		return satelliteID;
 	}
@@ -95,7 +146,7 @@ public class TASSMovingPoint implements MovingPoint {
 	public void getPosition(double jd, Vector pos) throws JPLEphemerisException {
 		Vector saturnPosition = saturn.getPosition(jd);
 		
-		TASSElements elements = theory.calculateElements(jd, satelliteID);
+		TASSElements elements = calculateElements(jd);
 		
 		double[] position = new double[3];
 		
@@ -121,7 +172,7 @@ public class TASSMovingPoint implements MovingPoint {
 	public void getStateVector(double jd, StateVector sv) throws JPLEphemerisException {
 		StateVector saturnState = saturn.getStateVector(jd);
 		
-		TASSElements elements = theory.calculateElements(jd, satelliteID);
+		TASSElements elements = calculateElements(jd);
 		
 		double[] position = new double[3];
 		double[] velocity = new double[3];
@@ -140,4 +191,86 @@ public class TASSMovingPoint implements MovingPoint {
 		sv.setPosition(saturnState.getPosition());
 		sv.setVelocity(saturnState.getVelocity());
 	}
+	
+	/*
+	 * Calculate the barycentric position, and optionally the velocity, of the satellite
+	 * for the epochs jd[from] to jd[to-1], storing three components per epoch in flat
+	 * arrays at the same index as the epoch.  The satellite offsets come from the batch
+	 * path of TASSTheory, and Saturn is queried in order of increasing epoch so that
+	 * successive lookups fall in the same ephemeris record.
+	 * 
+	 * This method keeps no state between calls, so disjoint slices of the same arrays
+	 * may be filled concurrently by several TASSMovingPoint objects which share one
+	 * TASSTheory.  The JPL ephemeris is stateful, so each of them should have its own.
+	 */
+	
+	public void getStateVectors(double[] jd, int from, int to, double[] positions, double[] velocities) throws JPLEphemerisException {
+		theory.calculatePositionsAndVelocities(satelliteID, jd, from, to, positions, velocities);
+		
+		for (int i = from; i < to; i++) {
+			rotateToJ2000(positions, 3 * i);
+			
+			if (velocities != null)
+				rotateToJ2000(velocities, 3 * i);
+		}
+		
+		int[] order = sortedOrder(jd, from, to);
+		
+		StateVector saturnState = new StateVector(new Vector(), new Vector());
+		Vector saturnPosition = new Vector();
+		
+		for (int j = 0; j < order.length; j++) {
+			int i = order[j];
+			
+			if (velocities != null) {
+				saturn.getStateVector(jd[i], saturnState);
+				
+				addVector(saturnState.getPosition(), positions, 3 * i);
+				addVector(saturnState.getVelocity(), velocities, 3 * i);
+			} else {
+				saturn.getPosition(jd[i], saturnPosition);
+				
+				addVector(saturnPosition, positions, 3 * i);
+			}
+		}
+	}
+	
+	public void getStateVectors(double[] jd, double[] positions, double[] velocities) throws JPLEphemerisException {
+		getStateVectors(jd, 0, jd.length, positions, velocities);
+	}
+	
+	private void rotateToJ2000(double[] xyz, int offset) {
+		double y = xyz[offset + 1], z = xyz[offset + 2];
+		
+		xyz[offset + 1] = y * cosObliquity - z * sinObliquity;
+		xyz[offset + 2] = y * sinObliquity + z * cosObliquity;
+	}
+	
+	private static void addVector(Vector v, double[] xyz, int offset) {
+		xyz[offset] += v.getX();
+		xyz[offset + 1] += v.getY();
+		xyz[offset + 2] += v.getZ();
+	}
+	
+	private static int[] sortedOrder(double[] jd, int from, int to) {
+		int n = to - from;
+		
+		boolean sorted = true;
+		
+		for (int i = from + 1; i < to && sorted; i++)
+			sorted = jd[i] >= jd[i - 1];
+		
+		if (sorted) {
+			int[] order = new int[n];
+			
+			for (int i = 0; i < n; i++)
+				order[i] = from + i;
+			
+			return order;
+		}
+		
+		return IntStream.range(from, to).boxed()
+				.sorted((a, b) -> Double.compare(jd[a], jd[b]))
+				.mapToInt(Integer::intValue).toArray();
+	}
 }
@@ -56,6 +56,23 @@ public class TASSPeriodicTerm {
 		return getArgument(t, null);
 	}
 	
+	public double getArgumentRate(double[] longPeriodRates) {
+		double rate = frequency;
+		
+		if (longPeriodCoefficients != null && longPeriodRates != null) {
+			int nCoeffs = longPeriodCoefficients.length;
+			int nRates = longPeriodRates.length;
+			
+			int nTerms = nCoeffs < nRates ? nCoeffs : nRates;
+			
+			for (int i = 0; i < nTerms; i++)
+				if (longPeriodCoefficients[i] != 0)
+					rate += longPeriodRates[i] * (double)longPeriodCoefficients[i];
+		}
+		
+		return rate;
+	}
+	
 	public double getAmplitude() {
 		return amplitude;
 	}
@@ -58,8 +58,15 @@ public class TASSTheory {
 	}
 	
 	public void calculateElements(double jd, int iSat, TASSElements elements) {
-		double[] deltaLambda = new double[8];
-		
+		calculateElements(jd, iSat, elements, new double[8]);
+	}
+	
+	/*
+	 * The deltaLambda array, of at least eight elements, is working storage, so that
+	 * repeated calls need not allocate it.
+	 */
+	
+	public void calculateElements(double jd, int iSat, TASSElements elements, double[] deltaLambda) {
 		calculateCriticalTermsInLongitude(jd, deltaLambda);
 		
 		double t = (iSat == 6) ? jd - TASSConstants.EPOCH_HYPERION : (jd - TASSConstants.EPOCH)/365.25;
@@ -86,6 +93,17 @@ public class TASSTheory {
 		elements.p = elementSeries[iSat][3].calculateAllTermsInSine(t, deltaLambda);			
 	}
 	
+	/*
+	 * The constant and secular part of the mean longitude, without the critical and
+	 * short-period terms and without reduction to the range -PI to +PI.
+	 */
+	
+	public double calculateLinearLongitude(double jd, int iSat) {
+		double t = (iSat == 6) ? jd - TASSConstants.EPOCH_HYPERION : (jd - TASSConstants.EPOCH)/365.25;
+		
+		return elementSeries[iSat][1].calculateLinearTerm(t);
+	}
+	
 	public TASSElements calculateElements(double jd, int iSat) {
 		TASSElements elements = new TASSElements();
 		
@@ -95,6 +113,10 @@ public class TASSTheory {
 	}
 	
 	public void calculateElementsForAllSatellites(double jd, TASSElements[] elements) {
+		calculateElementsForAllSatellites(jd, elements, new double[8]);
+	}
+	
+	public void calculateElementsForAllSatellites(double jd, TASSElements[] elements, double[] deltaLambda) {
 		if (elements == null || elements.length < 8)
 			throw new IllegalArgumentException("Elements array is null or too small");
 		
@@ -103,8 +125,6 @@ public class TASSTheory {
 				elements[iSat] = new TASSElements();
 		}
 		
-    	double[] deltaLambda = new double[8];
-    	
     	calculateCriticalTermsInLongitude(jd, deltaLambda);
 
 		for (int iSat = 0; iSat < 8; iSat++) {
@@ -133,6 +153,135 @@ public class TASSTheory {
 		}
 	}
 	
+	/*
+	 * Calculate the elements of one satellite together with their first and second
+	 * derivatives, so that the elements can be extrapolated to nearby epochs without
+	 * re-evaluating the series.
+	 */
+	
+	public void calculateElementExpansion(double jd, int iSat, TASSElementExpansion expansion) {
+		double[] deltaLambda = new double[8];
+		double[] deltaLambdaRates = new double[8];
+		double[] criticalTerms = new double[4];
+		double[] cosine = new double[4];
+		double[] sine = new double[4];
+		
+		double t = (jd - TASSConstants.EPOCH)/365.25;
+		
+		for (int jSat = 0; jSat < 8; jSat++) {
+			if (jSat == 6)
+				continue;
+			
+			elementSeries[jSat][1].calculateCriticalTerms(t, null, null, null, sine);
+			
+			deltaLambda[jSat] = sine[0];
+			deltaLambdaRates[jSat] = sine[1];
+			
+			if (jSat == iSat)
+				System.arraycopy(sine, 0, criticalTerms, 0, 4);
+		}
+		
+		double scale = 1.0/365.25;
+		
+		if (iSat == 6) {
+			t = jd - TASSConstants.EPOCH_HYPERION;
+			scale = 1.0;
+		}
+		
+		expansion.satelliteID = iSat;
+		expansion.epoch = jd;
+		
+		elementSeries[iSat][0].calculateAllTerms(t, deltaLambda, deltaLambdaRates, cosine, null);
+		cosine[0] += elementSeries[iSat][0].getConstantTerm();
+		storeExpansion(cosine, scale, 0, expansion);
+		
+		elementSeries[iSat][1].calculateShortPeriodTerms(t, deltaLambda, deltaLambdaRates, null, sine);
+		
+		sine[0] += elementSeries[iSat][1].calculateLinearTerm(t) + criticalTerms[0];
+		sine[1] += elementSeries[iSat][1].getSecularRate() + criticalTerms[1];
+		sine[2] += criticalTerms[2];
+		sine[3] += criticalTerms[3];
+		
+		double lambda = sine[0] % TWO_PI;
+		
+		if (lambda > Math.PI)
+			lambda -= TWO_PI;
+		
+		if (lambda < -Math.PI)
+			lambda += TWO_PI;
+		
+		sine[0] = lambda;
+		
+		storeExpansion(sine, scale, 1, expansion);
+		
+		elementSeries[iSat][2].calculateAllTerms(t, deltaLambda, deltaLambdaRates, cosine, sine);
+		storeExpansion(cosine, scale, 2, expansion);
+		storeExpansion(sine, scale, 3, expansion);
+		
+		elementSeries[iSat][3].calculateAllTerms(t, deltaLambda, deltaLambdaRates, cosine, sine);
+		storeExpansion(cosine, scale, 4, expansion);
+		storeExpansion(sine, scale, 5, expansion);
+		
+		expansion.semiMajorAxis = calculateSemiMajorAxis(iSat, expansion.elements);
+	}
+	
+	private void storeExpansion(double[] result, double scale, int iElem, TASSElementExpansion expansion) {
+		double value = result[0];
+		double rate = result[1] * scale;
+		double acceleration = result[2] * scale * scale;
+		double bound = result[3] * scale * scale * scale;
+		
+		switch (iElem) {
+		case 0:
+			expansion.elements.meanMotionAdjustment = value;
+			expansion.rates.meanMotionAdjustment = rate;
+			expansion.accelerations.meanMotionAdjustment = acceleration;
+			expansion.bounds.meanMotionAdjustment = bound;
+			break;
+			
+		case 1:
+			expansion.elements.lambda = value;
+			expansion.rates.lambda = rate;
+			expansion.accelerations.lambda = acceleration;
+			expansion.bounds.lambda = bound;
+			break;
+			
+		case 2:
+			expansion.elements.k = value;
+			expansion.rates.k = rate;
+			expansion.accelerations.k = acceleration;
+			expansion.bounds.k = bound;
+			break;
+			
+		case 3:
+			expansion.elements.h = value;
+			expansion.rates.h = rate;
+			expansion.accelerations.h = acceleration;
+			expansion.bounds.h = bound;
+			break;
+			
+		case 4:
+			expansion.elements.q = value;
+			expansion.rates.q = rate;
+			expansion.accelerations.q = acceleration;
+			expansion.bounds.q = bound;
+			break;
+			
+		case 5:
+			expansion.elements.p = value;
+			expansion.rates.p = rate;
+			expansion.accelerations.p = acceleration;
+			expansion.bounds.p = bound;
+			break;
+		}
+	}
+	
+	public double calculateSemiMajorAxis(int iSat, TASSElements elements) {
+		double am0 = 365.25 * TASSConstants.MEAN_MOTIONS[iSat] * (1.0 + elements.meanMotionAdjustment);
+		double rmu = TASSConstants.GK1 * (1.0 + TASSConstants.MASSES[iSat]);
+		return pow(rmu/(am0 * am0), ONE_THIRD);
+	}
+	
 	private static final double EPSILON = 1.0e-10;
 	
 	/*
@@ -220,4 +369,83 @@ public class TASSTheory {
 	public void calculatePosition(int iSat, TASSElements elements, double[] position) {
 		calculatePositionAndVelocity(iSat, elements, position, null);
 	}
+	
+	/*
+	 * Batch path: calculate the position, and optionally the velocity, of one satellite
+	 * for the epochs jd[from] to jd[to-1].  The results are stored in flat arrays with
+	 * three components per epoch, at the same index as the epoch.  This method uses no
+	 * shared working storage, so separate threads may fill disjoint slices at the same
+	 * time.
+	 */
+	
+	public void calculatePositionsAndVelocities(int iSat, double[] jd, int from, int to, double[] positions, double[] velocities) {
+		if (from < 0 || to > jd.length || from > to)
+			throw new IllegalArgumentException("Invalid range of epochs");
+		
+		if (positions == null || positions.length < 3 * to)
+			throw new IllegalArgumentException("positions array is null or too small");
+		
+		if (velocities != null && velocities.length < 3 * to)
+			throw new IllegalArgumentException("velocities array is too small");
+		
+		TASSElements elements = new TASSElements();
+		double[] deltaLambda = new double[8];
+		double[] position = new double[3];
+		double[] velocity = velocities == null ? null : new double[3];
+		
+		for (int i = from; i < to; i++) {
+			calculateElements(jd[i], iSat, elements, deltaLambda);
+			
+			calculatePositionAndVelocity(iSat, elements, position, velocity);
+			
+			System.arraycopy(position, 0, positions, 3 * i, 3);
+			
+			if (velocities != null)
+				System.arraycopy(velocity, 0, velocities, 3 * i, 3);
+		}
+	}
+	
+	/*
+	 * As above, for all eight satellites at once, so that the critical terms in longitude
+	 * are calculated once for each epoch rather than once for each satellite.  The
+	 * positions and velocities of satellite iSat are stored in positions[iSat] and
+	 * velocities[iSat].
+	 */
+	
+	public void calculatePositionsAndVelocitiesForAllSatellites(double[] jd, int from, int to, double[][] positions, double[][] velocities) {
+		if (from < 0 || to > jd.length || from > to)
+			throw new IllegalArgumentException("Invalid range of epochs");
+		
+		if (positions == null || positions.length < 8)
+			throw new IllegalArgumentException("positions array is null or too small");
+		
+		if (velocities != null && velocities.length < 8)
+			throw new IllegalArgumentException("velocities array is too small");
+		
+		for (int iSat = 0; iSat < 8; iSat++) {
+			if (positions[iSat] == null || positions[iSat].length < 3 * to)
+				throw new IllegalArgumentException("positions array is null or too small");
+			
+			if (velocities != null && (velocities[iSat] == null || velocities[iSat].length < 3 * to))
+				throw new IllegalArgumentException("velocities array is null or too small");
+		}
+		
+		TASSElements[] elements = new TASSElements[8];
+		double[] deltaLambda = new double[8];
+		double[] position = new double[3];
+		double[] velocity = velocities == null ? null : new double[3];
+		
+		for (int i = from; i < to; i++) {
+			calculateElementsForAllSatellites(jd[i], elements, deltaLambda);
+			
+			for (int iSat = 0; iSat < 8; iSat++) {
+				calculatePositionAndVelocity(iSat, elements[iSat], position, velocity);
+				
+				System.arraycopy(position, 0, positions[iSat], 3 * i, 3);
+				
+				if (velocities != null)
+					System.arraycopy(velocity, 0, velocities[iSat], 3 * i, 3);
+			}
+		}
+	}
 }
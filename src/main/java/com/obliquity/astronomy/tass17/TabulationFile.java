@@ -0,0 +1,120 @@
+package com.obliquity.astronomy.tass17;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.nio.charset.StandardCharsets;
+
+/*
+ * The layout of a binary tabulation file, which holds a table of numbers by column
+ * rather than as formatted text.  All numbers are little-endian.
+ *
+ *   offset  size  contents
+ *        0     8  magic number "TASSTABL" in ASCII
+ *        8     4  format version
+ *       12     4  size of the header in bytes, a multiple of 8
+ *       16     4  number of columns, nColumns
+ *       20     4  largest number of rows in a block
+ *       24     8  total number of rows, or -1 if it is not known because the file was
+ *                   written to a stream
+ *       32          nColumns column descriptors of 16 bytes each: the type of the
+ *                   column (4 bytes), then its name in ASCII, padded with zeros to 12
+ *                   bytes
+ *
+ * The header is followed by blocks of rows, up to the end of the file.  Each block
+ * starts with the number of rows n in the block (4 bytes) and 4 bytes of padding.
+ * Then come the n values of each column in turn, as 8-byte doubles or 4-byte ints
+ * according to the type of the column.  The values of an int column are padded to a
+ * multiple of 8 bytes.  Only the last block may have fewer rows than the largest.
+ */
+
+public class TabulationFile {
+	public static final byte[] MAGIC = { 'T', 'A', 'S', 'S', 'T', 'A', 'B', 'L' };
+	
+	public static final int VERSION = 1;
+	
+	public static final int TYPE_DOUBLE = 1;
+	public static final int TYPE_INT = 2;
+	
+	public static final int OFFSET_VERSION = 8;
+	public static final int OFFSET_HEADER_SIZE = 12;
+	public static final int OFFSET_COLUMNS = 16;
+	public static final int OFFSET_BLOCK_ROWS = 20;
+	public static final int OFFSET_ROWS = 24;
+	public static final int OFFSET_DESCRIPTORS = 32;
+	
+	public static final int DESCRIPTOR_SIZE = 16;
+	public static final int MAXIMUM_NAME_LENGTH = 12;
+	
+	public static final int BLOCK_HEADER_SIZE = 8;
+	
+	private TabulationFile() {
+	}
+	
+	public static int headerSize(int nColumns) {
+		return OFFSET_DESCRIPTORS + DESCRIPTOR_SIZE * nColumns;
+	}
+	
+	/*
+	 * The size in bytes of the values of one column in a block of n rows.
+	 */
+	
+	public static int columnSize(int type, int n) {
+		switch (type) {
+		case TYPE_DOUBLE:
+			return 8 * n;
+		
+		case TYPE_INT:
+			return (4 * n + 7) & ~7;
+		
+		default:
+			throw new IllegalArgumentException("Unknown column type " + type);
+		}
+	}
+	
+	public static int blockSize(int[] types, int n) {
+		int size = BLOCK_HEADER_SIZE;
+		
+		for (int type : types)
+			size += columnSize(type, n);
+		
+		return size;
+	}
+	
+	static byte[] encodeName(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+		
+		if (bytes.length > MAXIMUM_NAME_LENGTH)
+			throw new IllegalArgumentException("Column name is longer than " + MAXIMUM_NAME_LENGTH + " characters: " + name);
+		
+		byte[] padded = new byte[MAXIMUM_NAME_LENGTH];
+		
+		System.arraycopy(bytes, 0, padded, 0, bytes.length);
+		
+		return padded;
+	}
+	
+	static String decodeName(byte[] padded) {
+		int length = 0;
+		
+		while (length < padded.length && padded[length] != 0)
+			length++;
+		
+		return new String(padded, 0, length, StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,219 @@
+package com.obliquity.astronomy.tass17;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Read a binary tabulation file, as described in TabulationFile, one block at a time.
+ * The values of each column of the current block are returned as arrays which are
+ * reused for the next block, so only the first getBlockSize() elements are valid.
+ */
+
+public class TabulationReader implements Closeable {
+	private final ReadableByteChannel channel;
+	private final String[] names;
+	private final int[] types;
+	private final int blockRows;
+	private final long totalRows;
+	
+	private final double[][] doubles;
+	private final int[][] ints;
+	private final ByteBuffer buffer;
+	
+	private int nRows = 0;
+	
+	public TabulationReader(File file) throws IOException {
+		this(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+	}
+	
+	public TabulationReader(ReadableByteChannel channel) throws IOException {
+		this.channel = channel;
+		
+		ByteBuffer header = ByteBuffer.allocate(TabulationFile.OFFSET_DESCRIPTORS).order(ByteOrder.LITTLE_ENDIAN);
+		
+		if (!readFully(header))
+			throw new IOException("Not a tabulation file: it is empty");
+		
+		byte[] magic = new byte[TabulationFile.MAGIC.length];
+		header.get(magic);
+		
+		if (!Arrays.equals(magic, TabulationFile.MAGIC))
+			throw new IOException("Not a tabulation file");
+		
+		int version = header.getInt(TabulationFile.OFFSET_VERSION);
+		
+		if (version != TabulationFile.VERSION)
+			throw new IOException("Unsupported tabulation file version " + version);
+		
+		int headerSize = header.getInt(TabulationFile.OFFSET_HEADER_SIZE);
+		int nColumns = header.getInt(TabulationFile.OFFSET_COLUMNS);
+		
+		blockRows = header.getInt(TabulationFile.OFFSET_BLOCK_ROWS);
+		totalRows = header.getLong(TabulationFile.OFFSET_ROWS);
+		
+		if (nColumns < 0 || blockRows < 1 || headerSize != TabulationFile.headerSize(nColumns))
+			throw new IOException("Corrupt tabulation file header");
+		
+		ByteBuffer descriptors = ByteBuffer.allocate(headerSize - TabulationFile.OFFSET_DESCRIPTORS).order(ByteOrder.LITTLE_ENDIAN);
+		
+		if (!readFully(descriptors))
+			throw new IOException("Tabulation file is truncated");
+		
+		names = new String[nColumns];
+		types = new int[nColumns];
+		doubles = new double[nColumns][];
+		ints = new int[nColumns][];
+		
+		byte[] name = new byte[TabulationFile.MAXIMUM_NAME_LENGTH];
+		
+		for (int i = 0; i < nColumns; i++) {
+			types[i] = descriptors.getInt();
+			descriptors.get(name);
+			names[i] = TabulationFile.decodeName(name);
+			
+			if (types[i] == TabulationFile.TYPE_DOUBLE)
+				doubles[i] = new double[blockRows];
+			else if (types[i] == TabulationFile.TYPE_INT)
+				ints[i] = new int[blockRows];
+			else
+				throw new IOException("Unknown column type " + types[i]);
+		}
+		
+		buffer = ByteBuffer.allocateDirect(TabulationFile.blockSize(types, blockRows)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/*
+	 * Fill the buffer, returning false if the channel is at its end before any bytes
+	 * are read.
+	 */
+	
+	private boolean readFully(ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			if (channel.read(b) < 0) {
+				if (b.position() == 0)
+					return false;
+				
+				throw new IOException("Tabulation file is truncated");
+			}
+		}
+		
+		b.flip();
+		
+		return true;
+	}
+	
+	public int getNumberOfColumns() {
+		return names.length;
+	}
+	
+	public String getColumnName(int column) {
+		return names[column];
+	}
+	
+	public int getColumnType(int column) {
+		return types[column];
+	}
+	
+	/*
+	 * The index of the named column, or -1 if there is no such column.
+	 */
+	
+	public int getColumnIndex(String name) {
+		for (int i = 0; i < names.length; i++)
+			if (names[i].equals(name))
+				return i;
+		
+		return -1;
+	}
+	
+	/*
+	 * The total number of rows, or -1 if the file was written to a stream.
+	 */
+	
+	public long getNumberOfRows() {
+		return totalRows;
+	}
+	
+	/*
+	 * Read the next block, returning false at the end of the file.
+	 */
+	
+	public boolean nextBlock() throws IOException {
+		buffer.clear().limit(TabulationFile.BLOCK_HEADER_SIZE);
+		
+		if (!readFully(buffer)) {
+			nRows = 0;
+			return false;
+		}
+		
+		int n = buffer.getInt();
+		
+		if (n < 1 || n > blockRows)
+			throw new IOException("Corrupt tabulation file: block of " + n + " rows");
+		
+		buffer.clear().limit(TabulationFile.blockSize(types, n) - TabulationFile.BLOCK_HEADER_SIZE);
+		
+		if (!readFully(buffer))
+			throw new IOException("Tabulation file is truncated");
+		
+		for (int iColumn = 0; iColumn < types.length; iColumn++) {
+			if (types[iColumn] == TabulationFile.TYPE_DOUBLE)
+				buffer.asDoubleBuffer().get(doubles[iColumn], 0, n);
+			else
+				buffer.asIntBuffer().get(ints[iColumn], 0, n);
+			
+			buffer.position(buffer.position() + TabulationFile.columnSize(types[iColumn], n));
+		}
+		
+		nRows = n;
+		
+		return true;
+	}
+	
+	public int getBlockSize() {
+		return nRows;
+	}
+	
+	public double[] getDoubles(int column) {
+		if (doubles[column] == null)
+			throw new IllegalArgumentException("Column " + names[column] + " does not hold doubles");
+		
+		return doubles[column];
+	}
+	
+	public int[] getInts(int column) {
+		if (ints[column] == null)
+			throw new IllegalArgumentException("Column " + names[column] + " does not hold ints");
+		
+		return ints[column];
+	}
+	
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,231 @@
+package com.obliquity.astronomy.tass17;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Write a binary tabulation file, as described in TabulationFile.  Values are set
+ * column by column for the current row, and each full block of rows is encoded into
+ * one of two buffers and written to the channel by a background thread, while the
+ * caller fills the next block.  If the channel is a file, the total number of rows
+ * is written into the header when the writer is closed.
+ *
+ * Instances are not thread-safe: rows must be written by one thread, in order.
+ */
+
+public class TabulationWriter implements Closeable {
+	public static final int DEFAULT_BLOCK_ROWS = 4096;
+	
+	private final WritableByteChannel channel;
+	private final boolean closeWhenDone;
+	private final int[] types;
+	private final int blockRows;
+	
+	private final double[][] doubles;
+	private final int[][] ints;
+	
+	private final ByteBuffer[] buffers = new ByteBuffer[2];
+	private final Future<?>[] writes = new Future<?>[2];
+	private final ExecutorService executor;
+	
+	private int iBuffer = 0;
+	private int nRows = 0;
+	private long totalRows = 0;
+	
+	public TabulationWriter(WritableByteChannel channel, boolean closeWhenDone, String[] names, int[] types,
+			int blockRows) throws IOException {
+		if (names.length != types.length)
+			throw new IllegalArgumentException("There must be one type for each column");
+		
+		if (blockRows < 1)
+			throw new IllegalArgumentException("There must be at least one row in a block");
+		
+		this.channel = channel;
+		this.closeWhenDone = closeWhenDone;
+		this.types = types.clone();
+		this.blockRows = blockRows;
+		
+		this.doubles = new double[types.length][];
+		this.ints = new int[types.length][];
+		
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] == TabulationFile.TYPE_DOUBLE)
+				doubles[i] = new double[blockRows];
+			else if (types[i] == TabulationFile.TYPE_INT)
+				ints[i] = new int[blockRows];
+			else
+				throw new IllegalArgumentException("Unknown column type " + types[i]);
+		}
+		
+		int blockSize = TabulationFile.blockSize(types, blockRows);
+		
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = ByteBuffer.allocateDirect(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+		
+		ByteBuffer header = ByteBuffer.allocate(TabulationFile.headerSize(types.length)).order(ByteOrder.LITTLE_ENDIAN);
+		
+		header.put(TabulationFile.MAGIC);
+		header.putInt(TabulationFile.VERSION);
+		header.putInt(header.capacity());
+		header.putInt(types.length);
+		header.putInt(blockRows);
+		header.putLong(-1L);
+		
+		for (int i = 0; i < types.length; i++) {
+			header.putInt(types[i]);
+			header.put(TabulationFile.encodeName(names[i]));
+		}
+		
+		header.flip();
+		
+		while (header.hasRemaining())
+			channel.write(header);
+		
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "TabulationWriter");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/*
+	 * Open a writer on the named file, or on standard output if the name is null or "-".
+	 */
+	
+	public static TabulationWriter open(String filename, String[] names, int[] types) throws IOException {
+		if (filename == null || filename.equals("-"))
+			return new TabulationWriter(Channels.newChannel(System.out), false, names, types, DEFAULT_BLOCK_ROWS);
+		
+		FileChannel channel = FileChannel.open(new File(filename).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		
+		return new TabulationWriter(channel, true, names, types, DEFAULT_BLOCK_ROWS);
+	}
+	
+	public void setDouble(int column, double value) {
+		doubles[column][nRows] = value;
+	}
+	
+	public void setInt(int column, int value) {
+		ints[column][nRows] = value;
+	}
+	
+	/*
+	 * Finish the current row.  The values of any column which was not set are those of
+	 * the same row in the previous block.
+	 */
+	
+	public void endRow() throws IOException {
+		if (++nRows == blockRows)
+			writeBlock();
+	}
+	
+	public long getNumberOfRows() {
+		return totalRows + nRows;
+	}
+	
+	private void writeBlock() throws IOException {
+		if (nRows == 0)
+			return;
+		
+		waitForWrite(iBuffer);
+		
+		ByteBuffer buffer = buffers[iBuffer];
+		
+		buffer.clear();
+		
+		buffer.putInt(nRows).putInt(0);
+		
+		for (int iColumn = 0; iColumn < types.length; iColumn++) {
+			if (types[iColumn] == TabulationFile.TYPE_DOUBLE) {
+				buffer.asDoubleBuffer().put(doubles[iColumn], 0, nRows);
+			} else {
+				buffer.asIntBuffer().put(ints[iColumn], 0, nRows);
+			}
+			
+			buffer.position(buffer.position() + TabulationFile.columnSize(types[iColumn], nRows));
+		}
+		
+		buffer.flip();
+		
+		writes[iBuffer] = executor.submit(() -> {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			
+			return null;
+		});
+		
+		iBuffer ^= 1;
+		totalRows += nRows;
+		nRows = 0;
+	}
+	
+	private void waitForWrite(int i) throws IOException {
+		if (writes[i] == null)
+			return;
+		
+		try {
+			writes[i].get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing a block");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			
+			throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+		} finally {
+			writes[i] = null;
+		}
+	}
+	
+	public void close() throws IOException {
+		try {
+			writeBlock();
+			
+			waitForWrite(0);
+			waitForWrite(1);
+			
+			if (channel instanceof FileChannel) {
+				ByteBuffer patch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+				
+				patch.putLong(totalRows).flip();
+				((FileChannel)channel).write(patch, TabulationFile.OFFSET_ROWS);
+			}
+		} finally {
+			executor.shutdown();
+			
+			if (closeWhenDone)
+				channel.close();
+		}
+	}
+}
@@ -0,0 +1,562 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import com.obliquity.astronomy.tass17.TASSTheory;
+
+/*
+ * Extend a JSON document written by GenerateJSONData, or a plain binary archive, to a
+ * later finish date.  The satellites, reference systems, granule length, number of
+ * coefficients and method are taken from the existing data, and only the new granules
+ * are fitted, numbered on from the first granule exactly as a single run would number
+ * them.  Documents and archives which do not record the method need -rigorous,
+ * -simplified or -hybrid; if the method is recorded, an option which contradicts it is
+ * an error.
+ *
+ * An adaptive document is extended with the tolerance, degree and limit on the number
+ * of coefficients recorded in it, so the new granules are those which a single run
+ * would have written.  Documents written before the degree was recorded need -degree,
+ * and -ncoeffs if it was given.
+ *
+ * An archive does not record how it was fitted, and each of its components has its own
+ * number of coefficients, which for an archive converted from an adaptive document is
+ * the largest in any granule.  The new granules are fitted at the largest of these and
+ * each component is truncated to its own number.  The largest error in the header is
+ * updated with the errors of the new granules, if it is known, and with -tolerance, a
+ * granule whose error exceeds the tolerance is reported.
+ *
+ * The last existing granule is fitted again first, and the two series are compared at
+ * points across the granule.  If they differ by more than the seam tolerance, which is
+ * 0.01 arcseconds unless -seam-tolerance is given, the theory, ephemeris or method has
+ * changed since the data were written, and nothing is changed.
+ *
+ * A plain archive is extended in place unless -out is given: the new granules are
+ * written after the old ones, and the header is rewritten only at the end, so an
+ * interrupted append leaves the archive as it was.  A JSON document is written to a
+ * temporary file which then replaces the output file, which by default is the input
+ * file.  Quantised archives cannot be extended; extend the plain archive and quantise
+ * it again.
+ */
+
+public class AppendChebyshevData {
+	private static final double DEFAULT_SEAM_TOLERANCE = 0.01;
+	private static final int SEAM_CHECK_POINTS = 17;
+	
+	public static void main(String[] args) {
+		String inputFilename = null, outputFilename = null;
+		double jdFinish = 0.0, seamTolerance = DEFAULT_SEAM_TOLERANCE;
+		int method = -1, nThreads = Runtime.getRuntime().availableProcessors();
+		int degree = 0, nCoeffs = 0;
+		double tolerance = 0.0;
+		
+		for (int i = 0; i < args.length; i++) {
+			String keyword = args[i].toLowerCase();
+			
+			switch (keyword) {
+			case "-input":
+			case "-in":
+				inputFilename = args[++i];
+				break;
+			
+			case "-output":
+			case "-out":
+				outputFilename = args[++i];
+				break;
+			
+			case "-enddate":
+			case "-end":
+				jdFinish = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-rigorous":
+				method = SatelliteOffset.RIGOROUS;
+				break;
+			
+			case "-simplified":
+				method = SatelliteOffset.SIMPLIFIED;
+				break;
+			
+			case "-hybrid":
+				method = SatelliteOffset.HYBRID;
+				break;
+			
+			case "-degree":
+				degree = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-ncoeffs":
+			case "-order":
+				nCoeffs = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-tolerance":
+				tolerance = Double.parseDouble(args[++i]);
+				break;
+			
+			case "-seam-tolerance":
+				seamTolerance = Double.parseDouble(args[++i]);
+				break;
+			
+			case "-threads":
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			
+			default:
+				System.err.println("Unknown keyword: " + keyword);
+				System.exit(1);
+			}
+		}
+		
+		if (inputFilename == null || jdFinish == 0.0 || seamTolerance <= 0.0 || nThreads < 1 || degree < 0 || nCoeffs < 0 || tolerance < 0.0) {
+			System.err.println("Invalid or missing options.");
+			System.exit(2);
+		}
+		
+		try {
+			File input = new File(inputFilename);
+			File output = outputFilename == null ? input : new File(outputFilename);
+			
+			AppendChebyshevData appender = new AppendChebyshevData(method, seamTolerance, nThreads);
+			
+			appender.setAdaptiveOptions(tolerance, degree, nCoeffs);
+			
+			if (isArchive(input))
+				appender.appendToArchive(input, output, jdFinish);
+			else
+				appender.appendToDocument(input, output, jdFinish);
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			System.exit(3);
+		}
+	}
+	
+	private final int requestedMethod;
+	private final double seamTolerance;
+	private final int nThreads;
+	private double requestedTolerance = 0.0;
+	private int requestedDegree = 0, requestedCoeffs = 0;
+	
+	public AppendChebyshevData(int method, double seamTolerance, int nThreads) {
+		this.requestedMethod = method;
+		this.seamTolerance = seamTolerance;
+		this.nThreads = nThreads;
+	}
+	
+	/*
+	 * The tolerance, degree and limit on the number of coefficients of an adaptive fit,
+	 * for data which do not record them, or zero if they are not given.
+	 */
+	
+	public void setAdaptiveOptions(double tolerance, int degree, int nCoeffs) {
+		this.requestedTolerance = tolerance;
+		this.requestedDegree = degree;
+		this.requestedCoeffs = nCoeffs;
+	}
+	
+	private static boolean isArchive(File file) throws IOException {
+		byte[] magic = new byte[ChebyshevArchive.MAGIC.length];
+		
+		try (InputStream is = new FileInputStream(file)) {
+			if (is.readNBytes(magic, 0, magic.length) < magic.length)
+				return false;
+		}
+		
+		return Arrays.equals(magic, ChebyshevArchive.MAGIC) || Arrays.equals(magic, ChebyshevArchive.QUANTISED_MAGIC);
+	}
+	
+	private int resolveMethod(int recordedMethod, File file) throws IOException {
+		if (recordedMethod < 0 && requestedMethod < 0)
+			throw new IOException(file + " does not record its method; give -rigorous, -simplified or -hybrid");
+		
+		if (recordedMethod >= 0 && requestedMethod >= 0 && recordedMethod != requestedMethod)
+			throw new IOException(file + " was calculated by the " + GenerateJSONData.methodToName[recordedMethod] +
+					" method, not the " + GenerateJSONData.methodToName[requestedMethod] + " method");
+		
+		return recordedMethod >= 0 ? recordedMethod : requestedMethod;
+	}
+	
+	private static int resolveParameter(String name, Object recorded, int requested, File file) throws IOException {
+		if (recorded == null)
+			return requested;
+		
+		int value = (int)ConvertJSONToArchive.toDouble(recorded);
+		
+		if (requested > 0 && requested != value)
+			throw new IOException(file + " was fitted with " + name + " " + value + ", not " + requested);
+		
+		return value;
+	}
+	
+	private static int toSatelliteID(int[] bodies) throws IOException {
+		if (bodies.length == 1)
+			return bodies[0];
+		
+		if (Arrays.equals(bodies, IntStream.range(0, GenerateJSONData.ALL_SATELLITES).toArray()))
+			return GenerateJSONData.ALL_SATELLITES;
+		
+		throw new IOException("Only one satellite, or all eight in order, can be extended");
+	}
+	
+	private static int numberOfNewGranules(double jdStart, double stepSize, int nGranules, double jdFinish) {
+		return Math.max(0, (int)Math.ceil((jdFinish - jdStart)/stepSize - 1.0e-9) - nGranules);
+	}
+	
+	/*
+	 * Compare the stored series of the last existing granule with a new fit of the same
+	 * granule, and throw an exception if they differ by more than the seam tolerance.
+	 */
+	
+	private void checkSeam(double[][] stored, GenerateJSONData.Granule refit) throws IOException {
+		double maxDifference = 0.0;
+		
+		for (int iComponent = 0; iComponent < stored.length; iComponent++) {
+			for (int k = 0; k < SEAM_CHECK_POINTS; k++) {
+				double x = -1.0 + 2.0 * k/(SEAM_CHECK_POINTS - 1);
+				
+				double difference = Clenshaw.evaluate(stored[iComponent], x) - Clenshaw.evaluate(refit.coeffs[iComponent], x);
+				
+				maxDifference = Math.max(maxDifference, Math.abs(difference));
+			}
+		}
+		
+		if (maxDifference > seamTolerance)
+			throw new IOException(String.format("The last granule, starting at %.5f, differs from a new fit by %.6f arcseconds;" +
+					" the data were calculated with a different theory, ephemeris or method", refit.jd0, maxDifference));
+		
+		System.err.printf("Seam at %.5f checked: largest difference %.6f arcseconds\n", refit.jd1, maxDifference);
+	}
+	
+	/*
+	 * The header gives the start date and granule length to five decimal places.  New
+	 * granules are dated from them, so the dates of every existing granule must be
+	 * exactly those which they give, as the writer formats them, or the document was
+	 * written with a granule length which the header does not record exactly.
+	 */
+	
+	@SuppressWarnings("unchecked")
+	private static void checkGranuleDates(List<Object> data, double jdStart, double stepSize, File input) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		
+		for (int iGranule = 0; iGranule < data.size(); iGranule++) {
+			List<Object> rows = (List<Object>)data.get(iGranule);
+			
+			for (int k = 0; k < 2; k++) {
+				sb.setLength(0);
+				ChebyshevJSONWriter.appendFixed(sb, jdStart + (iGranule + k) * stepSize, 5, 0);
+				
+				if (!sb.toString().equals(String.valueOf(rows.get(k)).trim()))
+					throw new IOException("Granule " + iGranule + " of " + input + " has date " + rows.get(k) +
+							" where the start date and granule length give " + sb);
+			}
+		}
+	}
+	
+	/*
+	 * Find the end of the last granule of the top-level "data" array: the position after
+	 * the last character before the closing bracket which is not white space.  Strings
+	 * are skipped, so that brackets within them are not counted.  Returns -1 if there is
+	 * no data array.
+	 */
+	
+	private static int findEndOfData(String text) {
+		int depth = 0, dataDepth = -1;
+		String lastString = null;
+		
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			
+			switch (c) {
+			case '"':
+				int j = i + 1;
+				
+				while (j < text.length() && text.charAt(j) != '"')
+					j += text.charAt(j) == '\\' ? 2 : 1;
+				
+				lastString = text.substring(i + 1, Math.min(j, text.length()));
+				i = j;
+				break;
+			
+			case '[':
+				if (depth == 1 && dataDepth < 0 && "data".equals(lastString))
+					dataDepth = depth;
+				
+				depth++;
+				break;
+			
+			case '{':
+				depth++;
+				break;
+			
+			case ']':
+				depth--;
+				
+				if (depth == dataDepth) {
+					int end = i;
+					
+					while (end > 0 && Character.isWhitespace(text.charAt(end - 1)))
+						end--;
+					
+					return end;
+				}
+				
+				break;
+			
+			case '}':
+				depth--;
+				break;
+			}
+		}
+		
+		return -1;
+	}
+	
+	public void appendToArchive(File input, File output, double jdFinish)
+			throws IOException, InterruptedException, ExecutionException {
+		int satID, method, nGranules, nNew;
+		int[] refsys, orders;
+		double jdStart, stepSize;
+		double[][] stored;
+		
+		try (ChebyshevArchiveReader reader = new ChebyshevArchiveReader(input)) {
+			if (reader.getResolution() > 0.0)
+				throw new IOException("Cannot append to a quantised archive: " + input);
+			
+			satID = toSatelliteID(reader.getBodies());
+			refsys = reader.getReferenceSystems();
+			method = resolveMethod(reader.getMethod(), input);
+			jdStart = reader.getStartDate();
+			stepSize = reader.getStepSize();
+			nGranules = reader.getNumberOfGranules();
+			
+			if (nGranules < 1)
+				throw new IOException("Archive has no granules: " + input);
+			
+			stored = new double[3 * reader.getBodies().length * refsys.length][];
+			orders = new int[stored.length];
+			
+			for (int i = 0; i < stored.length; i++) {
+				orders[i] = reader.getOrder(i);
+				stored[i] = new double[orders[i]];
+				reader.getCoefficients(nGranules - 1, i, stored[i]);
+			}
+		}
+		
+		nNew = numberOfNewGranules(jdStart, stepSize, nGranules, jdFinish);
+		
+		if (nNew == 0) {
+			System.err.println("Archive already extends to " + (jdStart + nGranules * stepSize));
+			return;
+		}
+		
+		File target = output;
+		
+		if (!output.equals(input)) {
+			target = new File(output.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
+			Files.copy(input.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		ChebyshevArchiveWriter[] writer = new ChebyshevArchiveWriter[1];
+		File archive = target;
+		
+		try {
+			double[] newMaxError = { 0.0 };
+			
+			try {
+				GenerateJSONData.fitGranules(new TASSTheory(), satID, method, refsys, jdStart, nGranules - 1, nNew + 1, stepSize,
+						orders, nThreads,
+						granule -> {
+							if (writer[0] == null) {
+								checkSeam(stored, granule);
+								writer[0] = new ChebyshevArchiveWriter(archive);
+							} else {
+								writer[0].writeGranule(granule.jd0, granule.coeffs);
+								
+								newMaxError[0] = Math.max(newMaxError[0], checkErrors(granule, requestedTolerance));
+							}
+						});
+				
+				if (!Double.isNaN(writer[0].getMaximumError()))
+					writer[0].setMaximumError(Math.max(writer[0].getMaximumError(), newMaxError[0]));
+				
+				writer[0].setMethod(method);
+			} finally {
+				if (writer[0] != null)
+					writer[0].close();
+			}
+			
+			if (target != output)
+				Files.move(target.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			if (target != output)
+				Files.deleteIfExists(target.toPath());
+		}
+		
+		System.err.printf("Appended %d granules to %s, which now ends at %.5f\n", nNew, output, jdStart + (nGranules + nNew) * stepSize);
+	}
+	
+	/*
+	 * Return the largest error of any component of a new granule, reporting it if it
+	 * exceeds a positive tolerance.
+	 */
+	
+	private static double checkErrors(GenerateJSONData.Granule granule, double tolerance) {
+		double error = 0.0;
+		
+		for (double e : granule.errors)
+			error = Math.max(error, e);
+		
+		if (tolerance > 0.0 && error > tolerance)
+			System.err.printf("Granule starting at %13.5f has error %.6f, which exceeds the tolerance\n", granule.jd0, error);
+		
+		return error;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void appendToDocument(File input, File output, double jdFinish)
+			throws IOException, InterruptedException, ExecutionException {
+		String text = readText(input);
+		
+		Map<String, Object> document = (Map<String, Object>)SimpleJSONParser.parse(new StringReader(text));
+		
+		Object names = document.containsKey("names") ? document.get("names") : document.get("name");
+		
+		int[] bodies = ConvertJSONToArchive.toCodes(names, GenerateJSONData.idToName, "satellite");
+		int[] refsys = ConvertJSONToArchive.toCodes(document.get("refsys"), GenerateJSONData.refsysToName, "reference system");
+		
+		int satID = toSatelliteID(bodies);
+		int method = resolveMethod(ConvertJSONToArchive.getMethod(document), input);
+		
+		double jdStart = ConvertJSONToArchive.toDouble(document.get("jdstart"));
+		double stepSize = ConvertJSONToArchive.toDouble(document.get("stepsize"));
+		
+		boolean adaptive = document.containsKey("tolerance");
+		
+		double tolerance = adaptive ? ConvertJSONToArchive.toDouble(document.get("tolerance")) : 0.0;
+		
+		if (requestedTolerance > 0.0 && requestedTolerance != tolerance)
+			throw new IOException(input + " was fitted with tolerance " + tolerance + ", not " + requestedTolerance);
+		double maxError = document.containsKey("maxerror") ? ConvertJSONToArchive.toDouble(document.get("maxerror")) : 0.0;
+		
+		List<Object> data = (List<Object>)document.get("data");
+		
+		if (data == null || data.isEmpty())
+			throw new IOException("Document has no data: " + input);
+		
+		int nGranules = data.size();
+		int nComponents = 3 * bodies.length * refsys.length;
+		int nCoeffs = 0, degree = 0;
+		
+		if (adaptive) {
+			degree = resolveParameter("degree", document.get("degree"), requestedDegree, input);
+			
+			if (degree < 1)
+				throw new IOException(input + " does not record the degree of its adaptive fit; give -degree");
+			
+			Object recordedCoeffs = document.containsKey("degree") ? document.getOrDefault("ncoeffs", "0") : null;
+			
+			nCoeffs = resolveParameter("ncoeffs", recordedCoeffs, requestedCoeffs, input);
+		} else
+			nCoeffs = ((List<Object>)((List<Object>)data.get(0)).get(2)).size();
+		
+		double[][] stored = new double[nComponents][];
+		List<Object> lastGranule = (List<Object>)data.get(nGranules - 1);
+		
+		for (int i = 0; i < nComponents; i++) {
+			List<Object> row = (List<Object>)lastGranule.get(i + 2);
+			
+			stored[i] = new double[row.size()];
+			
+			for (int j = 0; j < stored[i].length; j++)
+				stored[i][j] = ConvertJSONToArchive.toDouble(row.get(j));
+		}
+		
+		checkGranuleDates(data, jdStart, stepSize, input);
+		
+		int nNew = numberOfNewGranules(jdStart, stepSize, nGranules, jdFinish);
+		
+		if (nNew == 0) {
+			System.err.println("Document already extends to " + (jdStart + nGranules * stepSize));
+			return;
+		}
+		
+		int endOfData = findEndOfData(text);
+		
+		if (endOfData < 0)
+			throw new IOException("Cannot find the end of the data in " + input);
+		
+		int decimals = adaptive ? GenerateJSONData.chooseDecimals(tolerance) : 3;
+		
+		File temporaryFile = new File(output.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
+		
+		try {
+			double[] newMaxError = { maxError };
+			
+			try (ChebyshevJSONWriter writer = ChebyshevJSONWriter.open(temporaryFile.getPath(), output.getName().endsWith(".gz"), decimals)) {
+				boolean[] seamChecked = { false };
+				
+				GenerateJSONData.fitGranules(new TASSTheory(), satID, method, refsys, jdStart, nGranules - 1, nNew + 1, stepSize,
+						nCoeffs, degree, tolerance, decimals, nThreads,
+						granule -> {
+							if (!seamChecked[0]) {
+								checkSeam(stored, granule);
+								
+								writer.writeRaw(text, 0, endOfData);
+								writer.continueData();
+								
+								seamChecked[0] = true;
+							} else {
+								writer.writeGranule(granule.jd0, granule.jd1, granule.coeffs);
+								
+								newMaxError[0] = Math.max(newMaxError[0], checkErrors(granule, tolerance));
+							}
+						});
+				
+				writer.writeTrailer(jdStart + (nGranules + nNew) * stepSize, tolerance, newMaxError[0]);
+			}
+			
+			Files.move(temporaryFile.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile.toPath());
+		}
+		
+		System.err.printf("Appended %d granules to %s, which now ends at %.5f\n", nNew, output, jdStart + (nGranules + nNew) * stepSize);
+	}
+	
+	private static String readText(File input) throws IOException {
+		try (InputStream is = input.getName().endsWith(".gz") ?
+				new GZIPInputStream(new FileInputStream(input), 1 << 16) : new FileInputStream(input)) {
+			return new String(is.readAllBytes(), StandardCharsets.US_ASCII);
+		}
+	}
+}
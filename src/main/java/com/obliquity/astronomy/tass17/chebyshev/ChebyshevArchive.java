@@ -0,0 +1,98 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+/*
+ * The layout of a binary Chebyshev archive.  All numbers are little-endian.
+ *
+ *   offset  size  contents
+ *        0     8  magic number "TASSCHEB" in ASCII
+ *        8     4  format version
+ *       12     4  size of the header in bytes, a multiple of 8
+ *       16     4  number of bodies, nBodies
+ *       20     4  number of reference systems, nRefsys
+ *       24     4  number of granules
+ *       28     4  method used to calculate the offsets, as a SatelliteOffset method code
+ *                   plus one, or zero if it is not known
+ *       32     8  Julian Date of the start of the first granule
+ *       40     8  granule length in days
+ *       48     8  largest fitting error in arcseconds, or NaN if it is not known
+ *       56          nBodies satellite indices (4 bytes each), then nRefsys reference
+ *                   system codes (4 bytes each), then the number of coefficients of
+ *                   each of the 3.nBodies.nRefsys components (4 bytes each), then
+ *                   padding to a multiple of 8 bytes
+ *
+ * The header is followed by the granules, in order of date.  Every granule record has
+ * the same size: the coefficients of each component in turn, as 8-byte doubles.  The
+ * components are the X, Y and Z offsets in arcseconds of each body in turn, for each
+ * reference system in turn, as in the documents written by GenerateJSONData.  The
+ * granule containing a given date is therefore found by arithmetic.
+ *
+ * A quantised archive has the magic number "TASSCHQZ".  Its header has the same
+ * fields, except that the coefficient resolution in arcseconds is stored as a double
+ * at offset 56, and the tables start at offset 64.  The largest error includes the
+ * error added by quantisation.  The granules follow in order, with no padding.  Each
+ * component of each granule is stored as the number of coefficients n, with trailing
+ * zeros dropped, followed by n coefficients, each one rounded to a whole multiple of
+ * the resolution.  All of these integers are zig-zag encoded and written as
+ * variable-length integers, seven bits per byte with the lowest bits first.  The
+ * reader decodes the whole archive into memory, after which look-up is the same as
+ * for the plain format.
+ */
+
+public class ChebyshevArchive {
+	public static final byte[] MAGIC = { 'T', 'A', 'S', 'S', 'C', 'H', 'E', 'B' };
+	public static final byte[] QUANTISED_MAGIC = { 'T', 'A', 'S', 'S', 'C', 'H', 'Q', 'Z' };
+	
+	public static final int VERSION = 1;
+	
+	public static final int OFFSET_VERSION = 8;
+	public static final int OFFSET_HEADER_SIZE = 12;
+	public static final int OFFSET_BODIES = 16;
+	public static final int OFFSET_REFSYS = 20;
+	public static final int OFFSET_GRANULES = 24;
+	public static final int OFFSET_METHOD = 28;
+	public static final int OFFSET_START = 32;
+	public static final int OFFSET_STEP = 40;
+	public static final int OFFSET_MAXIMUM_ERROR = 48;
+	public static final int OFFSET_TABLES = 56;
+	public static final int OFFSET_RESOLUTION = 56;
+	public static final int OFFSET_QUANTISED_TABLES = 64;
+	
+	private ChebyshevArchive() {
+	}
+	
+	public static int headerSize(int nBodies, int nRefsys) {
+		return headerSize(nBodies, nRefsys, OFFSET_TABLES);
+	}
+	
+	public static int headerSize(int nBodies, int nRefsys, int tablesOffset) {
+		int size = tablesOffset + 4 * (nBodies + nRefsys + 3 * nBodies * nRefsys);
+		
+		return (size + 7) & ~7;
+	}
+	
+	public static long zigZagEncode(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+	
+	public static long zigZagDecode(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+}
@@ -0,0 +1,309 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Read a binary Chebyshev archive, as described in ChebyshevArchive, by mapping it
+ * into memory.  A quantised archive is decoded into an array of doubles when it is
+ * opened.  The granule for a date is found by arithmetic, and the offsets and their
+ * rates of change are found by the Clenshaw recurrence.
+ *
+ * The mapped data may be shared, but each instance uses a scratch array, so instances
+ * are not thread-safe.  Threads should each open their own reader, which costs little
+ * because the operating system shares the mapped pages.
+ */
+
+public class ChebyshevArchiveReader implements Closeable {
+	private final FileChannel channel;
+	private final DoubleBuffer data;
+	
+	private final int[] bodies, refsys, orders, offsets;
+	private final int recordLength, nGranules, method;
+	private final double jdStart, stepSize, maxError, resolution;
+	
+	private final double[] scratch;
+	private final double[] result = new double[2];
+	
+	public ChebyshevArchiveReader(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		
+		try {
+			long size = channel.size();
+			
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Archive is too large to map: " + size + " bytes");
+			
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			
+			ByteBuffer header = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			
+			byte[] magic = new byte[ChebyshevArchive.MAGIC.length];
+			header.get(magic);
+			
+			boolean quantised = Arrays.equals(magic, ChebyshevArchive.QUANTISED_MAGIC);
+			
+			if (!quantised && !Arrays.equals(magic, ChebyshevArchive.MAGIC))
+				throw new IOException("Not a Chebyshev archive: " + file);
+			
+			int version = header.getInt(ChebyshevArchive.OFFSET_VERSION);
+			
+			if (version != ChebyshevArchive.VERSION)
+				throw new IOException("Unsupported archive version " + version + " in " + file);
+			
+			int headerSize = header.getInt(ChebyshevArchive.OFFSET_HEADER_SIZE);
+			int nBodies = header.getInt(ChebyshevArchive.OFFSET_BODIES);
+			int nRefsys = header.getInt(ChebyshevArchive.OFFSET_REFSYS);
+			
+			nGranules = header.getInt(ChebyshevArchive.OFFSET_GRANULES);
+			method = header.getInt(ChebyshevArchive.OFFSET_METHOD) - 1;
+			jdStart = header.getDouble(ChebyshevArchive.OFFSET_START);
+			stepSize = header.getDouble(ChebyshevArchive.OFFSET_STEP);
+			maxError = header.getDouble(ChebyshevArchive.OFFSET_MAXIMUM_ERROR);
+			resolution = quantised ? header.getDouble(ChebyshevArchive.OFFSET_RESOLUTION) : 0.0;
+			
+			if (nGranules < 1)
+				throw new IOException("Invalid number of granules " + nGranules + " in " + file);
+			
+			if (!(stepSize > 0.0) || Double.isInfinite(stepSize))
+				throw new IOException("Invalid step size " + stepSize + " in " + file);
+			
+			bodies = new int[nBodies];
+			refsys = new int[nRefsys];
+			orders = new int[3 * nBodies * nRefsys];
+			offsets = new int[orders.length];
+			
+			header.position(quantised ? ChebyshevArchive.OFFSET_QUANTISED_TABLES : ChebyshevArchive.OFFSET_TABLES);
+			
+			for (int i = 0; i < nBodies; i++)
+				bodies[i] = header.getInt();
+			
+			for (int i = 0; i < nRefsys; i++)
+				refsys[i] = header.getInt();
+			
+			int length = 0, maxOrder = 0;
+			
+			for (int i = 0; i < orders.length; i++) {
+				orders[i] = header.getInt();
+				offsets[i] = length;
+				length += orders[i];
+				maxOrder = Math.max(maxOrder, orders[i]);
+			}
+			
+			recordLength = length;
+			scratch = new double[maxOrder];
+			
+			if (quantised) {
+				data = DoubleBuffer.wrap(decode(mapped.position(headerSize).slice(), file));
+			} else {
+				if (headerSize + 8L * recordLength * nGranules > size)
+					throw new IOException("Archive is truncated: " + file);
+				
+				data = mapped.position(headerSize).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private double[] decode(ByteBuffer encoded, File file) throws IOException {
+		long length = (long)recordLength * nGranules;
+		
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Archive is too large to decode: " + file);
+		
+		double[] coeffs = new double[(int)length];
+		
+		try {
+			int base = 0;
+			
+			for (int iGranule = 0; iGranule < nGranules; iGranule++) {
+				for (int iComponent = 0; iComponent < orders.length; iComponent++) {
+					int n = (int)getVarint(encoded);
+					
+					if (n < 0 || n > orders[iComponent])
+						throw new IOException("Corrupt archive: " + file);
+					
+					for (int i = 0; i < n; i++)
+						coeffs[base + offsets[iComponent] + i] = ChebyshevArchive.zigZagDecode(getVarint(encoded)) * resolution;
+				}
+				
+				base += recordLength;
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Archive is truncated: " + file);
+		}
+		
+		return coeffs;
+	}
+	
+	private static long getVarint(ByteBuffer buffer) {
+		long value = 0;
+		
+		for (int shift = 0; ; shift += 7) {
+			byte b = buffer.get();
+			
+			value |= (long)(b & 0x7F) << shift;
+			
+			if (b >= 0)
+				return value;
+		}
+	}
+	
+	public int[] getBodies() {
+		return bodies.clone();
+	}
+	
+	public int[] getReferenceSystems() {
+		return refsys.clone();
+	}
+	
+	public int getOrder(int iComponent) {
+		return orders[iComponent];
+	}
+	
+	public int getNumberOfGranules() {
+		return nGranules;
+	}
+	
+	public double getStartDate() {
+		return jdStart;
+	}
+	
+	public double getStepSize() {
+		return stepSize;
+	}
+	
+	public double getFinishDate() {
+		return jdStart + nGranules * stepSize;
+	}
+	
+	/*
+	 * The SatelliteOffset code of the method used to calculate the offsets, or -1 if the
+	 * archive does not record it.
+	 */
+	
+	public int getMethod() {
+		return method;
+	}
+	
+	public double getMaximumError() {
+		return maxError;
+	}
+	
+	/*
+	 * The resolution of a quantised archive in arcseconds, or zero for a plain archive.
+	 */
+	
+	public double getResolution() {
+		return resolution;
+	}
+	
+	/*
+	 * Copy the coefficients of one component of a granule into the array, which must
+	 * be at least as long as the order of the component.
+	 */
+	
+	public void getCoefficients(int iGranule, int iComponent, double[] coeffs) {
+		if (iGranule < 0 || iGranule >= nGranules)
+			throw new IllegalArgumentException("Granule index is out of range");
+		
+		data.get(iGranule * recordLength + offsets[iComponent], coeffs, 0, orders[iComponent]);
+	}
+	
+	public boolean isCovered(double jd) {
+		return jd >= jdStart && jd <= getFinishDate();
+	}
+	
+	/*
+	 * The index of the X component of a body in a reference system, or -1 if the archive
+	 * does not contain it.  The Y and Z components follow it.
+	 */
+	
+	public int getComponentIndex(int body, int referenceSystem) {
+		int iBody = indexOf(bodies, body);
+		int iRefsys = indexOf(refsys, referenceSystem);
+		
+		return (iBody < 0 || iRefsys < 0) ? -1 : 3 * (bodies.length * iRefsys + iBody);
+	}
+	
+	private static int indexOf(int[] array, int value) {
+		for (int i = 0; i < array.length; i++)
+			if (array[i] == value)
+				return i;
+		
+		return -1;
+	}
+	
+	/*
+	 * Calculate the X, Y and Z offsets of a body, in arcseconds, and if the rates array
+	 * is not null, their rates of change in arcseconds per day.
+	 */
+	
+	public void calculateOffsets(double jd, int body, int referenceSystem, double[] offsets, double[] rates) {
+		int iComponent = getComponentIndex(body, referenceSystem);
+		
+		if (iComponent < 0)
+			throw new IllegalArgumentException("Archive does not contain body " + body + " in reference system " + referenceSystem);
+		
+		if (!isCovered(jd))
+			throw new IllegalArgumentException("Date " + jd + " is outside the range of the archive");
+		
+		int iGranule = (int)Math.floor((jd - jdStart)/stepSize);
+		
+		if (iGranule == nGranules)
+			iGranule--;
+		
+		double x = 2.0 * (jd - jdStart - iGranule * stepSize)/stepSize - 1.0;
+		
+		double scale = 2.0/stepSize;
+		
+		int recordStart = iGranule * recordLength;
+		
+		for (int iXYZ = 0; iXYZ < 3; iXYZ++) {
+			int n = orders[iComponent + iXYZ];
+			
+			data.get(recordStart + this.offsets[iComponent + iXYZ], scratch, 0, n);
+			
+			if (rates != null) {
+				Clenshaw.evaluateWithDerivative(scratch, 0, n, x, result);
+				
+				offsets[iXYZ] = result[0];
+				rates[iXYZ] = result[1] * scale;
+			} else
+				offsets[iXYZ] = Clenshaw.evaluate(scratch, 0, n, x);
+		}
+	}
+	
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,211 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Write a binary Chebyshev archive, as described in ChebyshevArchive.  The number of
+ * coefficients of each component is fixed when the archive is created; shorter series
+ * are padded with zeros.  The number of granules and the largest error are written
+ * into the header when the archive is closed.
+ */
+
+public class ChebyshevArchiveWriter implements GranuleArchiveWriter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final FileChannel channel;
+	private final int[] orders;
+	private final int recordSize;
+	private final double jdStart, stepSize;
+	private final ByteBuffer buffer;
+	
+	private int nGranules = 0;
+	private double maxError = Double.NaN;
+	private int method = -1;
+	
+	public ChebyshevArchiveWriter(File file, int[] bodies, int[] refsys, int[] orders, double jdStart,
+			double stepSize) throws IOException {
+		if (orders.length != 3 * bodies.length * refsys.length)
+			throw new IllegalArgumentException("There must be one order for each of the X, Y and Z components of each body in each reference system");
+		
+		this.orders = orders.clone();
+		this.jdStart = jdStart;
+		this.stepSize = stepSize;
+		
+		int size = 0;
+		
+		for (int order : orders)
+			size += 8 * order;
+		
+		this.recordSize = size;
+		
+		this.buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, recordSize)).order(ByteOrder.LITTLE_ENDIAN);
+		
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		
+		int headerSize = ChebyshevArchive.headerSize(bodies.length, refsys.length);
+		
+		buffer.put(ChebyshevArchive.MAGIC);
+		buffer.putInt(ChebyshevArchive.VERSION);
+		buffer.putInt(headerSize);
+		buffer.putInt(bodies.length);
+		buffer.putInt(refsys.length);
+		buffer.putInt(0);
+		buffer.putInt(0);
+		buffer.putDouble(jdStart);
+		buffer.putDouble(stepSize);
+		buffer.putDouble(Double.NaN);
+		
+		for (int body : bodies)
+			buffer.putInt(body);
+		
+		for (int r : refsys)
+			buffer.putInt(r);
+		
+		for (int order : orders)
+			buffer.putInt(order);
+		
+		while (buffer.position() < headerSize)
+			buffer.put((byte)0);
+	}
+	
+	/*
+	 * Open an existing plain archive to append granules after its last one.  Anything
+	 * beyond the granules counted in the header, left by an interrupted append, is
+	 * discarded.  The header is rewritten only when the writer is closed, so until then
+	 * readers see the archive as it was, and an interrupted append loses nothing.
+	 */
+	
+	public ChebyshevArchiveWriter(File file) throws IOException {
+		int headerSize;
+		
+		try (ChebyshevArchiveReader reader = new ChebyshevArchiveReader(file)) {
+			if (reader.getResolution() > 0.0)
+				throw new IOException("Cannot append to a quantised archive: " + file);
+			
+			int nComponents = 3 * reader.getBodies().length * reader.getReferenceSystems().length;
+			
+			this.orders = new int[nComponents];
+			
+			for (int i = 0; i < nComponents; i++)
+				orders[i] = reader.getOrder(i);
+			
+			this.jdStart = reader.getStartDate();
+			this.stepSize = reader.getStepSize();
+			this.nGranules = reader.getNumberOfGranules();
+			this.maxError = reader.getMaximumError();
+			this.method = reader.getMethod();
+			
+			headerSize = ChebyshevArchive.headerSize(reader.getBodies().length, reader.getReferenceSystems().length);
+		}
+		
+		int size = 0;
+		
+		for (int order : orders)
+			size += 8 * order;
+		
+		this.recordSize = size;
+		
+		this.buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, recordSize)).order(ByteOrder.LITTLE_ENDIAN);
+		
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		
+		long end = headerSize + (long)recordSize * nGranules;
+		
+		channel.truncate(end);
+		channel.position(end);
+	}
+	
+	public int getNumberOfGranules() {
+		return nGranules;
+	}
+	
+	public double getMaximumError() {
+		return maxError;
+	}
+	
+	/*
+	 * Append the next granule, which must start one granule length after the previous
+	 * one.  The rows of the coefficient array are the components in archive order.
+	 */
+	
+	public void writeGranule(double jd0, double[][] coeffs) throws IOException {
+		if (Math.abs(jd0 - (jdStart + nGranules * stepSize)) > 1.0e-6)
+			throw new IllegalArgumentException("Granule starting at " + jd0 + " is out of sequence");
+		
+		if (coeffs.length != orders.length)
+			throw new IllegalArgumentException("Granule has the wrong number of components");
+		
+		if (buffer.remaining() < recordSize)
+			flush();
+		
+		for (int iComponent = 0; iComponent < orders.length; iComponent++) {
+			double[] c = coeffs[iComponent];
+			
+			if (c.length > orders[iComponent])
+				throw new IllegalArgumentException("Component " + iComponent + " has more coefficients than the archive allows");
+			
+			for (int i = 0; i < orders[iComponent]; i++)
+				buffer.putDouble(i < c.length ? c[i] : 0.0);
+		}
+		
+		nGranules++;
+	}
+	
+	public void setMaximumError(double maxError) {
+		this.maxError = maxError;
+	}
+	
+	public void setMethod(int method) {
+		this.method = method;
+	}
+	
+	private void flush() throws IOException {
+		buffer.flip();
+		
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		
+		buffer.clear();
+	}
+	
+	public void close() throws IOException {
+		try {
+			flush();
+			
+			ByteBuffer patch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			
+			patch.putInt(nGranules).putInt(method + 1).flip();
+			channel.write(patch, ChebyshevArchive.OFFSET_GRANULES);
+			
+			patch.clear();
+			patch.putDouble(maxError).flip();
+			channel.write(patch, ChebyshevArchive.OFFSET_MAXIMUM_ERROR);
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Write Chebyshev offset coefficients in the JSON layout produced by GenerateJSONData.
+ * Numbers are formatted by hand into a reusable buffer, which is much faster than
+ * String.format and does not depend on the default locale.  The output may be
+ * compressed with gzip.  Instances are not thread-safe: granules must be written by
+ * one thread, in order.
+ */
+
+public class ChebyshevJSONWriter implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final Writer writer;
+	private final boolean closeWhenDone;
+	private final int decimals;
+	private final StringBuilder sb = new StringBuilder(1024);
+	private boolean firstGranule = true;
+	
+	public ChebyshevJSONWriter(Writer writer, boolean closeWhenDone, int decimals) {
+		this.writer = writer;
+		this.closeWhenDone = closeWhenDone;
+		this.decimals = decimals;
+	}
+	
+	/*
+	 * Open a writer on the named file, or on standard output if the name is null or "-".
+	 */
+	
+	public static ChebyshevJSONWriter open(String filename, boolean gzip, int decimals) throws IOException {
+		boolean stdout = filename == null || filename.equals("-");
+		
+		OutputStream os = stdout ? System.out : new FileOutputStream(filename);
+		
+		if (gzip) {
+			try {
+				os = new GZIPOutputStream(os, BUFFER_SIZE);
+			} catch (IOException e) {
+				if (!stdout)
+					os.close();
+				
+				throw e;
+			}
+		}
+		
+		Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.US_ASCII), BUFFER_SIZE);
+		
+		return new ChebyshevJSONWriter(writer, !stdout || gzip, decimals);
+	}
+	
+	public void writeHeader(String name, double jdStart, double stepSize, String refsys) throws IOException {
+		writeHeader(new String[] { name }, false, jdStart, stepSize, new String[] { refsys });
+	}
+	
+	/*
+	 * A document may hold the series of several bodies in several reference systems.
+	 * Each granule then has three rows for each body, in the order of the names, for
+	 * each reference system in turn.  With a single name and combined set to false, the
+	 * name is written as that of the document; with a single reference system, it is
+	 * written as a string rather than a list.
+	 */
+	
+	public void writeHeader(String[] names, boolean combined, double jdStart, double stepSize, String[] refsys) throws IOException {
+		writeHeader(names, combined, jdStart, stepSize, refsys, null);
+	}
+	
+	public void writeHeader(String[] names, boolean combined, double jdStart, double stepSize, String[] refsys,
+			String method) throws IOException {
+		writeHeader(names, combined, jdStart, stepSize, refsys, method, 0, 0);
+	}
+	
+	/*
+	 * The method, if it is not null, is the name of the method used to calculate the
+	 * offsets.  The degree of an adaptive fit and the limit on the number of
+	 * coefficients are written if they are positive.  AppendChebyshevData uses them to
+	 * extend the document consistently.
+	 */
+	
+	public void writeHeader(String[] names, boolean combined, double jdStart, double stepSize, String[] refsys,
+			String method, int degree, int nCoeffs) throws IOException {
+		sb.setLength(0);
+		
+		if (names.length == 1 && !combined)
+			sb.append("{\n  \"name\":\"").append(names[0]).append("\",\n");
+		else {
+			sb.append("{\n  \"name\":\"all\",\n  \"names\":");
+			appendList(sb, names);
+			sb.append(",\n");
+		}
+		
+		sb.append("  \"jdstart\":\"");
+		appendFixed(sb, jdStart, 5, 13);
+		sb.append("\",\n  \"stepsize\":\"");
+		appendFixed(sb, stepSize, 5, 0);
+		sb.append("\",\n  \"refsys\":");
+		
+		if (refsys.length == 1)
+			sb.append('"').append(refsys[0]).append('"');
+		else
+			appendList(sb, refsys);
+		
+		if (method != null)
+			sb.append(",\n  \"method\":\"").append(method).append('"');
+		
+		if (degree > 0)
+			sb.append(",\n  \"degree\":\"").append(degree).append('"');
+		
+		if (nCoeffs > 0)
+			sb.append(",\n  \"ncoeffs\":\"").append(nCoeffs).append('"');
+		
+		sb.append(",\n  \"data\": [");
+		
+		writer.append(sb);
+	}
+	
+	private static void appendList(StringBuilder sb, String[] items) {
+		sb.append('[');
+		
+		for (int i = 0; i < items.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			
+			sb.append('"').append(items[i]).append('"');
+		}
+		
+		sb.append(']');
+	}
+	
+	/*
+	 * Copy part of an existing document verbatim.
+	 */
+	
+	public void writeRaw(CharSequence text, int start, int end) throws IOException {
+		writer.append(text, start, end);
+	}
+	
+	/*
+	 * Continue a document whose header and earlier granules have already been written
+	 * by other means, so that the next granule is preceded by a separator.
+	 */
+	
+	public void continueData() {
+		firstGranule = false;
+	}
+	
+	public void writeGranule(double jd0, double jd1, double[][] coeffs) throws IOException {
+		int[] rows = new int[coeffs.length];
+		
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = i;
+		
+		writeGranule(jd0, jd1, coeffs, rows);
+	}
+	
+	/*
+	 * Write the granule using only the given rows of the coefficient array, in order.
+	 */
+	
+	public void writeGranule(double jd0, double jd1, double[][] coeffs, int[] rows) throws IOException {
+		sb.setLength(0);
+		
+		if (!firstGranule)
+			sb.append(",\n");
+		
+		firstGranule = false;
+		
+		sb.append("    [ \"");
+		appendFixed(sb, jd0, 5, 13);
+		sb.append("\", \"");
+		appendFixed(sb, jd1, 5, 13);
+		sb.append("\",\n");
+		
+		for (int j = 0; j < rows.length; j++) {
+			int iRow = rows[j];
+			
+			sb.append("      [");
+			
+			for (int i = 0; i < coeffs[iRow].length; i++) {
+				if (i > 0)
+					sb.append(", ");
+				
+				sb.append('"');
+				appendFixed(sb, coeffs[iRow][i], decimals, 0);
+				sb.append('"');
+			}
+			
+			sb.append(j < rows.length - 1 ? " ],\n" : " ]\n");
+		}
+		
+		sb.append("    ]");
+		
+		writer.append(sb);
+	}
+	
+	/*
+	 * Finish the document.  The tolerance and the largest error are written only if the
+	 * tolerance is positive.
+	 */
+	
+	public void writeTrailer(double jdFinish, double tolerance, double maxError) throws IOException {
+		sb.setLength(0);
+		
+		sb.append("\n  ],\n");
+		
+		if (tolerance > 0.0) {
+			sb.append("  \"tolerance\":\"");
+			appendFixed(sb, tolerance, 6, 0);
+			sb.append("\",\n  \"maxerror\":\"");
+			appendFixed(sb, maxError, 6, 0);
+			sb.append("\",\n");
+		}
+		
+		sb.append("  \"jdfinish\":\"");
+		appendFixed(sb, jdFinish, 5, 13);
+		sb.append("\"\n}\n");
+		
+		writer.append(sb);
+	}
+	
+	public void close() throws IOException {
+		if (closeWhenDone)
+			writer.close();
+		else
+			writer.flush();
+	}
+	
+	private static final long[] POWERS_OF_TEN = {
+			1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+	};
+	
+	private static final double MAXIMUM_SCALED_VALUE = 1.0e12;
+	private static final double TIE_MARGIN = 1.0e-3;
+	
+	/*
+	 * Append a number with a fixed number of decimal places, right-justified in a field
+	 * of the given width, as printf would with "%width.decimalsf".
+	 *
+	 * The scaled value is rounded directly only when it is small enough for the error of
+	 * the scaling to be far below the tie margin, and is not within that margin of a
+	 * half, so that it must round the same way as the decimal value which printf rounds.
+	 * Otherwise printf itself is used.
+	 */
+	
+	public static void appendFixed(StringBuilder sb, double value, int decimals, int width) {
+		int start = sb.length();
+		
+		double product = decimals < POWERS_OF_TEN.length ? Math.abs(value) * POWERS_OF_TEN[decimals] : Double.NaN;
+		
+		if (!(product < MAXIMUM_SCALED_VALUE) || Math.abs(product - Math.floor(product) - 0.5) < TIE_MARGIN) {
+			sb.append(String.format(Locale.ROOT, "%." + decimals + "f", value));
+		} else {
+			long power = POWERS_OF_TEN[decimals];
+			long scaled = Math.round(product);
+			
+			if (Double.doubleToRawLongBits(value) < 0)
+				sb.append('-');
+			
+			sb.append(scaled/power);
+			
+			if (decimals > 0) {
+				sb.append('.');
+				
+				String fraction = Long.toString(scaled % power);
+				
+				for (int i = fraction.length(); i < decimals; i++)
+					sb.append('0');
+				
+				sb.append(fraction);
+			}
+		}
+		
+		for (int length = sb.length() - start; length < width; length++)
+			sb.insert(start, ' ');
+	}
+}
@@ -0,0 +1,172 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+
+/*
+ * A MovingPoint for one satellite whose Saturnicentric position is taken from
+ * precomputed Chebyshev series instead of the TASS17 series.  The span from jdStart
+ * is divided into granules of equal length, so the granule for any epoch is found by
+ * arithmetic.  Each granule holds nCoeffs coefficients for each of the J2000 equatorial
+ * X, Y and Z components, in AU, stored in a flat array in that order.  Velocities
+ * come from the analytic derivative of the series.  Epochs outside the covered span
+ * are calculated from the theory itself.
+ */
+
+public class ChebyshevMovingPoint extends SaturnicentricMovingPoint {
+	private final double jdStart, granuleLength;
+	private final int nCoeffs, nGranules;
+	private final double[] coeffs;
+	
+	private final double[] result = new double[2];
+	
+	public ChebyshevMovingPoint(JPLEphemeris ephemeris, TASSTheory theory, int satelliteID,
+			double jdStart, double granuleLength, int nCoeffs, double[] coeffs) {
+		super(ephemeris, theory, satelliteID);
+		
+		if (granuleLength <= 0.0)
+			throw new IllegalArgumentException("Granule length must be positive");
+		
+		if (nCoeffs < 1 || coeffs == null || coeffs.length % (3 * nCoeffs) != 0)
+			throw new IllegalArgumentException("Coefficient array does not contain a whole number of granules");
+		
+		this.jdStart = jdStart;
+		this.granuleLength = granuleLength;
+		this.nCoeffs = nCoeffs;
+		this.nGranules = coeffs.length/(3 * nCoeffs);
+		this.coeffs = coeffs;
+	}
+	
+	public ChebyshevMovingPoint(JPLEphemeris ephemeris, TASSTheory theory, int satelliteID,
+			double jdStart, double jdFinish, double granuleLength, int nCoeffs) {
+		this(ephemeris, theory, satelliteID, jdStart, granuleLength, nCoeffs,
+				calculateCoefficients(theory, satelliteID, jdStart, jdFinish, granuleLength, nCoeffs));
+	}
+	
+	/*
+	 * Fit the Saturnicentric J2000 position of a satellite over [jdStart, jdFinish],
+	 * sampling the theory once per Chebyshev node for all three components.
+	 */
+	
+	public static double[] calculateCoefficients(TASSTheory theory, int satelliteID,
+			double jdStart, double jdFinish, double granuleLength, int nCoeffs) {
+		int nGranules = (int)Math.ceil((jdFinish - jdStart)/granuleLength);
+		
+		if (nGranules < 1)
+			throw new IllegalArgumentException("Empty date range");
+		
+		double obliquity = new IAUEarthRotationModel().meanObliquity(2451545.0);
+		
+		double sinObliquity = Math.sin(obliquity);
+		double cosObliquity = Math.cos(obliquity);
+		
+		double[] coeffs = new double[3 * nCoeffs * nGranules];
+		double[][] granuleCoeffs = new double[3][nCoeffs];
+		double[] xyz = new double[3];
+		TASSElements elements = new TASSElements();
+		
+		for (int iGranule = 0; iGranule < nGranules; iGranule++) {
+			double jd0 = jdStart + iGranule * granuleLength;
+			
+			VectorEvaluatable f = new VectorEvaluatable() {
+				public int getDimension() {
+					return 3;
+				}
+				
+				public void evaluate(double x, double[] values) {
+					double jd = jd0 + 0.5 * (x + 1.0) * granuleLength;
+					
+					theory.calculateElements(jd, satelliteID, elements);
+					theory.calculatePosition(satelliteID, elements, xyz);
+					
+					values[0] = xyz[0];
+					values[1] = xyz[1] * cosObliquity - xyz[2] * sinObliquity;
+					values[2] = xyz[1] * sinObliquity + xyz[2] * cosObliquity;
+				}
+			};
+			
+			VectorChebyshev.calculateChebyshevCoefficients(f, granuleCoeffs);
+			
+			for (int iXYZ = 0; iXYZ < 3; iXYZ++)
+				System.arraycopy(granuleCoeffs[iXYZ], 0, coeffs, (3 * iGranule + iXYZ) * nCoeffs, nCoeffs);
+		}
+		
+		return coeffs;
+	}
+	
+	public double[] getCoefficients() {
+		return coeffs;
+	}
+	
+	public int getNumberOfCoefficients() {
+		return nCoeffs;
+	}
+	
+	public int getNumberOfGranules() {
+		return nGranules;
+	}
+	
+	public double getGranuleLength() {
+		return granuleLength;
+	}
+	
+	public double getStartDate() {
+		return jdStart;
+	}
+	
+	public double getFinishDate() {
+		return jdStart + nGranules * granuleLength;
+	}
+	
+	public boolean isCovered(double jd) {
+		return jd >= jdStart && jd <= getFinishDate();
+	}
+	
+	public void getSaturnicentricPositionAndVelocity(double jd, double[] position, double[] velocity) {
+		int iGranule = (int)Math.floor((jd - jdStart)/granuleLength);
+		
+		if (iGranule == nGranules && jd == getFinishDate())
+			iGranule--;
+		
+		if (iGranule < 0 || iGranule >= nGranules) {
+			calculateFromTheory(jd, position, velocity);
+			return;
+		}
+		
+		double x = 2.0 * (jd - jdStart - iGranule * granuleLength)/granuleLength - 1.0;
+		
+		double scale = 2.0/granuleLength;
+		
+		for (int iXYZ = 0; iXYZ < 3; iXYZ++) {
+			int offset = (3 * iGranule + iXYZ) * nCoeffs;
+			
+			if (velocity != null) {
+				Clenshaw.evaluateWithDerivative(coeffs, offset, nCoeffs, x, result);
+				
+				position[iXYZ] = result[0];
+				velocity[iXYZ] = result[1] * scale;
+			} else
+				position[iXYZ] = Clenshaw.evaluate(coeffs, offset, nCoeffs, x);
+		}
+	}
+}
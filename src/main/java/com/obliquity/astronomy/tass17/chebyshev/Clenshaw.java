@@ -0,0 +1,108 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+/*
+ * Evaluation of Chebyshev series by Clenshaw's recurrence.  The coefficients use the
+ * same convention as com.obliquity.astronomy.almanac.chebyshev.Chebyshev, namely that
+ * the first coefficient is the constant term of the series.
+ */
+
+public class Clenshaw {
+	public static double evaluate(double[] coeffs, int offset, int nCoeffs, double x) {
+		double b1 = 0.0, b2 = 0.0;
+		double twoX = 2.0 * x;
+		
+		for (int k = nCoeffs - 1; k > 0; k--) {
+			double b0 = coeffs[offset + k] + twoX * b1 - b2;
+			b2 = b1;
+			b1 = b0;
+		}
+		
+		return coeffs[offset] + x * b1 - b2;
+	}
+	
+	public static double evaluate(double[] coeffs, double x) {
+		return evaluate(coeffs, 0, coeffs.length, x);
+	}
+	
+	/*
+	 * Evaluate the series and its derivative with respect to x in a single pass.  The
+	 * value is stored in result[0] and the derivative in result[1].
+	 */
+	
+	public static void evaluateWithDerivative(double[] coeffs, int offset, int nCoeffs, double x, double[] result) {
+		double b1 = 0.0, b2 = 0.0;
+		double d1 = 0.0, d2 = 0.0;
+		double twoX = 2.0 * x;
+		
+		for (int k = nCoeffs - 1; k > 0; k--) {
+			double d0 = 2.0 * b1 + twoX * d1 - d2;
+			d2 = d1;
+			d1 = d0;
+			
+			double b0 = coeffs[offset + k] + twoX * b1 - b2;
+			b2 = b1;
+			b1 = b0;
+		}
+		
+		result[0] = coeffs[offset] + x * b1 - b2;
+		result[1] = b1 + x * d1 - d2;
+	}
+	
+	public static void evaluateWithDerivative(double[] coeffs, double x, double[] result) {
+		evaluateWithDerivative(coeffs, 0, coeffs.length, x, result);
+	}
+	
+	/*
+	 * Integrate the series with respect to x from a to b, both in [-1, 1].  The
+	 * indefinite integral of the series of n terms has the n+1 coefficients
+	 * C(1) = c(0) - c(2)/2 and C(k) = (c(k-1) - c(k+1))/2k for k > 1, and it is
+	 * summed at both limits by the forward recurrence for the Chebyshev polynomials,
+	 * which is stable within the interval.
+	 */
+	
+	public static double integrate(double[] coeffs, int offset, int nCoeffs, double a, double b) {
+		double ta0 = 1.0, ta1 = a, tb0 = 1.0, tb1 = b;
+		double sum = 0.0;
+		
+		for (int k = 1; k <= nCoeffs; k++) {
+			double cPrevious = coeffs[offset + k - 1];
+			double cNext = k + 1 < nCoeffs ? coeffs[offset + k + 1] : 0.0;
+			
+			double C = k == 1 ? cPrevious - 0.5 * cNext : 0.5 * (cPrevious - cNext)/k;
+			
+			sum += C * (tb1 - ta1);
+			
+			double ta2 = 2.0 * a * ta1 - ta0;
+			double tb2 = 2.0 * b * tb1 - tb0;
+			
+			ta0 = ta1;
+			ta1 = ta2;
+			tb0 = tb1;
+			tb1 = tb2;
+		}
+		
+		return sum;
+	}
+	
+	public static double integrate(double[] coeffs, double a, double b) {
+		return integrate(coeffs, 0, coeffs.length, a, b);
+	}
+}
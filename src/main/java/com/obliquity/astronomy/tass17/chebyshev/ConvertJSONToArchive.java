@@ -0,0 +1,286 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Convert a JSON document written by GenerateJSONData into a binary Chebyshev archive.
+ * The number of coefficients stored for each component is the largest found in any
+ * granule of the document.
+ *
+ * With -resolution, the output is a quantised archive whose coefficients are rounded
+ * to the given resolution in arcseconds, and the input may also be a plain binary
+ * archive.  The sizes, the compression ratio and the error added by quantisation are
+ * reported.
+ */
+
+public class ConvertJSONToArchive {
+	public static void main(String[] args) {
+		String inputFilename = null, outputFilename = null;
+		double resolution = 0.0;
+		
+		for (int i = 0; i < args.length; i++) {
+			String keyword = args[i].toLowerCase();
+			
+			switch (keyword) {
+			case "-input":
+			case "-in":
+				inputFilename = args[++i];
+				break;
+				
+			case "-output":
+			case "-out":
+				outputFilename = args[++i];
+				break;
+				
+			case "-resolution":
+				resolution = Double.parseDouble(args[++i]);
+				break;
+				
+			default:
+				System.err.println("Unknown keyword: " + keyword);
+				System.exit(1);
+			}
+		}
+		
+		if (inputFilename == null || outputFilename == null) {
+			System.err.println("Invalid or missing options.");
+			System.exit(2);
+		}
+		
+		try {
+			File input = new File(inputFilename), output = new File(outputFilename);
+			
+			if (resolution > 0.0)
+				quantise(input, output, resolution);
+			else
+				convert(input, output);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(3);
+		}
+	}
+	
+	public static void convert(File input, File output) throws IOException {
+		convert(input, output, 0.0);
+	}
+	
+	/*
+	 * Write a quantised archive from a JSON document or a plain archive, and report the
+	 * result on standard output.
+	 */
+	
+	public static void quantise(File input, File output, double resolution) throws IOException {
+		QuantisedArchiveWriter writer = isArchive(input) ? quantiseArchive(input, output, resolution) :
+			(QuantisedArchiveWriter)convert(input, output, resolution);
+		
+		long quantisedSize = output.length();
+		long plainSize = writer.getUnquantisedSize();
+		
+		System.out.printf("Granules:                  %d\n", writer.getNumberOfGranules());
+		System.out.printf("Input size:                %d bytes\n", input.length());
+		System.out.printf("Plain archive size:        %d bytes\n", plainSize);
+		System.out.printf("Quantised archive size:    %d bytes\n", quantisedSize);
+		System.out.printf("Compression ratio:         %.2f (input), %.2f (plain archive)\n",
+				(double)input.length()/quantisedSize, (double)plainSize/quantisedSize);
+		System.out.printf("Resolution:                %.3e arcsec\n", resolution);
+		System.out.printf("Added quantisation error:  %.3e arcsec\n", writer.getQuantisationError());
+	}
+	
+	private static boolean isArchive(File file) throws IOException {
+		byte[] magic = new byte[ChebyshevArchive.MAGIC.length];
+		
+		try (InputStream is = new FileInputStream(file)) {
+			if (is.readNBytes(magic, 0, magic.length) < magic.length)
+				return false;
+		}
+		
+		return Arrays.equals(magic, ChebyshevArchive.MAGIC) || Arrays.equals(magic, ChebyshevArchive.QUANTISED_MAGIC);
+	}
+	
+	private static QuantisedArchiveWriter quantiseArchive(File input, File output, double resolution) throws IOException {
+		try (ChebyshevArchiveReader reader = new ChebyshevArchiveReader(input)) {
+			int[] bodies = reader.getBodies();
+			int[] refsys = reader.getReferenceSystems();
+			int[] orders = new int[3 * bodies.length * refsys.length];
+			
+			double[][] coeffs = new double[orders.length][];
+			
+			for (int i = 0; i < orders.length; i++) {
+				orders[i] = reader.getOrder(i);
+				coeffs[i] = new double[orders[i]];
+			}
+			
+			double maxError = reader.getMaximumError();
+			
+			QuantisedArchiveWriter writer = new QuantisedArchiveWriter(output, bodies, refsys, orders,
+					reader.getStartDate(), reader.getStepSize(), resolution);
+			
+			try (writer) {
+				for (int iGranule = 0; iGranule < reader.getNumberOfGranules(); iGranule++) {
+					for (int i = 0; i < orders.length; i++)
+						reader.getCoefficients(iGranule, i, coeffs[i]);
+					
+					writer.writeGranule(reader.getStartDate() + iGranule * reader.getStepSize(), coeffs);
+				}
+				
+				writer.setMaximumError(maxError);
+				writer.setMethod(reader.getMethod());
+			}
+			
+			return writer;
+		}
+	}
+	
+	/*
+	 * Read a JSON document written by GenerateJSONData, which may be compressed.
+	 */
+	
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> readDocument(File input) throws IOException {
+		InputStream is = new FileInputStream(input);
+		
+		if (input.getName().endsWith(".gz"))
+			is = new GZIPInputStream(is, 1 << 16);
+		
+		try (Reader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.US_ASCII), 1 << 16)) {
+			return (Map<String, Object>)SimpleJSONParser.parse(reader);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static GranuleArchiveWriter convert(File input, File output, double resolution) throws IOException {
+		Map<String, Object> document = readDocument(input);
+		
+		Object names = document.containsKey("names") ? document.get("names") : document.get("name");
+		
+		int[] bodies = toCodes(names, GenerateJSONData.idToName, "satellite");
+		int[] refsys = toCodes(document.get("refsys"), GenerateJSONData.refsysToName, "reference system");
+		
+		double jdStart = toDouble(document.get("jdstart"));
+		double stepSize = toDouble(document.get("stepsize"));
+		double maxError = document.containsKey("maxerror") ? toDouble(document.get("maxerror")) : Double.NaN;
+		
+		List<Object> data = (List<Object>)document.get("data");
+		
+		if (data == null)
+			throw new IOException("Document has no data");
+		
+		int nComponents = 3 * bodies.length * refsys.length;
+		int[] orders = new int[nComponents];
+		
+		for (Object granule : data) {
+			List<Object> rows = (List<Object>)granule;
+			
+			if (rows.size() != nComponents + 2)
+				throw new IOException("Granule starting at " + rows.get(0) + " has " + (rows.size() - 2) +
+						" components instead of " + nComponents);
+			
+			for (int i = 0; i < nComponents; i++)
+				orders[i] = Math.max(orders[i], ((List<Object>)rows.get(i + 2)).size());
+		}
+		
+		double[][] coeffs = new double[nComponents][];
+		
+		GranuleArchiveWriter writer = resolution > 0.0 ?
+				new QuantisedArchiveWriter(output, bodies, refsys, orders, jdStart, stepSize, resolution) :
+					new ChebyshevArchiveWriter(output, bodies, refsys, orders, jdStart, stepSize);
+		
+		try (writer) {
+			for (Object granule : data) {
+				List<Object> rows = (List<Object>)granule;
+				
+				for (int i = 0; i < nComponents; i++) {
+					List<Object> row = (List<Object>)rows.get(i + 2);
+					
+					coeffs[i] = new double[row.size()];
+					
+					for (int j = 0; j < coeffs[i].length; j++)
+						coeffs[i][j] = toDouble(row.get(j));
+				}
+				
+				writer.writeGranule(toDouble(rows.get(0)), coeffs);
+			}
+			
+			writer.setMaximumError(maxError);
+			writer.setMethod(getMethod(document));
+		}
+		
+		return writer;
+	}
+	
+	/*
+	 * The SatelliteOffset code of the method named in a document, or -1 if the document
+	 * does not name one.
+	 */
+	
+	static int getMethod(Map<String, Object> document) throws IOException {
+		Object method = document.get("method");
+		
+		return method == null ? -1 : toCode(String.valueOf(method), GenerateJSONData.methodToName, "method");
+	}
+	
+	static double toDouble(Object value) throws IOException {
+		if (value instanceof Double)
+			return (Double)value;
+		
+		if (value instanceof String)
+			return Double.parseDouble(((String)value).trim());
+		
+		throw new IOException("Expected a number but found " + value);
+	}
+	
+	static int[] toCodes(Object value, String[] table, String what) throws IOException {
+		if (value instanceof String)
+			return new int[] { toCode((String)value, table, what) };
+		
+		if (value instanceof List) {
+			List<?> list = (List<?>)value;
+			
+			int[] codes = new int[list.size()];
+			
+			for (int i = 0; i < codes.length; i++)
+				codes[i] = toCode(String.valueOf(list.get(i)), table, what);
+			
+			return codes;
+		}
+		
+		throw new IOException("Missing " + what);
+	}
+	
+	private static int toCode(String name, String[] table, String what) throws IOException {
+		for (int i = 0; i < table.length; i++)
+			if (table[i].equalsIgnoreCase(name))
+				return i;
+		
+		throw new IOException("Unknown " + what + ": " + name);
+	}
+}
@@ -0,0 +1,259 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.chebyshev.Evaluatable;
+
+/*
+ * Chebyshev fitting by discrete cosine transform.  The function is sampled at the
+ * N+1 Lobatto nodes x(k) = cos(k.PI/N), which include the end-points, and the
+ * coefficients of the interpolating series of degree N are found by a type-I DCT.
+ * When N is a power of two, the DCT is computed by a fast Fourier transform in
+ * O(N log N) operations, otherwise by direct summation.
+ *
+ * The coefficients follow the same convention as Chebyshev.calculateChebyshevCoefficients:
+ * coeffs[0] is the constant term itself.  Because the coefficients of a smooth
+ * function decrease rapidly, a series fitted at a high degree may be truncated to
+ * any lower order, with an error bounded by the sum of the absolute values of the
+ * discarded coefficients.  A single sampling therefore yields every truncation order
+ * up to N+1 coefficients.
+ */
+
+public class DCTChebyshev {
+	private DCTChebyshev() {
+	}
+	
+	public static double[] calculateChebyshevCoefficients(Evaluatable f, int N) {
+		double[] samples = new double[N + 1];
+		
+		for (int k = 0; k <= N; k++)
+			samples[k] = f.evaluate(node(k, N));
+		
+		double[] coeffs = new double[N + 1];
+		
+		transform(samples, coeffs);
+		
+		return coeffs;
+	}
+	
+	public static double[][] calculateChebyshevCoefficients(VectorEvaluatable f, int N) {
+		int nComponents = f.getDimension();
+		
+		double[][] samples = new double[nComponents][N + 1];
+		double[] values = new double[nComponents];
+		
+		for (int k = 0; k <= N; k++) {
+			f.evaluate(node(k, N), values);
+			
+			for (int iComponent = 0; iComponent < nComponents; iComponent++)
+				samples[iComponent][k] = values[iComponent];
+		}
+		
+		double[][] coeffs = new double[nComponents][N + 1];
+		
+		for (int iComponent = 0; iComponent < nComponents; iComponent++)
+			transform(samples[iComponent], coeffs[iComponent]);
+		
+		return coeffs;
+	}
+	
+	public static double node(int k, int N) {
+		return Math.cos(Math.PI * (double)k/(double)N);
+	}
+	
+	/*
+	 * Convert N+1 samples at the Lobatto nodes into the N+1 coefficients of the
+	 * interpolating Chebyshev series.
+	 */
+	
+	public static void transform(double[] samples, double[] coeffs) {
+		int N = samples.length - 1;
+		
+		if (N < 1)
+			throw new IllegalArgumentException("At least two samples are required");
+		
+		if (coeffs.length < N + 1)
+			throw new IllegalArgumentException("Coefficient array is too short");
+		
+		if ((N & (N - 1)) == 0)
+			transformByFFT(samples, coeffs, N);
+		else
+			transformDirectly(samples, coeffs, N);
+		
+		coeffs[0] *= 0.5;
+		coeffs[N] *= 0.5;
+	}
+	
+	private static void transformDirectly(double[] samples, double[] coeffs, int N) {
+		for (int j = 0; j <= N; j++) {
+			double sum = 0.5 * (samples[0] + ((j & 1) == 0 ? samples[N] : -samples[N]));
+			
+			for (int k = 1; k < N; k++)
+				sum += samples[k] * Math.cos(Math.PI * (double)((j * k) % (2 * N))/(double)N);
+			
+			coeffs[j] = 2.0 * sum/N;
+		}
+	}
+	
+	/*
+	 * The type-I DCT of N+1 points is the real part of the discrete Fourier transform
+	 * of their even extension to 2N points.
+	 */
+	
+	private static void transformByFFT(double[] samples, double[] coeffs, int N) {
+		int M = 2 * N;
+		
+		double[] re = new double[M];
+		double[] im = new double[M];
+		
+		for (int k = 0; k <= N; k++)
+			re[k] = samples[k];
+		
+		for (int k = 1; k < N; k++)
+			re[M - k] = samples[k];
+		
+		fft(re, im);
+		
+		for (int j = 0; j <= N; j++)
+			coeffs[j] = re[j]/N;
+	}
+	
+	private static void fft(double[] re, double[] im) {
+		int n = re.length;
+		
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			
+			for (; (j & bit) != 0; bit >>= 1)
+				j ^= bit;
+			
+			j ^= bit;
+			
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		
+		for (int length = 2; length <= n; length <<= 1) {
+			double theta = -2.0 * Math.PI/length;
+			
+			int half = length >> 1;
+			
+			for (int k = 0; k < half; k++) {
+				double wr = Math.cos(theta * k);
+				double wi = Math.sin(theta * k);
+				
+				for (int i = k; i < n; i += length) {
+					int m = i + half;
+					
+					double tr = re[m] * wr - im[m] * wi;
+					double ti = re[m] * wi + im[m] * wr;
+					
+					re[m] = re[i] - tr;
+					im[m] = im[i] - ti;
+					
+					re[i] += tr;
+					im[i] += ti;
+				}
+			}
+		}
+	}
+	
+	/*
+	 * An upper bound on the error of the series truncated to nCoeffs terms, i.e. the
+	 * sum of the absolute values of the discarded coefficients.
+	 */
+	
+	public static double truncationError(double[] coeffs, int nCoeffs) {
+		double sum = 0.0;
+		
+		for (int j = nCoeffs; j < coeffs.length; j++)
+			sum += Math.abs(coeffs[j]);
+		
+		return sum;
+	}
+	
+	public static double truncationError(double[][] coeffs, int nCoeffs) {
+		double error = 0.0;
+		
+		for (int iComponent = 0; iComponent < coeffs.length; iComponent++)
+			error = Math.max(error, truncationError(coeffs[iComponent], nCoeffs));
+		
+		return error;
+	}
+	
+	/*
+	 * The smallest number of coefficients for which the truncation error does not
+	 * exceed the tolerance, or -1 if the last two coefficients already exceed it, in
+	 * which case the fit has not converged and the degree N should be increased.
+	 */
+	
+	public static int requiredCoefficients(double[] coeffs, double tolerance) {
+		int N = coeffs.length - 1;
+		
+		if (N > 0 && Math.abs(coeffs[N]) + Math.abs(coeffs[N - 1]) > tolerance)
+			return -1;
+		
+		double sum = 0.0;
+		
+		for (int j = N; j >= 0; j--) {
+			sum += Math.abs(coeffs[j]);
+			
+			if (sum > tolerance)
+				return j + 1;
+		}
+		
+		return 1;
+	}
+	
+	public static int requiredCoefficients(double[][] coeffs, double tolerance) {
+		int nCoeffs = 1;
+		
+		for (int iComponent = 0; iComponent < coeffs.length; iComponent++) {
+			int n = requiredCoefficients(coeffs[iComponent], tolerance);
+			
+			if (n < 0)
+				return -1;
+			
+			nCoeffs = Math.max(nCoeffs, n);
+		}
+		
+		return nCoeffs;
+	}
+	
+	/*
+	 * Copy the first nCoeffs coefficients of each component into an array suitable
+	 * for the same consumers as the Gauss-node fitter.
+	 */
+	
+	public static double[][] truncate(double[][] coeffs, int nCoeffs) {
+		double[][] truncated = new double[coeffs.length][nCoeffs];
+		
+		for (int iComponent = 0; iComponent < coeffs.length; iComponent++)
+			System.arraycopy(coeffs[iComponent], 0, truncated[iComponent], 0, Math.min(nCoeffs, coeffs[iComponent].length));
+		
+		return truncated;
+	}
+}
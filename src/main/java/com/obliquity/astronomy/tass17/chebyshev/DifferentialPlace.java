@@ -0,0 +1,177 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.ApparentPlace;
+import com.obliquity.astronomy.almanac.EarthCentre;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.almanac.StateVector;
+import com.obliquity.astronomy.almanac.Vector;
+import com.obliquity.astronomy.tass17.ReferenceSystemMatrices;
+
+/*
+ * The offset of a satellite from the rigorous apparent place of Saturn, by first-order
+ * differential corrections.  The satellite's light time differs from Saturn's by the
+ * projection of its Saturnicentric position onto the line of sight, so its position at
+ * the retarded epoch of Saturn is moved back along the relative velocity of the
+ * satellite and Saturn by that difference.  Annual aberration scales the component
+ * perpendicular to the line of sight by (1 - u.V/c), where u is the geometric direction
+ * of Saturn and V is the velocity of the Earth.  The satellite is then placed at its
+ * own distance along Saturn's apparent direction in each reference system, displaced by
+ * the perpendicular component, and the offsets are the differences in right ascension
+ * and declination, exactly as in the rigorous method.
+ *
+ * The neglected terms are of second order in the ratio of the satellite's distance from
+ * Saturn to Saturn's distance from the Earth, and in the light-time difference.  The
+ * differential light deflection by the Sun is also neglected.
+ *
+ * Instances are not thread-safe.
+ */
+
+class DifferentialPlace {
+	private static final double SPEED_OF_LIGHT = 173.1446326846693;
+	private static final double ARCSECONDS_PER_RADIAN = 3600.0 * 180.0/Math.PI;
+	
+	private final MovingPoint earth, saturn;
+	private final StateVector earthState = new StateVector(new Vector(), new Vector());
+	private final StateVector saturnState = new StateVector(new Vector(), new Vector());
+	
+	private final double[] u = new double[3];
+	private final double[] uGeometric = new double[3];
+	private final double[] offset = new double[3];
+	private final double[] rotated = new double[3];
+	
+	private double distance, geometricDistance, aberrationFactor, depth;
+	
+	DifferentialPlace(JPLEphemeris ephemeris) {
+		this.earth = new EarthCentre(ephemeris);
+		this.saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+	}
+	
+	/*
+	 * Set up the line of sight from the apparent place of Saturn, which must already
+	 * have been calculated for the given epoch.
+	 */
+	
+	void setSaturnPlace(double jd, ApparentPlace apSaturn) throws JPLEphemerisException {
+		earth.getStateVector(jd, earthState);
+		saturn.getStateVector(jd - apSaturn.getLightTime(), saturnState);
+		
+		Vector E = earthState.getPosition();
+		Vector S = saturnState.getPosition();
+		Vector V = earthState.getVelocity();
+		
+		u[0] = S.getX() - E.getX();
+		u[1] = S.getY() - E.getY();
+		u[2] = S.getZ() - E.getZ();
+		
+		distance = Math.sqrt(u[0] * u[0] + u[1] * u[1] + u[2] * u[2]);
+		
+		for (int i = 0; i < 3; i++)
+			u[i] /= distance;
+		
+		aberrationFactor = 1.0 - (u[0] * V.getX() + u[1] * V.getY() + u[2] * V.getZ())/SPEED_OF_LIGHT;
+		
+		// The direction of Saturn at the epoch itself, without light time.
+		Vector W = saturnState.getVelocity();
+		
+		double tau = apSaturn.getLightTime();
+		
+		uGeometric[0] = distance * u[0] + W.getX() * tau;
+		uGeometric[1] = distance * u[1] + W.getY() * tau;
+		uGeometric[2] = distance * u[2] + W.getZ() * tau;
+		
+		double g = Math.sqrt(uGeometric[0] * uGeometric[0] + uGeometric[1] * uGeometric[1] + uGeometric[2] * uGeometric[2]);
+		
+		for (int i = 0; i < 3; i++)
+			uGeometric[i] /= g;
+		
+		geometricDistance = apSaturn.getGeometricDistance();
+	}
+	
+	/*
+	 * Set the Saturnicentric J2000 position and velocity of the satellite at the retarded
+	 * epoch of Saturn.
+	 */
+	
+	void setSatellite(double[] position, double[] velocity) {
+		double dtau = (u[0] * position[0] + u[1] * position[1] + u[2] * position[2])/SPEED_OF_LIGHT;
+		
+		Vector W = saturnState.getVelocity();
+		
+		offset[0] = position[0] - (velocity[0] + W.getX()) * dtau;
+		offset[1] = position[1] - (velocity[1] + W.getY()) * dtau;
+		offset[2] = position[2] - (velocity[2] + W.getZ()) * dtau;
+		
+		depth = u[0] * offset[0] + u[1] * offset[1] + u[2] * offset[2];
+		
+		for (int i = 0; i < 3; i++)
+			offset[i] = aberrationFactor * (offset[i] - depth * u[i]);
+	}
+	
+	/*
+	 * Calculate the X and Y offsets, in arc-seconds, in the given reference system, from
+	 * the apparent right ascension and declination of Saturn in that system.
+	 */
+	
+	void calculateOffsets(ReferenceSystemMatrices matrices, int refsys, double raSaturn, double decSaturn,
+			double[] offsets, int index) {
+		matrices.rotate(refsys, offset, rotated);
+		
+		double cd = Math.cos(decSaturn);
+		
+		double d = distance + depth;
+		
+		double x = d * Math.cos(raSaturn) * cd + rotated[0];
+		double y = d * Math.sin(raSaturn) * cd + rotated[1];
+		double z = d * Math.sin(decSaturn) + rotated[2];
+		
+		double dra = Math.atan2(y, x) - raSaturn;
+		
+		if (dra > Math.PI)
+			dra -= 2.0 * Math.PI;
+		else if (dra < -Math.PI)
+			dra += 2.0 * Math.PI;
+		
+		double ddec = Math.atan2(z, Math.sqrt(x * x + y * y)) - decSaturn;
+		
+		offsets[index] = dra * cd * ARCSECONDS_PER_RADIAN;
+		offsets[index + 1] = ddec * ARCSECONDS_PER_RADIAN;
+	}
+	
+	/*
+	 * Calculate the Z offset, in arc-seconds, from the Saturnicentric J2000 position of the
+	 * satellite at the epoch itself.  Like the geometric distance of Saturn, it is without
+	 * light time.
+	 */
+	
+	double calculateDistanceOffset(double[] position) {
+		double a = uGeometric[0] * position[0] + uGeometric[1] * position[1] + uGeometric[2] * position[2];
+		double r2 = position[0] * position[0] + position[1] * position[1] + position[2] * position[2];
+		
+		double gd = geometricDistance;
+		
+		double gdSatellite = Math.sqrt(gd * gd + 2.0 * gd * a + r2);
+		
+		return ((gdSatellite - gd)/gd) * ARCSECONDS_PER_RADIAN;
+	}
+}
@@ -0,0 +1,211 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+
+/*
+ * A MovingPoint for one satellite whose TASS17 elements, rather than its position,
+ * are represented by Chebyshev series.  The elements vary far more slowly than the
+ * Cartesian coordinates, because the orbital motion is carried by the linear part of
+ * the mean longitude, which is subtracted before fitting and restored afterwards.
+ * The series are therefore of the mean motion adjustment, the remainder of the mean
+ * longitude (critical and short-period terms), k, h, q and p, and granules may be
+ * much longer than for a Cartesian fit.  Positions and velocities are reconstructed
+ * from the elements by calculatePositionAndVelocity.
+ *
+ * The coefficients are stored in a flat array, granule by granule, with nCoeffs
+ * coefficients for each of the six elements in the order given above.  Epochs outside
+ * the covered span are calculated from the theory itself.
+ */
+
+public class ElementChebyshevMovingPoint extends SaturnicentricMovingPoint {
+	public static final int N_ELEMENTS = 6;
+	
+	private static final int MEAN_MOTION = 0, LAMBDA = 1, K = 2, H = 3, Q = 4, P = 5;
+	
+	private final double jdStart, granuleLength;
+	private final int nCoeffs, nGranules;
+	private final double[] coeffs;
+	
+	private final TASSElements elements = new TASSElements();
+	
+	public ElementChebyshevMovingPoint(JPLEphemeris ephemeris, TASSTheory theory, int satelliteID,
+			double jdStart, double granuleLength, int nCoeffs, double[] coeffs) {
+		super(ephemeris, theory, satelliteID);
+		
+		if (granuleLength <= 0.0)
+			throw new IllegalArgumentException("Granule length must be positive");
+		
+		if (nCoeffs < 1 || coeffs == null || coeffs.length % (N_ELEMENTS * nCoeffs) != 0)
+			throw new IllegalArgumentException("Coefficient array does not contain a whole number of granules");
+		
+		this.jdStart = jdStart;
+		this.granuleLength = granuleLength;
+		this.nCoeffs = nCoeffs;
+		this.nGranules = coeffs.length/(N_ELEMENTS * nCoeffs);
+		this.coeffs = coeffs;
+	}
+	
+	public ElementChebyshevMovingPoint(JPLEphemeris ephemeris, TASSTheory theory, int satelliteID,
+			double jdStart, double jdFinish, double granuleLength, int nCoeffs) {
+		this(ephemeris, theory, satelliteID, jdStart, granuleLength, nCoeffs,
+				calculateCoefficients(theory, satelliteID, jdStart, jdFinish, granuleLength, nCoeffs));
+	}
+	
+	/*
+	 * The elements of a satellite as a function over one granule, with the linear part
+	 * of the mean longitude removed.  The remainder is reduced to the range -PI to +PI,
+	 * which is safe because the critical terms never approach half a revolution.
+	 */
+	
+	public static class Elements implements GranuleFunction {
+		private final TASSTheory theory;
+		private final int satelliteID;
+		private final TASSElements elements = new TASSElements();
+		private double tMinimum = 0.0, tMaximum = 0.0;
+		
+		public Elements(TASSTheory theory, int satelliteID) {
+			this.theory = theory;
+			this.satelliteID = satelliteID;
+		}
+		
+		public void setDateRange(double tMinimum, double tMaximum) {
+			this.tMinimum = tMinimum;
+			this.tMaximum = tMaximum;
+		}
+		
+		public int getDimension() {
+			return N_ELEMENTS;
+		}
+		
+		public void evaluate(double x, double[] values) {
+			double jd = tMinimum + (x + 1.0) * (tMaximum - tMinimum)/2.0;
+			
+			theory.calculateElements(jd, satelliteID, elements);
+			
+			double dLambda = Math.IEEEremainder(elements.lambda - theory.calculateLinearLongitude(jd, satelliteID), 2.0 * Math.PI);
+			
+			values[MEAN_MOTION] = elements.meanMotionAdjustment;
+			values[LAMBDA] = dLambda;
+			values[K] = elements.k;
+			values[H] = elements.h;
+			values[Q] = elements.q;
+			values[P] = elements.p;
+		}
+	}
+	
+	public static double[] calculateCoefficients(TASSTheory theory, int satelliteID,
+			double jdStart, double jdFinish, double granuleLength, int nCoeffs) {
+		int nGranules = (int)Math.ceil((jdFinish - jdStart)/granuleLength);
+		
+		if (nGranules < 1)
+			throw new IllegalArgumentException("Empty date range");
+		
+		double[] coeffs = new double[N_ELEMENTS * nCoeffs * nGranules];
+		double[][] granuleCoeffs = new double[N_ELEMENTS][nCoeffs];
+		
+		Elements f = new Elements(theory, satelliteID);
+		
+		for (int iGranule = 0; iGranule < nGranules; iGranule++) {
+			double jd0 = jdStart + iGranule * granuleLength;
+			
+			f.setDateRange(jd0, jd0 + granuleLength);
+			
+			VectorChebyshev.calculateChebyshevCoefficients(f, granuleCoeffs);
+			
+			for (int iElement = 0; iElement < N_ELEMENTS; iElement++)
+				System.arraycopy(granuleCoeffs[iElement], 0, coeffs, (N_ELEMENTS * iGranule + iElement) * nCoeffs, nCoeffs);
+		}
+		
+		return coeffs;
+	}
+	
+	public double[] getCoefficients() {
+		return coeffs;
+	}
+	
+	public int getNumberOfCoefficients() {
+		return nCoeffs;
+	}
+	
+	public int getNumberOfGranules() {
+		return nGranules;
+	}
+	
+	public double getGranuleLength() {
+		return granuleLength;
+	}
+	
+	public double getStartDate() {
+		return jdStart;
+	}
+	
+	public double getFinishDate() {
+		return jdStart + nGranules * granuleLength;
+	}
+	
+	public boolean isCovered(double jd) {
+		return jd >= jdStart && jd <= getFinishDate();
+	}
+	
+	/*
+	 * Reconstruct the TASS17 elements at the given epoch.  The mean longitude is not
+	 * reduced to the range -PI to +PI.
+	 */
+	
+	public void calculateElements(double jd, TASSElements elements) {
+		int iGranule = (int)Math.floor((jd - jdStart)/granuleLength);
+		
+		if (iGranule == nGranules && jd == getFinishDate())
+			iGranule--;
+		
+		if (iGranule < 0 || iGranule >= nGranules) {
+			theory.calculateElements(jd, satelliteID, elements);
+			return;
+		}
+		
+		double x = 2.0 * (jd - jdStart - iGranule * granuleLength)/granuleLength - 1.0;
+		
+		int offset = N_ELEMENTS * iGranule * nCoeffs;
+		
+		elements.meanMotionAdjustment = Clenshaw.evaluate(coeffs, offset + MEAN_MOTION * nCoeffs, nCoeffs, x);
+		elements.lambda = theory.calculateLinearLongitude(jd, satelliteID) + Clenshaw.evaluate(coeffs, offset + LAMBDA * nCoeffs, nCoeffs, x);
+		elements.k = Clenshaw.evaluate(coeffs, offset + K * nCoeffs, nCoeffs, x);
+		elements.h = Clenshaw.evaluate(coeffs, offset + H * nCoeffs, nCoeffs, x);
+		elements.q = Clenshaw.evaluate(coeffs, offset + Q * nCoeffs, nCoeffs, x);
+		elements.p = Clenshaw.evaluate(coeffs, offset + P * nCoeffs, nCoeffs, x);
+	}
+	
+	public void getSaturnicentricPositionAndVelocity(double jd, double[] position, double[] velocity) {
+		calculateElements(jd, elements);
+		
+		if (velocity != null)
+			theory.calculatePositionAndVelocity(satelliteID, elements, position, velocity);
+		else
+			theory.calculatePosition(satelliteID, elements, position);
+		
+		rotateToJ2000(position);
+		
+		if (velocity != null)
+			rotateToJ2000(velocity);
+	}
+}
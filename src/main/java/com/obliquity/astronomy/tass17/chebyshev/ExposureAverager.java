@@ -0,0 +1,302 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.tass17.SaturnSystem;
+
+/*
+ * Calculate the mean offsets of a satellite over an exposure, and the spread of its
+ * image about that mean, for astrometry on long exposures.
+ *
+ * Where a Chebyshev archive covers the whole exposure, the series of each granule
+ * which overlaps it is integrated analytically, so the cost does not depend on the
+ * length of the exposure.  The spread is the root-mean-square deviation from the mean
+ * along each axis, which is the amount by which the motion broadens the image; it is
+ * found by integrating the square of the series, less the mean, which is formed as a
+ * Chebyshev series of twice the degree.
+ *
+ * Otherwise the offsets are calculated from the theory, at the nodes of a five-point
+ * Gauss-Legendre rule on each panel of at most PANEL_LENGTH days.  This requires an
+ * ephemeris and a SaturnSystem.  The method defaults to that of the archive, if it
+ * records one, so that both paths agree.
+ *
+ * Instances are not thread-safe.  Threads should each have their own averager, with
+ * their own archive reader.
+ */
+
+public class ExposureAverager {
+	public static final double PANEL_LENGTH = 0.125;
+	
+	private static final double[] GAUSS_NODES = {
+			-0.9061798459386640, -0.5384693101056831, 0.0, 0.5384693101056831, 0.9061798459386640
+	};
+	
+	private static final double[] GAUSS_WEIGHTS = {
+			0.2369268850561891, 0.4786286704993665, 0.5688888888888889, 0.4786286704993665, 0.2369268850561891
+	};
+	
+	private final ChebyshevArchiveReader archive;
+	private final JPLEphemeris ephemeris;
+	private final SaturnSystem system;
+	
+	private final SatelliteOffset[] theories = new SatelliteOffset[MultiSatelliteOffset.N_SATELLITES];
+	private int method = SatelliteOffset.SIMPLIFIED;
+	
+	private double[] coeffs = new double[0];
+	private double[] square = new double[0];
+	private final double[] values = new double[3];
+	private final double[] reference = new double[3];
+	private final double[] sumSquares = new double[3];
+	
+	/*
+	 * Either the archive or the ephemeris and system may be null, but not both.
+	 */
+	
+	public ExposureAverager(ChebyshevArchiveReader archive, JPLEphemeris ephemeris, SaturnSystem system) {
+		if (archive == null && (ephemeris == null || system == null))
+			throw new IllegalArgumentException("An archive or an ephemeris and Saturn system must be supplied");
+		
+		this.archive = archive;
+		this.ephemeris = ephemeris;
+		this.system = system;
+		
+		if (archive != null && archive.getMethod() >= 0)
+			method = archive.getMethod();
+	}
+	
+	/*
+	 * The method used to calculate offsets from the theory.
+	 */
+	
+	public void setMethod(int method) {
+		if (method != SatelliteOffset.RIGOROUS && method != SatelliteOffset.SIMPLIFIED && method != SatelliteOffset.HYBRID)
+			throw new IllegalArgumentException("Method should be RIGOROUS or SIMPLIFED or HYBRID");
+		
+		this.method = method;
+		
+		for (SatelliteOffset theory : theories)
+			if (theory != null)
+				theory.setMethod(method);
+	}
+	
+	public int getMethod() {
+		return method;
+	}
+	
+	/*
+	 * Whether the mean offsets over the interval will be found from the archive rather
+	 * than the theory.
+	 */
+	
+	public boolean isCovered(double jd0, double jd1, int body, int referenceSystem) {
+		return archive != null && archive.isCovered(jd0) && archive.isCovered(jd1)
+				&& archive.getComponentIndex(body, referenceSystem) >= 0;
+	}
+	
+	/*
+	 * Calculate the mean X, Y and Z offsets of a body, in arcseconds, over the interval
+	 * from jd0 to jd1, and if the spread array is not null, the root-mean-square
+	 * deviation from the mean along each axis.
+	 */
+	
+	public void calculateMeanOffsets(double jd0, double jd1, int body, int referenceSystem, double[] mean,
+			double[] spread) throws JPLEphemerisException {
+		if (jd1 < jd0)
+			throw new IllegalArgumentException("The interval ends before it starts");
+		
+		if (isCovered(jd0, jd1, body, referenceSystem))
+			calculateFromArchive(jd0, jd1, body, referenceSystem, mean, spread);
+		else
+			calculateFromTheory(jd0, jd1, body, referenceSystem, mean, spread);
+	}
+	
+	private void calculateFromArchive(double jd0, double jd1, int body, int referenceSystem, double[] mean,
+			double[] spread) {
+		if (jd1 == jd0) {
+			archive.calculateOffsets(jd0, body, referenceSystem, mean, null);
+			
+			if (spread != null)
+				spread[0] = spread[1] = spread[2] = 0.0;
+			
+			return;
+		}
+		
+		int iComponent = archive.getComponentIndex(body, referenceSystem);
+		
+		double jdStart = archive.getStartDate();
+		double stepSize = archive.getStepSize();
+		int nGranules = archive.getNumberOfGranules();
+		
+		int firstGranule = Math.min((int)Math.floor((jd0 - jdStart)/stepSize), nGranules - 1);
+		int lastGranule = Math.min((int)Math.floor((jd1 - jdStart)/stepSize), nGranules - 1);
+		
+		for (int iXYZ = 0; iXYZ < 3; iXYZ++) {
+			int n = archive.getOrder(iComponent + iXYZ);
+			
+			if (coeffs.length < n) {
+				coeffs = new double[n];
+				square = new double[2 * n - 1];
+			}
+			
+			double integral = 0.0;
+			
+			for (int iGranule = firstGranule; iGranule <= lastGranule; iGranule++) {
+				archive.getCoefficients(iGranule, iComponent + iXYZ, coeffs);
+				
+				integral += Clenshaw.integrate(coeffs, 0, n, toX(jd0, iGranule), toX(jd1, iGranule));
+			}
+			
+			mean[iXYZ] = 0.5 * stepSize * integral/(jd1 - jd0);
+			
+			if (spread == null)
+				continue;
+			
+			integral = 0.0;
+			
+			for (int iGranule = firstGranule; iGranule <= lastGranule; iGranule++) {
+				archive.getCoefficients(iGranule, iComponent + iXYZ, coeffs);
+				
+				coeffs[0] -= mean[iXYZ];
+				
+				square(coeffs, n, square);
+				
+				integral += Clenshaw.integrate(square, 0, 2 * n - 1, toX(jd0, iGranule), toX(jd1, iGranule));
+			}
+			
+			spread[iXYZ] = Math.sqrt(Math.max(0.0, 0.5 * stepSize * integral/(jd1 - jd0)));
+		}
+	}
+	
+	/*
+	 * The normalised time in a granule of a date, clamped to the granule.
+	 */
+	
+	private double toX(double jd, int iGranule) {
+		double stepSize = archive.getStepSize();
+		
+		double x = 2.0 * (jd - archive.getStartDate() - iGranule * stepSize)/stepSize - 1.0;
+		
+		return Math.max(-1.0, Math.min(1.0, x));
+	}
+	
+	/*
+	 * Form the Chebyshev series of the square of a series of n terms, using the
+	 * identity 2.T(i).T(j) = T(i+j) + T(|i-j|).
+	 */
+	
+	private static void square(double[] c, int n, double[] result) {
+		for (int k = 0; k < 2 * n - 1; k++)
+			result[k] = 0.0;
+		
+		for (int i = 0; i < n; i++) {
+			double ci = c[i];
+			
+			result[2 * i] += 0.5 * ci * ci;
+			result[0] += 0.5 * ci * ci;
+			
+			for (int j = i + 1; j < n; j++) {
+				double product = ci * c[j];
+				
+				result[i + j] += product;
+				result[j - i] += product;
+			}
+		}
+	}
+	
+	/*
+	 * The spread is accumulated about the offsets at the first node, rather than about
+	 * zero, so that it does not suffer cancellation when the motion is small compared
+	 * with the offsets themselves.
+	 */
+	
+	private void calculateFromTheory(double jd0, double jd1, int body, int referenceSystem, double[] mean,
+			double[] spread) throws JPLEphemerisException {
+		SatelliteOffset theory = getTheory(body, referenceSystem);
+		
+		if (jd1 == jd0) {
+			theory.calculateOffsets(jd0, mean);
+			
+			if (spread != null)
+				spread[0] = spread[1] = spread[2] = 0.0;
+			
+			return;
+		}
+		
+		int nPanels = (int)Math.ceil((jd1 - jd0)/PANEL_LENGTH);
+		double panelLength = (jd1 - jd0)/nPanels;
+		
+		for (int iXYZ = 0; iXYZ < 3; iXYZ++)
+			mean[iXYZ] = sumSquares[iXYZ] = 0.0;
+		
+		boolean first = true;
+		
+		for (int iPanel = 0; iPanel < nPanels; iPanel++) {
+			double jdMid = jd0 + (iPanel + 0.5) * panelLength;
+			
+			for (int iNode = 0; iNode < GAUSS_NODES.length; iNode++) {
+				theory.calculateOffsets(jdMid + 0.5 * panelLength * GAUSS_NODES[iNode], values);
+				
+				if (first) {
+					System.arraycopy(values, 0, reference, 0, 3);
+					first = false;
+				}
+				
+				double w = 0.5 * GAUSS_WEIGHTS[iNode]/nPanels;
+				
+				for (int iXYZ = 0; iXYZ < 3; iXYZ++) {
+					double d = values[iXYZ] - reference[iXYZ];
+					
+					mean[iXYZ] += w * d;
+					sumSquares[iXYZ] += w * d * d;
+				}
+			}
+		}
+		
+		for (int iXYZ = 0; iXYZ < 3; iXYZ++) {
+			if (spread != null)
+				spread[iXYZ] = Math.sqrt(Math.max(0.0, sumSquares[iXYZ] - mean[iXYZ] * mean[iXYZ]));
+			
+			mean[iXYZ] += reference[iXYZ];
+		}
+	}
+	
+	private SatelliteOffset getTheory(int body, int referenceSystem) {
+		if (ephemeris == null || system == null)
+			throw new IllegalArgumentException("The archive does not cover the interval for body " + body
+					+ " in reference system " + referenceSystem + ", and no ephemeris was supplied");
+		
+		if (body < 0 || body >= theories.length)
+			throw new IllegalArgumentException("Body " + body + " is not a satellite of TASS17");
+		
+		SatelliteOffset theory = theories[body];
+		
+		if (theory == null) {
+			theory = new SatelliteOffset(ephemeris, system, body);
+			theory.setMethod(method);
+			theories[body] = theory;
+		}
+		
+		if (theory.getReferenceSystem() != referenceSystem)
+			theory.setReferenceSystem(referenceSystem);
+		
+		return theory;
+	}
+}
@@ -20,6 +20,12 @@ package com.obliquity.astronomy.tass17.chebyshev;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,8 +39,12 @@ public class GenerateJSONData {
 		int satID = -1;
 		double jdStart = 0.0, jdFinish = 0.0, stepSize = 0.0;
 		int nCoeffs = -1;
-		boolean rigorous = true;
-		int refsys = SatelliteOffset.J2000;
+		int method = SatelliteOffset.RIGOROUS;
+		boolean[] refsysRequested = new boolean[3];
+		double tolerance = 0.0;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		String outputFilename = null;
+		boolean gzip = false;
 		
 		for (int i = 0; i < args.length; i++) {
 			String keyword = args[i].toLowerCase();
@@ -66,20 +76,45 @@ public class GenerateJSONData {
 				nCoeffs = Integer.parseInt(args[++i]);
 				break;
 				
+			case "-tolerance":
+				tolerance = Double.parseDouble(args[++i]);
+				break;
+				
+			case "-threads":
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+				
+			case "-output":
+			case "-out":
+				outputFilename = args[++i];
+				break;
+				
+			case "-gzip":
+				gzip = true;
+				break;
+				
 			case "-simplified":
-				rigorous = false;
+				method = SatelliteOffset.SIMPLIFIED;
+				break;
+				
+			case "-hybrid":
+				method = SatelliteOffset.HYBRID;
 				break;
 
 			case "-j2000":
-				refsys = SatelliteOffset.J2000;
+				refsysRequested[SatelliteOffset.J2000] = true;
 				break;
 
 			case "-mean":
-				refsys = SatelliteOffset.MEAN;
+				refsysRequested[SatelliteOffset.MEAN] = true;
 				break;
 
 			case "-of-date":
-				refsys = SatelliteOffset.OF_DATE;
+				refsysRequested[SatelliteOffset.OF_DATE] = true;
+				break;
+				
+			case "-all-refsys":
+				Arrays.fill(refsysRequested, true);
 				break;
 
 			default:
@@ -88,23 +123,32 @@ public class GenerateJSONData {
 			}
 		}
 		
-		if (satID < 0 || jdStart == 0.0 || jdFinish == 0.0 || stepSize <= 0.0 || nCoeffs < 1) {
+		if (satID < 0 || jdStart == 0.0 || jdFinish == 0.0 || (tolerance <= 0.0 && (stepSize <= 0.0 || nCoeffs < 1)) || nThreads < 1) {
 			System.err.println("Invalid or missing options.");
 			System.exit(2);
 		}
 		
+		if (outputFilename != null && outputFilename.endsWith(".gz"))
+			gzip = true;
+		
+		int[] refsys = IntStream.range(0, 3).filter(r -> refsysRequested[r]).toArray();
+		
+		if (refsys.length == 0)
+			refsys = new int[] { SatelliteOffset.J2000 };
+		
 		try {
-			generateJSONData(satID, jdStart, jdFinish, stepSize, nCoeffs, rigorous, refsys);
-		} catch (IOException | JPLEphemerisException e) {
-			// TODO Auto-generated catch block
+			generateJSONData(satID, jdStart, jdFinish, stepSize, nCoeffs, method, refsys, tolerance,
+					nThreads, outputFilename, gzip);
+		} catch (IOException | JPLEphemerisException | InterruptedException | ExecutionException e) {
 			e.printStackTrace();
+			System.exit(3);
 		}
 	}
 
 	private static final Pattern jdPattern = Pattern.compile("(\\d+(\\.)?(\\d+)?)");
 	private static final Pattern dateTimePattern = Pattern.compile("(\\d{4})-(\\d{2})\\-(\\d{2})(\\s+(\\d{2}):(\\d{2}))?");
 
-	private static double parseDate(String datestr) {
+	public static double parseDate(String datestr) {
 		Matcher matcher = jdPattern.matcher(datestr);
 
 		if (matcher.matches())
@@ -131,7 +175,7 @@ public class GenerateJSONData {
 		return ad.getJulianDate();
 	}
 
-	private static int nameToID(String name) {
+	public static int nameToID(String name) {
 		String namelc = name.toLowerCase();
 		
 		switch (namelc) {
@@ -151,11 +195,13 @@ public class GenerateJSONData {
 			
 			case "iapetus": return 7;
 			
+			case "all": return ALL_SATELLITES;
+			
 			default: return -1;
 		}
 	}
 	
-	private static JPLEphemeris getEphemeris() throws IOException, JPLEphemerisException {
+	static JPLEphemeris getEphemeris(double jdStart, double jdFinish) throws IOException, JPLEphemerisException {
 		String ephemerisHomeName = System.getProperty("ephemeris.home");
 		
 		if (ephemerisHomeName == null)
@@ -172,84 +218,494 @@ public class GenerateJSONData {
 		if (!de430.exists()) 
 			throw new IllegalStateException("File does not exist: " + de430.getAbsolutePath());
 
-		return new JPLEphemeris(de430);
+		return new JPLEphemeris(de430, jdStart, jdFinish);
 	}
 	
 	static final String[] idToName = {
 			"mimas", "enceladus", "tethys", "dione", "rhea", "titan", "hyperion", "iapetus"
 	};
 	
-	private static void generateJSONData(int satID, double jdStart, double jdFinish, double stepSize, int nCoeffs, boolean rigorous, int refsys) throws IOException, JPLEphemerisException {
-		JPLEphemeris ephemeris = getEphemeris();
+	static final String[] refsysToName = {
+			"J2000", "mean", "of-date"
+	};
+	
+	static final String[] methodToName = {
+			"rigorous", "simplified", "hybrid"
+	};
+	
+	public static final int ALL_SATELLITES = MultiSatelliteOffset.N_SATELLITES;
+	
+	private static final int WINDOW_PER_THREAD = 4;
+	
+	/*
+	 * With "-moon all", every satellite is fitted on the same granules, so that Saturn's
+	 * apparent place and the theory are computed once per node for all of them.  Several
+	 * reference systems are likewise fitted from the same apparent places.  If the
+	 * output file name contains "%s", each satellite is written to its own file, named
+	 * by substituting the satellite's name, and if it contains "%r", each reference
+	 * system is written to its own file in the same way.  The names are substituted even
+	 * when there is only one satellite or reference system.  Otherwise one document holds
+	 * the X, Y and Z series of every satellite in turn, in the order given by "names",
+	 * for each reference system in the order given by "refsys".
+	 *
+	 * In adaptive mode, the granule length of one document is set by the satellite which
+	 * needs the shortest, which is Mimas.  For one document of all eight satellites, this
+	 * makes the data about a quarter larger than eight separate fits, and the series of
+	 * the outer satellites two to four times larger.  When each satellite is written to
+	 * its own file, it is therefore fitted on its own granule length in a separate run.
+	 */
+	
+	static void generateJSONData(int satID, double jdStart, double jdFinish, double stepSize, int nCoeffs, int method, int[] refsys,
+			double tolerance, int nThreads, String outputFilename, boolean gzip)
+			throws IOException, JPLEphemerisException, InterruptedException, ExecutionException {
+		boolean adaptive = tolerance > 0.0;
 		
-		TASSTheory theory = new TASSTheory();			
+		if (adaptive && satID == ALL_SATELLITES && outputFilename != null && outputFilename.contains("%s")) {
+			for (int iSat = 0; iSat < ALL_SATELLITES; iSat++)
+				generateJSONData(iSat, jdStart, jdFinish, stepSize, nCoeffs, method, refsys, tolerance, nThreads,
+						outputFilename.replace("%s", idToName[iSat]), gzip);
+			
+			return;
+		}
 		
-		SatelliteOffset target = new SatelliteOffset(ephemeris, theory, satID);
+		TASSTheory theory = new TASSTheory();
 		
-		target.setMethod(rigorous ? SatelliteOffset.RIGOROUS : SatelliteOffset.SIMPLIFIED);
-		target.setReferenceSystem(refsys);
+		int degree = 0, decimals = 3;
 		
-		double[] coeffs = new double[nCoeffs];
+		if (adaptive) {
+			GranuleFunction target = createTarget(theory, satID, method, refsys, jdStart - 1.0, jdFinish + Math.max(stepSize, 0.0) + 1.0);
+			
+			degree = chooseDegree(nCoeffs);
+			
+			stepSize = chooseGranuleLength(target, jdStart, jdFinish, stepSize > 0.0 ? stepSize : 1.0, degree,
+					availableCoefficients(nCoeffs, degree), tolerance);
+			
+			decimals = chooseDecimals(tolerance);
+		}
 		
-		System.out.printf("{\n  \"name\":\"%s\",\n  \"jdstart\":\"%13.5f\",\n  \"stepsize\":\"%.5f\",\n",
-				idToName[satID], jdStart, stepSize);
+		int nGranules = (int)Math.ceil((jdFinish - jdStart)/stepSize - 1.0e-9);
 		
-		String strRefsys = null;
-
-		switch (refsys) {
-		case SatelliteOffset.J2000:
-			strRefsys = "J2000";
-			break;
-
-		case SatelliteOffset.MEAN:
-			strRefsys = "mean";
-			break;
-
-		case SatelliteOffset.OF_DATE:
-			strRefsys = "of-date";
-			break;
+		Output[] outputs = null;
+		
+		try {
+			Output[] openedOutputs = outputs = openOutputs(satID, refsys, methodToName[method], outputFilename, gzip, decimals, jdStart, stepSize,
+					degree, adaptive ? nCoeffs : 0);
+			
+			double[] jdMaximum = { jdStart };
+			
+			fitGranules(theory, satID, method, refsys, jdStart, 0, nGranules, stepSize, nCoeffs, degree, tolerance, decimals, nThreads,
+					granule -> {
+						double error = 0.0;
+						
+						for (Output output : openedOutputs) {
+							for (int iRow : output.rows) {
+								output.maxError = Math.max(output.maxError, granule.errors[iRow]);
+								error = Math.max(error, granule.errors[iRow]);
+							}
+							
+							output.writer.writeGranule(granule.jd0, granule.jd1, granule.coeffs, output.rows);
+						}
+						
+						if (adaptive && error > tolerance)
+							System.err.printf("Granule starting at %13.5f has error %.6f, which exceeds the tolerance\n", granule.jd0, error);
+						
+						jdMaximum[0] = granule.jd1;
+					});
+			
+			for (Output output : outputs)
+				output.writer.writeTrailer(jdMaximum[0], tolerance, output.maxError);
+		} finally {
+			if (outputs != null)
+				for (Output output : outputs)
+					if (output != null)
+						output.writer.close();
 		}
-
-		System.out.printf("  \"refsys\":\"%s\",\n  \"data\": [", strRefsys);
-
-		boolean first = true;
-		double jdMaximum = 0.0;
+	}
+	
+	/*
+	 * The number of decimal places written in adaptive mode, which keeps the rounding
+	 * error well inside the tolerance.
+	 */
+	
+	static int chooseDecimals(double tolerance) {
+		return Math.max(3, (int)Math.ceil(-Math.log10(tolerance)) + 1);
+	}
+	
+	interface GranuleSink {
+		void accept(Granule granule) throws IOException;
+	}
+	
+	private interface GranuleFitter {
+		Granule fit(GranuleFunction target, double jd0, double jd1);
+	}
+	
+	/*
+	 * Fit granules firstGranule to firstGranule + nGranules - 1 of a series which starts at
+	 * jdStart, and pass them to the sink in order.  The start date of each granule is
+	 * calculated from its index rather than accumulated, so a run split at a granule
+	 * boundary, or extended later, yields the same granules as the whole run.  In adaptive
+	 * mode, when the tolerance is positive, the degree and the number of decimal places
+	 * must be given, and no component has more than nCoeffs coefficients if it is
+	 * positive; otherwise every component has nCoeffs coefficients.
+	 *
+	 * Granules are fitted in parallel by a fork-join pool.  The ephemeris and the
+	 * apparent place calculations hold state, so each worker thread builds its own
+	 * pipeline with its own JPLEphemeris, sharing only the TASSTheory.  Granules are
+	 * passed on in order as they complete, with no more than a few per thread in flight,
+	 * so memory use does not grow with the length of the date range.
+	 */
+	
+	static void fitGranules(TASSTheory theory, int satID, int method, int[] refsys, double jdStart, int firstGranule, int nGranules,
+			double granuleLength, int nCoeffs, int degree, double tolerance, int decimals, int nThreads, GranuleSink sink)
+			throws IOException, InterruptedException, ExecutionException {
+		double roundingScale = Math.pow(10.0, decimals);
+		
+		int maxCoeffs = availableCoefficients(nCoeffs, degree);
+		
+		GranuleFitter fitter = tolerance > 0.0 ?
+				(target, jdA, jdB) -> fitGranule(target, jdA, jdB, degree, maxCoeffs, tolerance, roundingScale) :
+					(target, jdA, jdB) -> fitGranule(target, jdA, jdB, nCoeffs);
+		
+		fitGranules(theory, satID, method, refsys, jdStart, firstGranule, nGranules, granuleLength, nThreads, fitter, sink);
+	}
+	
+	/*
+	 * Fit granules as above, giving each component the number of coefficients in orders,
+	 * and estimating the error of each component.
+	 */
+	
+	static void fitGranules(TASSTheory theory, int satID, int method, int[] refsys, double jdStart, int firstGranule, int nGranules,
+			double granuleLength, int[] orders, int nThreads, GranuleSink sink)
+			throws IOException, InterruptedException, ExecutionException {
+		fitGranules(theory, satID, method, refsys, jdStart, firstGranule, nGranules, granuleLength, nThreads,
+				(target, jdA, jdB) -> fitGranule(target, jdA, jdB, orders), sink);
+	}
+	
+	private static void fitGranules(TASSTheory theory, int satID, int method, int[] refsys, double jdStart, int firstGranule, int nGranules,
+			double granuleLength, int nThreads, GranuleFitter fitter, GranuleSink sink)
+			throws IOException, InterruptedException, ExecutionException {
+		double jdEarliest = jdStart + firstGranule * granuleLength - 1.0;
+		double jdLatest = jdStart + (firstGranule + nGranules) * granuleLength + 1.0;
+		
+		ThreadLocal<GranuleFunction> targets = ThreadLocal.withInitial(() -> {
+			try {
+				return createTarget(theory, satID, method, refsys, jdEarliest, jdLatest);
+			} catch (IOException | JPLEphemerisException e) {
+				throw new IllegalStateException("Failed to create a worker pipeline", e);
+			}
+		});
+		
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		
+		ArrayDeque<ForkJoinTask<Granule>> pending = new ArrayDeque<ForkJoinTask<Granule>>();
+		int window = WINDOW_PER_THREAD * nThreads;
+		
+		try {
+			int iGranule = firstGranule, lastGranule = firstGranule + nGranules;
 			
-		for (double jd0 = jdStart; jd0 < jdFinish; jd0 += stepSize) {
-			double jd1 = jd0 + stepSize;
+			while (iGranule < lastGranule || !pending.isEmpty()) {
+				while (iGranule < lastGranule && pending.size() < window) {
+					final double jdA = jdStart + iGranule * granuleLength, jdB = jdA + granuleLength;
+					
+					pending.add(pool.submit(() -> fitter.fit(targets.get(), jdA, jdB)));
+					
+					iGranule++;
+				}
+				
+				sink.accept(pending.remove().get());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	private static class Output {
+		final ChebyshevJSONWriter writer;
+		final int[] rows;
+		double maxError = 0.0;
+		
+		Output(ChebyshevJSONWriter writer, int[] rows) {
+			this.writer = writer;
+			this.rows = rows;
+		}
+	}
+	
+	/*
+	 * Open the output documents and write their headers.  Each output is given the
+	 * indices of its rows in the coefficient array of a granule, which holds the X, Y
+	 * and Z rows of each satellite in turn, for each reference system in turn.
+	 */
+	
+	private static Output[] openOutputs(int satID, int[] refsys, String methodName, String outputFilename, boolean gzip, int decimals,
+			double jdStart, double stepSize, int degree, int nCoeffs) throws IOException {
+		boolean allSatellites = satID == ALL_SATELLITES;
+		
+		int nSatellites = allSatellites ? ALL_SATELLITES : 1;
+		
+		boolean splitSatellites = outputFilename != null && outputFilename.contains("%s");
+		boolean splitRefsys = outputFilename != null && outputFilename.contains("%r");
+		
+		int nSatelliteGroups = splitSatellites ? nSatellites : 1;
+		int nRefsysGroups = splitRefsys ? refsys.length : 1;
+		
+		int satellitesPerGroup = nSatellites/nSatelliteGroups;
+		int refsysPerGroup = refsys.length/nRefsysGroups;
+		
+		Output[] outputs = new Output[nSatelliteGroups * nRefsysGroups];
+		
+		for (int iRefsysGroup = 0; iRefsysGroup < nRefsysGroups; iRefsysGroup++) {
+			for (int iSatelliteGroup = 0; iSatelliteGroup < nSatelliteGroups; iSatelliteGroup++) {
+				String[] names = new String[satellitesPerGroup];
+				String[] refsysNames = new String[refsysPerGroup];
+				int[] rows = new int[3 * satellitesPerGroup * refsysPerGroup];
+				
+				int nRows = 0;
+				
+				for (int i = 0; i < refsysPerGroup; i++) {
+					int iRefsys = iRefsysGroup * refsysPerGroup + i;
+					
+					refsysNames[i] = refsysToName[refsys[iRefsys]];
+					
+					for (int j = 0; j < satellitesPerGroup; j++) {
+						int iSatellite = iSatelliteGroup * satellitesPerGroup + j;
+						
+						names[j] = idToName[allSatellites ? iSatellite : satID];
+						
+						for (int iXYZ = 0; iXYZ < 3; iXYZ++)
+							rows[nRows++] = 3 * (nSatellites * iRefsys + iSatellite) + iXYZ;
+					}
+				}
+				
+				String filename = outputFilename;
+				
+				if (splitSatellites)
+					filename = filename.replace("%s", names[0]);
+				
+				if (splitRefsys)
+					filename = filename.replace("%r", refsysNames[0]);
+				
+				ChebyshevJSONWriter writer = ChebyshevJSONWriter.open(filename, gzip, decimals);
+				
+				outputs[iRefsysGroup * nSatelliteGroups + iSatelliteGroup] = new Output(writer, rows);
+				
+				writer.writeHeader(names, allSatellites && !splitSatellites, jdStart, stepSize, refsysNames, methodName, degree, nCoeffs);
+			}
+		}
+		
+		return outputs;
+	}
+	
+	static GranuleFunction createTarget(TASSTheory theory, int satID, int method, int[] refsys,
+			double jdEarliest, double jdLatest) throws IOException, JPLEphemerisException {
+		JPLEphemeris ephemeris = getEphemeris(jdEarliest, jdLatest);
+		
+		if (satID == ALL_SATELLITES) {
+			MultiSatelliteOffset target = new MultiSatelliteOffset(ephemeris, theory);
+			
+			target.setMethod(method);
+			target.setReferenceSystems(refsys);
 			
-			target.setDateRange(jd0, jd1);
+			return target;
+		} else {
+			SatelliteOffset target = new SatelliteOffset(ephemeris, theory, satID);
 			
-			if (!first)
-				System.out.println(",");
+			target.setMethod(method);
+			target.setReferenceSystems(refsys);
 			
-			first = false;
+			return target;
+		}
+	}
+	
+	static class Granule {
+		final double jd0, jd1;
+		final double[][] coeffs;
+		final double[] errors;
+		
+		Granule(double jd0, double jd1, double[][] coeffs, double[] errors) {
+			this.jd0 = jd0;
+			this.jd1 = jd1;
+			this.coeffs = coeffs;
+			this.errors = errors;
+		}
+	}
+	
+	private static Granule fitGranule(GranuleFunction target, double jd0, double jd1, int nCoeffs) {
+		int nComponents = target.getDimension();
+		
+		double[][] coeffs = new double[nComponents][nCoeffs];
+		
+		target.setDateRange(jd0, jd1);
+		VectorChebyshev.calculateChebyshevCoefficients(target, coeffs);
+		
+		return new Granule(jd0, jd1, coeffs, new double[nComponents]);
+	}
+	
+	/*
+	 * Fit one granule at the largest of the orders, and truncate each component to its
+	 * own order.  The error of each component is the largest difference from the exact
+	 * offsets at the points midway between the nodes and at the ends of the granule.
+	 */
+	
+	private static Granule fitGranule(GranuleFunction target, double jd0, double jd1, int[] orders) {
+		int nComponents = target.getDimension();
+		int N = Arrays.stream(orders).max().getAsInt();
+		
+		target.setDateRange(jd0, jd1);
+		
+		double[][] fullCoeffs = VectorChebyshev.calculateChebyshevCoefficients(target, N);
+		double[][] coeffs = new double[nComponents][];
+		
+		for (int iComponent = 0; iComponent < nComponents; iComponent++)
+			coeffs[iComponent] = Arrays.copyOf(fullCoeffs[iComponent], orders[iComponent]);
+		
+		double[] errors = new double[nComponents];
+		double[] exact = new double[nComponents];
+		
+		for (int k = 0; k <= N; k++) {
+			double x = Math.cos(Math.PI * k/N);
 			
-			System.out.printf("    [ \"%13.5f\", \"%13.5f\",\n", jd0, jd1);
+			target.evaluate(x, exact);
 			
-			for (int iXYZ = 0; iXYZ < 3; iXYZ++) {
-				target.setComponent(iXYZ);
-				target.calculateChebyshevCoefficients(coeffs);	
+			for (int iComponent = 0; iComponent < nComponents; iComponent++)
+				errors[iComponent] = Math.max(errors[iComponent], Math.abs(Clenshaw.evaluate(coeffs[iComponent], x) - exact[iComponent]));
+		}
+		
+		return new Granule(jd0, jd1, coeffs, errors);
+	}
+	
+	/*
+	 * In adaptive mode, each granule is sampled at the Lobatto nodes of a fixed degree,
+	 * which is a power of two so that the DCT is fast.  If the user gave -ncoeffs, it is
+	 * the largest number of coefficients which may be written for any component, and the
+	 * degree is the smallest power of two, not less than eight, which allows that many.
+	 * A component which needs more is written with nCoeffs coefficients, and its error
+	 * then exceeds the tolerance.
+	 */
+	
+	private static final int DEFAULT_DEGREE = 32, MINIMUM_DEGREE = 8;
+	
+	static int chooseDegree(int nCoeffs) {
+		if (nCoeffs < 1)
+			return DEFAULT_DEGREE;
+		
+		int degree = MINIMUM_DEGREE;
+		
+		while (degree < nCoeffs - 1)
+			degree *= 2;
+		
+		return degree;
+	}
+	
+	static int availableCoefficients(int nCoeffs, int degree) {
+		return nCoeffs < 1 ? degree + 1 : Math.min(nCoeffs, degree + 1);
+	}
+	
+	/*
+	 * Choose the granule length by halving or doubling the initial length until trial
+	 * granules at the start, middle and end of the date range converge with no more than
+	 * three-quarters of the available coefficients, which are limited by the degree and
+	 * by -ncoeffs.  Because the distance of Saturn
+	 * changes, the trials span the whole range.
+	 */
+	
+	private static double chooseGranuleLength(GranuleFunction target, double jdStart, double jdFinish,
+			double initialLength, int degree, int available, double tolerance) {
+		double length = initialLength;
+		boolean shrunk = false;
+		
+		for (int iteration = 0; iteration < 30; iteration++) {
+			int n = requiredCoefficientsForTrialGranules(target, jdStart, jdFinish, length, degree, tolerance);
+			
+			if (n < 0 || n > (3 * available)/4) {
+				length *= 0.5;
+				shrunk = true;
+			} else if (!shrunk && n <= available/2 && 2.0 * length <= jdFinish - jdStart)
+				length *= 2.0;
+			else
+				break;
+		}
+		
+		return length;
+	}
+	
+	private static int requiredCoefficientsForTrialGranules(GranuleFunction target, double jdStart, double jdFinish,
+			double length, int degree, double tolerance) {
+		double[] trialStarts = {
+				jdStart, 0.5 * (jdStart + jdFinish - length), Math.max(jdStart, jdFinish - length)
+		};
+		
+		int nCoeffs = 1;
+		
+		for (double jd0 : trialStarts) {
+			target.setDateRange(jd0, jd0 + length);
+			
+			int n = DCTChebyshev.requiredCoefficients(DCTChebyshev.calculateChebyshevCoefficients(target, degree), 0.5 * tolerance);
+			
+			if (n < 0)
+				return -1;
+			
+			nCoeffs = Math.max(nCoeffs, n);
+		}
+		
+		return nCoeffs;
+	}
+	
+	/*
+	 * Fit one granule, choosing the number of coefficients separately for each component.
+	 * The rounded series is checked against the exact offsets at points midway between
+	 * alternate Lobatto nodes, and coefficients are added until the check passes.  The
+	 * largest error found for each component, in arcseconds, is returned with the
+	 * coefficients.
+	 */
+	
+	private static Granule fitGranule(GranuleFunction target, double jd0, double jd1, int degree, int maxCoeffs,
+			double tolerance, double roundingScale) {
+		target.setDateRange(jd0, jd1);
+		
+		int nComponents = target.getDimension();
+		
+		double[][] coeffs = new double[nComponents][];
+		double[] errors = new double[nComponents];
+		double[][] fullCoeffs = DCTChebyshev.calculateChebyshevCoefficients(target, degree);
+		
+		int nCheck = degree/2;
+		
+		double[] xCheck = new double[nCheck];
+		double[][] exact = new double[nCheck][nComponents];
+		
+		for (int k = 0; k < nCheck; k++) {
+			xCheck[k] = Math.cos(Math.PI * (2 * k + 0.5)/degree);
+			target.evaluate(xCheck[k], exact[k]);
+		}
+		
+		for (int iComponent = 0; iComponent < nComponents; iComponent++) {
+			int n = DCTChebyshev.requiredCoefficients(fullCoeffs[iComponent], 0.5 * tolerance);
+			
+			if (n < 0 || n > maxCoeffs)
+				n = maxCoeffs;
+			
+			double error;
+			
+			for (;;) {
+				coeffs[iComponent] = Arrays.copyOf(fullCoeffs[iComponent], n);
 				
-				System.out.print("      [");
+				for (int i = 0; i < n; i++)
+					coeffs[iComponent][i] = Math.rint(coeffs[iComponent][i] * roundingScale)/roundingScale;
 				
-				for (int i = 0; i < nCoeffs; i++) {
-					if (i > 0)
-						System.out.print(", ");
-					
-					System.out.printf("\"%.3f\"", coeffs[i]);
-				}
+				error = 0.0;
+				
+				for (int k = 0; k < nCheck; k++)
+					error = Math.max(error, Math.abs(Clenshaw.evaluate(coeffs[iComponent], xCheck[k]) - exact[k][iComponent]));
 				
-				System.out.println(iXYZ < 2 ? " ]," : " ]");
+				if (error <= tolerance || n >= maxCoeffs)
+					break;
+				
+				n = Math.min(n + 2, maxCoeffs);
 			}
 			
-			System.out.print("    ]");
-
-			jdMaximum = jd1;
+			errors[iComponent] = error;
 		}
-
-		System.out.println("\n  ],");
-
-		System.out.printf("  \"jdfinish\":\"%13.5f\"\n}\n", jdMaximum);
+		
+		return new Granule(jd0, jd1, coeffs, errors);
 	}
 }
@@ -0,0 +1,304 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.ApparentPlace;
+import com.obliquity.astronomy.almanac.EarthCentre;
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.tass17.ReferenceSystemMatrices;
+import com.obliquity.astronomy.tass17.SaturnSystemApparentPlace;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+
+/*
+ * The offsets of all eight satellites from Saturn, as a function with 24 components:
+ * the X, Y and Z offsets of Mimas, then those of Enceladus, and so on.  At each epoch,
+ * the apparent place of Saturn is computed once and the theory is evaluated once for
+ * all eight satellites, so fitting the whole system costs little more than fitting
+ * one satellite.  The methods and reference systems have the same meanings as in
+ * SatelliteOffset.  When several reference systems are requested, the 24 components
+ * for the first are followed by those for the second, and so on.
+ *
+ * The simplified and hybrid offsets are calculated in the same way as by
+ * SatelliteOffset, and are the same.  The rigorous offsets are not quite the same:
+ * they come from SaturnSystemApparentPlace, which refines the light time of each
+ * satellite from Saturn's along a local expansion of its orbit, whereas SatelliteOffset
+ * calculates the apparent place of each satellite separately with astrojava's
+ * ApparentPlace.  The two differ slightly, so rigorous coefficients fitted for all
+ * eight satellites do not exactly reproduce those fitted for one.
+ *
+ * Instances are not thread-safe.
+ */
+
+public class MultiSatelliteOffset implements GranuleFunction {
+	public static final int N_SATELLITES = 8;
+	
+	private int method = SatelliteOffset.SIMPLIFIED;
+	private int[] referenceSystems = { SatelliteOffset.J2000 };
+	private double tMinimum = 0.0, tMaximum = 0.0;
+	
+	private final TASSTheory theory;
+	private final SaturnSystemApparentPlace apSystem;
+	private final ApparentPlace apSaturn;
+	private final ReferenceSystemMatrices matrices;
+	private final DifferentialPlace differentialPlace;
+	private final SaturnSystemOffsets simplifiedOffsets;
+	private final double cosObliquity, sinObliquity;
+	
+	private final TASSElements[] elements = new TASSElements[N_SATELLITES];
+	private final double[][] positions = new double[N_SATELLITES][3];
+	private final double[] velocity = new double[3];
+	
+	public MultiSatelliteOffset(JPLEphemeris ephemeris, TASSTheory theory) {
+		this.theory = theory;
+		
+		this.apSystem = new SaturnSystemApparentPlace(ephemeris, theory);
+		
+		IAUEarthRotationModel erm = apSystem.getEarthRotationModel();
+		
+		this.matrices = apSystem.getReferenceSystemMatrices();
+		
+		double obliquity = erm.meanObliquity(2451545.0);
+		
+		sinObliquity = Math.sin(obliquity);
+		cosObliquity = Math.cos(obliquity);
+		
+		MovingPoint sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
+		MovingPoint saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+		
+		this.apSaturn = new ApparentPlace(new EarthCentre(ephemeris), saturn, sun, erm);
+		
+		this.differentialPlace = new DifferentialPlace(ephemeris);
+		
+		this.simplifiedOffsets = new SaturnSystemOffsets(apSaturn, matrices, theory);
+		
+		for (int iSat = 0; iSat < N_SATELLITES; iSat++)
+			elements[iSat] = new TASSElements();
+	}
+	
+	public void setDateRange(double tMinimum, double tMaximum) {
+		this.tMinimum = tMinimum;
+		this.tMaximum = tMaximum;
+	}
+	
+	public void setMethod(int method) {
+		if (method != SatelliteOffset.RIGOROUS && method != SatelliteOffset.SIMPLIFIED && method != SatelliteOffset.HYBRID)
+			throw new IllegalArgumentException("Method should be RIGOROUS or SIMPLIFED or HYBRID");
+		
+		this.method = method;
+	}
+	
+	public int getMethod() {
+		return method;
+	}
+	
+	public void setReferenceSystem(int refsys) {
+		setReferenceSystems(refsys);
+	}
+	
+	public int getReferenceSystem() {
+		return referenceSystems[0];
+	}
+	
+	public void setReferenceSystems(int... refsys) {
+		if (refsys.length == 0)
+			throw new IllegalArgumentException("At least one reference system is required");
+		
+		for (int r : refsys)
+			if (r < SatelliteOffset.J2000 || r > SatelliteOffset.OF_DATE)
+				throw new IllegalArgumentException("Reference systems should be J2000 or MEAN or OF_DATE");
+		
+		this.referenceSystems = refsys.clone();
+	}
+	
+	public int[] getReferenceSystems() {
+		return referenceSystems.clone();
+	}
+	
+	public int getDimension() {
+		return 3 * N_SATELLITES * referenceSystems.length;
+	}
+	
+	public void evaluate(double x, double[] values) {
+		if (tMinimum == 0.0 || tMaximum == 0.0)
+			throw new IllegalStateException("Date range has not been set");
+		
+		double t = tMinimum + (x + 1.0) * (tMaximum - tMinimum)/2.0;
+		
+		try {
+			calculateOffsets(t, values);
+		} catch (JPLEphemerisException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public void calculateOffsets(double jd, double[] offsets) throws JPLEphemerisException {
+		switch (method) {
+		case SatelliteOffset.RIGOROUS:
+			calculateRigorousOffsets(jd, offsets);
+			break;
+			
+		case SatelliteOffset.SIMPLIFIED:
+			calculateSimplifiedOffsets(jd, offsets);
+			break;
+			
+		case SatelliteOffset.HYBRID:
+			calculateHybridOffsets(jd, offsets);
+			break;
+			
+		default:
+			throw new IllegalStateException("Method was not one of RIGOROUS or SIMPLIFIED or HYBRID");
+		}
+	}
+	
+	private void calculateRigorousOffsets(double jd, double[] offsets) throws JPLEphemerisException {
+		apSystem.calculateApparentPlaces(jd);
+		
+		int iSaturn = SaturnSystemApparentPlace.SATURN;
+		
+		double gdSaturn = apSystem.getGeometricDistance(iSaturn);
+		
+		double q = 3600.0 * 180.0/Math.PI;
+		
+		for (int i = 0; i < referenceSystems.length; i++) {
+			int refsys = referenceSystems[i];
+			int base = 3 * N_SATELLITES * i;
+			
+			double raSaturn = apSystem.getRightAscension(iSaturn, refsys);
+			double decSaturn = apSystem.getDeclination(iSaturn, refsys);
+			
+			double cd = Math.cos(decSaturn);
+			
+			for (int iSat = 0; iSat < N_SATELLITES; iSat++) {
+				double dra = apSystem.getRightAscension(iSat, refsys) - raSaturn;
+				
+				if (dra > Math.PI)
+					dra -= 2.0 * Math.PI;
+				else if (dra < -Math.PI)
+					dra += 2.0 * Math.PI;
+				
+				double ddec = apSystem.getDeclination(iSat, refsys) - decSaturn;
+				double dgd = apSystem.getGeometricDistance(iSat) - gdSaturn;
+				
+				offsets[base + 3 * iSat] = dra * cd * q;
+				offsets[base + 3 * iSat + 1] = ddec * q;
+				offsets[base + 3 * iSat + 2] = (dgd/gdSaturn) * q;
+			}
+		}
+	}
+	
+	private double getRightAscension(ApparentPlace ap, int referenceSystem) {
+		switch (referenceSystem) {
+		case SatelliteOffset.J2000:
+			return ap.getRightAscensionJ2000();
+			
+		case SatelliteOffset.MEAN:
+			return ap.getMeanRightAscension();
+			
+		case SatelliteOffset.OF_DATE:
+			return ap.getRightAscensionOfDate();
+			
+		default:
+			throw new IllegalStateException("referenceSystem has an invalid value");
+		}
+	}
+	
+	private double getDeclination(ApparentPlace ap, int referenceSystem) {
+		switch (referenceSystem) {
+		case SatelliteOffset.J2000:
+			return ap.getDeclinationJ2000();
+			
+		case SatelliteOffset.MEAN:
+			return ap.getMeanDeclination();
+			
+		case SatelliteOffset.OF_DATE:
+			return ap.getDeclinationOfDate();
+			
+		default:
+			throw new IllegalStateException("referenceSystem has an invalid value");
+		}
+	}
+	
+	private void calculateSimplifiedOffsets(double jd, double[] offsets) throws JPLEphemerisException {
+		simplifiedOffsets.setReferenceSystems(referenceSystems);
+		
+		simplifiedOffsets.calculateOffsets(jd, offsets);
+	}
+	
+	/*
+	 * The Z offsets are calculated first, from the positions at the epoch itself, and
+	 * stored in every reference system; the positions at Saturn's retarded epoch then
+	 * give the X and Y offsets.
+	 */
+	
+	private void calculateHybridOffsets(double jd, double[] offsets) throws JPLEphemerisException {
+		apSaturn.calculateApparentPlace(jd);
+		
+		differentialPlace.setSaturnPlace(jd, apSaturn);
+		
+		theory.calculateElementsForAllSatellites(jd, elements);
+		
+		for (int iSat = 0; iSat < N_SATELLITES; iSat++) {
+			double[] position = positions[iSat];
+			
+			theory.calculatePosition(iSat, elements[iSat], position);
+			
+			rotateToJ2000(position);
+			
+			double zOffset = differentialPlace.calculateDistanceOffset(position);
+			
+			for (int i = 0; i < referenceSystems.length; i++)
+				offsets[3 * N_SATELLITES * i + 3 * iSat + 2] = zOffset;
+		}
+		
+		theory.calculateElementsForAllSatellites(jd - apSaturn.getLightTime(), elements);
+		
+		for (int iSat = 0; iSat < N_SATELLITES; iSat++) {
+			double[] position = positions[iSat];
+			
+			theory.calculatePositionAndVelocity(iSat, elements[iSat], position, velocity);
+			
+			rotateToJ2000(position);
+			rotateToJ2000(velocity);
+			
+			differentialPlace.setSatellite(position, velocity);
+			
+			for (int i = 0; i < referenceSystems.length; i++) {
+				int refsys = referenceSystems[i];
+				
+				if (refsys != SatelliteOffset.J2000)
+					matrices.setEpoch(jd);
+				
+				differentialPlace.calculateOffsets(matrices, refsys, getRightAscension(apSaturn, refsys),
+						getDeclination(apSaturn, refsys), offsets, 3 * N_SATELLITES * i + 3 * iSat);
+			}
+		}
+	}
+	
+	private void rotateToJ2000(double[] xyz) {
+		double y = xyz[1], z = xyz[2];
+		
+		xyz[1] = y * cosObliquity - z * sinObliquity;
+		xyz[2] = y * sinObliquity + z * cosObliquity;
+	}
+}
@@ -0,0 +1,228 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Write a quantised Chebyshev archive, as described in ChebyshevArchive.  Each
+ * coefficient is rounded to a whole multiple of the resolution, so the error added to
+ * a component is at most the sum of the rounding errors of its coefficients.  The
+ * writer keeps the largest such sum, which is added to the fitting error in the header.
+ */
+
+public class QuantisedArchiveWriter implements GranuleArchiveWriter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	// The largest coefficient, in units of the resolution, that can be quantised exactly.
+	private static final double MAXIMUM_QUANTUM = 1.0e15;
+	
+	private final FileChannel channel;
+	private final int[] orders;
+	private final int nBodies, nRefsys, headerSize, maxRecordSize;
+	private final double jdStart, stepSize, resolution;
+	private final ByteBuffer buffer;
+	
+	private int nGranules = 0;
+	private double maxError = Double.NaN;
+	private int method = -1;
+	private double maxQuantisationError = 0.0;
+	private long bytesWritten = 0;
+	
+	public QuantisedArchiveWriter(File file, int[] bodies, int[] refsys, int[] orders, double jdStart,
+			double stepSize, double resolution) throws IOException {
+		if (orders.length != 3 * bodies.length * refsys.length)
+			throw new IllegalArgumentException("There must be one order for each of the X, Y and Z components of each body in each reference system");
+		
+		if (!(resolution > 0.0))
+			throw new IllegalArgumentException("Resolution must be positive");
+		
+		this.orders = orders.clone();
+		this.nBodies = bodies.length;
+		this.nRefsys = refsys.length;
+		this.jdStart = jdStart;
+		this.stepSize = stepSize;
+		this.resolution = resolution;
+		
+		// A varint holding a 64-bit value takes at most 10 bytes.
+		int recordSize = 0;
+		
+		for (int order : orders)
+			recordSize += 10 * (order + 1);
+		
+		this.maxRecordSize = recordSize;
+		
+		this.buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 2 * recordSize)).order(ByteOrder.LITTLE_ENDIAN);
+		
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		
+		headerSize = ChebyshevArchive.headerSize(bodies.length, refsys.length, ChebyshevArchive.OFFSET_QUANTISED_TABLES);
+		
+		buffer.put(ChebyshevArchive.QUANTISED_MAGIC);
+		buffer.putInt(ChebyshevArchive.VERSION);
+		buffer.putInt(headerSize);
+		buffer.putInt(bodies.length);
+		buffer.putInt(refsys.length);
+		buffer.putInt(0);
+		buffer.putInt(0);
+		buffer.putDouble(jdStart);
+		buffer.putDouble(stepSize);
+		buffer.putDouble(Double.NaN);
+		buffer.putDouble(resolution);
+		
+		for (int body : bodies)
+			buffer.putInt(body);
+		
+		for (int r : refsys)
+			buffer.putInt(r);
+		
+		for (int order : orders)
+			buffer.putInt(order);
+		
+		while (buffer.position() < headerSize)
+			buffer.put((byte)0);
+	}
+	
+	public void writeGranule(double jd0, double[][] coeffs) throws IOException {
+		if (Math.abs(jd0 - (jdStart + nGranules * stepSize)) > 1.0e-6)
+			throw new IllegalArgumentException("Granule starting at " + jd0 + " is out of sequence");
+		
+		if (coeffs.length != orders.length)
+			throw new IllegalArgumentException("Granule has the wrong number of components");
+		
+		if (buffer.remaining() < maxRecordSize)
+			flush();
+		
+		for (int iComponent = 0; iComponent < orders.length; iComponent++) {
+			double[] c = coeffs[iComponent];
+			
+			if (c.length > orders[iComponent])
+				throw new IllegalArgumentException("Component " + iComponent + " has more coefficients than the archive allows");
+			
+			int n = c.length;
+			
+			while (n > 0 && Math.rint(c[n - 1]/resolution) == 0.0)
+				n--;
+			
+			putVarint(n);
+			
+			double error = 0.0;
+			
+			for (int i = 0; i < c.length; i++) {
+				double quanta = Math.rint(c[i]/resolution);
+				
+				if (Math.abs(quanta) > MAXIMUM_QUANTUM)
+					throw new IllegalArgumentException("Coefficient " + c[i] + " is too large for a resolution of " + resolution);
+				
+				error += Math.abs(c[i] - quanta * resolution);
+				
+				if (i < n)
+					putVarint(ChebyshevArchive.zigZagEncode((long)quanta));
+			}
+			
+			maxQuantisationError = Math.max(maxQuantisationError, error);
+		}
+		
+		nGranules++;
+	}
+	
+	private void putVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		
+		buffer.put((byte)value);
+	}
+	
+	public void setMaximumError(double maxError) {
+		this.maxError = maxError;
+	}
+	
+	public void setMethod(int method) {
+		this.method = method;
+	}
+	
+	/*
+	 * The largest error added to any component by quantisation, in arcseconds.
+	 */
+	
+	public double getQuantisationError() {
+		return maxQuantisationError;
+	}
+	
+	public int getNumberOfGranules() {
+		return nGranules;
+	}
+	
+	/*
+	 * The size of the archive once closed, and the size of the same data in the plain
+	 * binary format.
+	 */
+	
+	public long getSize() {
+		return bytesWritten + buffer.position();
+	}
+	
+	public long getUnquantisedSize() {
+		long recordSize = 0;
+		
+		for (int order : orders)
+			recordSize += 8 * order;
+		
+		return ChebyshevArchive.headerSize(nBodies, nRefsys) + recordSize * nGranules;
+	}
+	
+	private void flush() throws IOException {
+		buffer.flip();
+		
+		while (buffer.hasRemaining())
+			bytesWritten += channel.write(buffer);
+		
+		buffer.clear();
+	}
+	
+	public void close() throws IOException {
+		try {
+			flush();
+			
+			ByteBuffer patch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			
+			patch.putInt(nGranules).putInt(method + 1).flip();
+			channel.write(patch, ChebyshevArchive.OFFSET_GRANULES);
+			
+			/*
+			 * If the fitting error was never set, the quantisation error is the only one
+			 * known, and it is recorded alone rather than lost in a NaN.
+			 */
+			
+			patch.clear();
+			patch.putDouble(Double.isNaN(maxError) ? maxQuantisationError : maxError + maxQuantisationError).flip();
+			channel.write(patch, ChebyshevArchive.OFFSET_MAXIMUM_ERROR);
+		} finally {
+			channel.close();
+		}
+	}
+}
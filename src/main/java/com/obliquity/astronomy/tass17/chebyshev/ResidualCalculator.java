@@ -0,0 +1,607 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.TabulationFile;
+import com.obliquity.astronomy.tass17.TabulationWriter;
+
+/*
+ * Calculate observed-minus-computed residuals of astrometric observations of the
+ * satellites.  Each line of the input gives one observation:
+ *
+ *   jd  satellite  dx  dy  [reference]
+ *
+ * where the satellite and the optional reference body are given by name or by index,
+ * dx and dy are the measured offsets in arcseconds, and the reference is Saturn if it
+ * is omitted or given as "saturn" or -1.  Blank lines and lines starting with '#' are
+ * ignored.
+ *
+ * Observations are read in blocks, so memory use does not grow with the size of the
+ * input.  Within a block, they are sorted by epoch and grouped, so that observations
+ * made at the same epoch share one calculation, and the distinct epochs are divided
+ * into runs which are calculated in parallel, each by a worker with its own ephemeris.
+ * The residuals are written in the order of the input: the epoch, the satellite, the
+ * reference (-1 for Saturn) and the residuals in X and Y.  With -partials, they are
+ * followed by the partial derivatives of the computed X and Y offsets with respect to
+ * the six elements of the satellite, in the order of SaturnSystemOffsets, and then with
+ * respect to those of the reference satellite, which are zero for Saturn.  They are
+ * partials with respect to corrections to the elements at the epoch given by -epoch,
+ * J2000.0 by default, as SaturnSystemOffsets describes.
+ *
+ * The computed offsets are the hybrid offsets by default, which are the same as those
+ * of SatelliteOffset.  They are calculated by MultiSatelliteOffset for all eight
+ * satellites at once, as are the rigorous offsets, which are those of
+ * SaturnSystemApparentPlace.  The simplified offsets of SaturnSystemOffsets are faster,
+ * but omit the differences in light time and aberration across the system, which for
+ * the outer satellites are comparable with the residuals of good observations, so they
+ * must be asked for explicitly and should not be used for reductions of real
+ * observations.  The partial derivatives are always those of the
+ * simplified offsets, which differ from the others only by terms of the order of the
+ * light-time corrections.
+ *
+ * Options:
+ *   -in <file>       read the observations from a file instead of standard input
+ *   -out <file>      write the residuals to a file instead of standard output
+ *   -binary <file>   write the residuals as a TabulationFile; "-" is standard output
+ *   -threads <n>     the number of worker threads
+ *   -method <name>   hybrid, rigorous or simplified; hybrid by default
+ *   -partials        write the partial derivatives
+ *   -epoch <date>    the epoch of the element corrections of the partials
+ *   -mean, -of-date  the reference system of the observations, J2000 by default
+ *   -ut              the epochs are UT rather than TT
+ *   -block <n>       the number of observations in a block
+ */
+
+public class ResidualCalculator {
+	public static final int SATURN = -1;
+	public static final int DEFAULT_BLOCK_SIZE = 16384;
+	
+	private static final int EPOCHS_PER_TASK = 256;
+	private static final int TASKS_PER_THREAD = 4;
+	private static final double EPHEMERIS_MARGIN = 400.0;
+	
+	private static final String[] ELEMENT_NAMES = { "n", "lambda", "k", "h", "q", "p" };
+	
+	private final TASSTheory theory;
+	private final int refsys;
+	private final boolean partials;
+	private final int nThreads;
+	private final int blockSize;
+	private final IAUEarthRotationModel erm = new IAUEarthRotationModel();
+	
+	private boolean timeIsUT = false;
+	private int method = SatelliteOffset.HYBRID;
+	private double partialsEpoch = SaturnSystemOffsets.DEFAULT_PARTIALS_EPOCH;
+	
+	private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
+	
+	private final double[] jd, tdt, dx, dy;
+	private final int[] satellite, reference, epochIndex;
+	private final Integer[] order;
+	private final double[] epochs;
+	private final double[] offsets;
+	private final double[] partialsByEpoch;
+	
+	public static void main(String[] args) {
+		String inputFilename = null, outputFilename = null, binaryFilename = null;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		int refsys = SatelliteOffset.J2000;
+		int blockSize = DEFAULT_BLOCK_SIZE;
+		int method = SatelliteOffset.HYBRID;
+		double partialsEpoch = SaturnSystemOffsets.DEFAULT_PARTIALS_EPOCH;
+		boolean partials = false, timeIsUT = false;
+		
+		for (int i = 0; i < args.length; i++) {
+			String keyword = args[i].toLowerCase();
+			
+			switch (keyword) {
+			case "-in":
+				inputFilename = args[++i];
+				break;
+			
+			case "-out":
+				outputFilename = args[++i];
+				break;
+			
+			case "-binary":
+				binaryFilename = args[++i];
+				break;
+			
+			case "-threads":
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-method":
+				method = Arrays.asList(GenerateJSONData.methodToName).indexOf(args[++i].toLowerCase());
+				break;
+			
+			case "-partials":
+				partials = true;
+				break;
+			
+			case "-epoch":
+				partialsEpoch = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-j2000":
+				refsys = SatelliteOffset.J2000;
+				break;
+			
+			case "-mean":
+				refsys = SatelliteOffset.MEAN;
+				break;
+			
+			case "-of-date":
+				refsys = SatelliteOffset.OF_DATE;
+				break;
+			
+			case "-ut":
+				timeIsUT = true;
+				break;
+			
+			case "-block":
+				blockSize = Integer.parseInt(args[++i]);
+				break;
+			
+			default:
+				System.err.println("Unknown keyword: " + keyword);
+				System.exit(1);
+			}
+		}
+		
+		if (nThreads < 1 || blockSize < 1 || method < 0) {
+			System.err.println("Invalid or missing options.");
+			System.err.println("The method should be hybrid, rigorous or simplified.");
+			System.exit(2);
+		}
+		
+		try {
+			ResidualCalculator calculator = new ResidualCalculator(new TASSTheory(), refsys, partials, nThreads, blockSize);
+			
+			calculator.setTimeIsUT(timeIsUT);
+			calculator.setMethod(method);
+			calculator.setPartialsEpoch(partialsEpoch);
+			
+			BufferedReader reader = new BufferedReader(inputFilename == null ? new InputStreamReader(System.in)
+					: new FileReader(inputFilename));
+			
+			if (binaryFilename != null) {
+				try (TabulationWriter writer = TabulationWriter.open(binaryFilename, calculator.getColumnNames(),
+						calculator.getColumnTypes())) {
+					calculator.calculateResiduals(reader, null, writer);
+				}
+			} else {
+				Writer writer = new BufferedWriter(outputFilename == null ? new OutputStreamWriter(System.out)
+						: new FileWriter(outputFilename), 1 << 16);
+				
+				calculator.calculateResiduals(reader, writer, null);
+				
+				if (outputFilename == null)
+					writer.flush();
+				else
+					writer.close();
+			}
+			
+			reader.close();
+		} catch (IOException | JPLEphemerisException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public ResidualCalculator(TASSTheory theory, int refsys, boolean partials, int nThreads, int blockSize) {
+		if (refsys < SatelliteOffset.J2000 || refsys > SatelliteOffset.OF_DATE)
+			throw new IllegalArgumentException("Reference system should be J2000 or MEAN or OF_DATE");
+		
+		this.theory = theory;
+		this.refsys = refsys;
+		this.partials = partials;
+		this.nThreads = nThreads;
+		this.blockSize = blockSize;
+		
+		jd = new double[blockSize];
+		tdt = new double[blockSize];
+		dx = new double[blockSize];
+		dy = new double[blockSize];
+		satellite = new int[blockSize];
+		reference = new int[blockSize];
+		epochIndex = new int[blockSize];
+		order = new Integer[blockSize];
+		epochs = new double[blockSize];
+		
+		int dimension = 3 * SaturnSystemOffsets.N_SATELLITES;
+		
+		offsets = new double[dimension * blockSize];
+		partialsByEpoch = partials ? new double[SaturnSystemOffsets.N_ELEMENTS * dimension * blockSize] : null;
+	}
+	
+	public void setTimeIsUT(boolean timeIsUT) {
+		this.timeIsUT = timeIsUT;
+	}
+	
+	public boolean isTimeUT() {
+		return timeIsUT;
+	}
+	
+	public void setMethod(int method) {
+		if (method != SatelliteOffset.RIGOROUS && method != SatelliteOffset.SIMPLIFIED && method != SatelliteOffset.HYBRID)
+			throw new IllegalArgumentException("Method should be RIGOROUS or SIMPLIFED or HYBRID");
+		
+		this.method = method;
+	}
+	
+	public int getMethod() {
+		return method;
+	}
+	
+	public void setPartialsEpoch(double partialsEpoch) {
+		this.partialsEpoch = partialsEpoch;
+	}
+	
+	public double getPartialsEpoch() {
+		return partialsEpoch;
+	}
+	
+	public String[] getColumnNames() {
+		int nColumns = partials ? 5 + 4 * SaturnSystemOffsets.N_ELEMENTS : 5;
+		
+		String[] names = new String[nColumns];
+		
+		names[0] = "jd";
+		names[1] = "satellite";
+		names[2] = "reference";
+		names[3] = "dx";
+		names[4] = "dy";
+		
+		if (partials) {
+			int n = SaturnSystemOffsets.N_ELEMENTS;
+			
+			for (int i = 0; i < n; i++) {
+				names[5 + i] = "dx_" + ELEMENT_NAMES[i];
+				names[5 + n + i] = "dy_" + ELEMENT_NAMES[i];
+				names[5 + 2 * n + i] = "rdx_" + ELEMENT_NAMES[i];
+				names[5 + 3 * n + i] = "rdy_" + ELEMENT_NAMES[i];
+			}
+		}
+		
+		return names;
+	}
+	
+	public int[] getColumnTypes() {
+		int[] types = new int[getColumnNames().length];
+		
+		Arrays.fill(types, TabulationFile.TYPE_DOUBLE);
+		
+		types[1] = TabulationFile.TYPE_INT;
+		types[2] = TabulationFile.TYPE_INT;
+		
+		return types;
+	}
+	
+	/*
+	 * Read every observation and write its residuals, as text to the writer if it is not
+	 * null, and otherwise to the tabulation writer.  Returns the number of observations.
+	 */
+	
+	public long calculateResiduals(BufferedReader reader, Writer writer, TabulationWriter tabulation)
+			throws IOException, JPLEphemerisException, InterruptedException, ExecutionException {
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		
+		long nObservations = 0, lineNumber = 0;
+		
+		StringBuilder sb = new StringBuilder(512);
+		
+		try {
+			boolean more = true;
+			
+			while (more) {
+				int n = 0;
+				
+				String line;
+				
+				while (n < blockSize && (line = reader.readLine()) != null) {
+					lineNumber++;
+					
+					if (parseObservation(line, n, lineNumber))
+						n++;
+				}
+				
+				more = n == blockSize;
+				
+				if (n == 0)
+					break;
+				
+				calculateBlock(pool, n);
+				
+				for (int i = 0; i < n; i++) {
+					if (writer != null) {
+						sb.setLength(0);
+						formatResiduals(sb, i);
+						writer.append(sb);
+					} else {
+						writeResiduals(tabulation, i);
+					}
+				}
+				
+				nObservations += n;
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		return nObservations;
+	}
+	
+	private boolean parseObservation(String line, int i, long lineNumber) throws IOException {
+		line = line.trim();
+		
+		if (line.isEmpty() || line.startsWith("#"))
+			return false;
+		
+		String[] words = line.split("\\s+");
+		
+		if (words.length < 4 || words.length > 5)
+			throw new IOException("Line " + lineNumber + ": expecting jd satellite dx dy [reference]");
+		
+		try {
+			jd[i] = Double.parseDouble(words[0]);
+			dx[i] = Double.parseDouble(words[2]);
+			dy[i] = Double.parseDouble(words[3]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+		}
+		
+		satellite[i] = parseBody(words[1], false, lineNumber);
+		reference[i] = words.length > 4 ? parseBody(words[4], true, lineNumber) : SATURN;
+		
+		if (satellite[i] == reference[i])
+			throw new IOException("Line " + lineNumber + ": the satellite cannot be its own reference");
+		
+		tdt[i] = timeIsUT ? jd[i] + erm.deltaT(jd[i]) : jd[i];
+		
+		return true;
+	}
+	
+	private static int parseBody(String word, boolean allowSaturn, long lineNumber) throws IOException {
+		int id;
+		
+		if (word.matches("-?\\d+"))
+			id = Integer.parseInt(word);
+		else if (word.equalsIgnoreCase("saturn"))
+			id = SATURN;
+		else
+			id = GenerateJSONData.nameToID(word);
+		
+		if (id == SATURN && allowSaturn)
+			return id;
+		
+		if (id < 0 || id >= SaturnSystemOffsets.N_SATELLITES)
+			throw new IOException("Line " + lineNumber + ": unknown body \"" + word + "\"");
+		
+		return id;
+	}
+	
+	/*
+	 * Sort the observations of a block by epoch, find the distinct epochs, and calculate
+	 * the offsets at them in parallel.  Runs of epochs are passed to the workers in order,
+	 * with no more than a few per thread in flight, and each worker writes into its own
+	 * slice of the offset and partial arrays.
+	 */
+	
+	private void calculateBlock(ForkJoinPool pool, int n) throws InterruptedException, ExecutionException {
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		
+		Arrays.sort(order, 0, n, (a, b) -> Double.compare(tdt[a], tdt[b]));
+		
+		int nEpochs = 0;
+		
+		for (int i = 0; i < n; i++) {
+			int k = order[i];
+			
+			if (nEpochs == 0 || tdt[k] != epochs[nEpochs - 1])
+				epochs[nEpochs++] = tdt[k];
+			
+			epochIndex[k] = nEpochs - 1;
+		}
+		
+		ArrayDeque<ForkJoinTask<Void>> pending = new ArrayDeque<ForkJoinTask<Void>>();
+		int window = TASKS_PER_THREAD * nThreads;
+		
+		int iEpoch = 0;
+		
+		while (iEpoch < nEpochs || !pending.isEmpty()) {
+			while (iEpoch < nEpochs && pending.size() < window) {
+				final int from = iEpoch, to = Math.min(nEpochs, iEpoch + EPOCHS_PER_TASK);
+				
+				pending.add(pool.submit(() -> {
+					getWorker(epochs[from], epochs[to - 1]).calculateOffsets(epochs, from, to, offsets, partialsByEpoch);
+					return null;
+				}));
+				
+				iEpoch = to;
+			}
+			
+			pending.remove().get();
+		}
+	}
+	
+	private static class Worker {
+		final double jdEarliest, jdLatest;
+		final SaturnSystemOffsets simplifiedOffsets;
+		final MultiSatelliteOffset offsets;
+		final double[] buffer = new double[3 * MultiSatelliteOffset.N_SATELLITES];
+		
+		Worker(TASSTheory theory, int method, int refsys, double partialsEpoch, double jdEarliest, double jdLatest)
+				throws IOException, JPLEphemerisException {
+			this.jdEarliest = jdEarliest;
+			this.jdLatest = jdLatest;
+			
+			JPLEphemeris ephemeris = GenerateJSONData.getEphemeris(jdEarliest, jdLatest);
+			
+			this.simplifiedOffsets = new SaturnSystemOffsets(ephemeris, theory);
+			
+			simplifiedOffsets.setReferenceSystem(refsys);
+			simplifiedOffsets.setPartialsEpoch(partialsEpoch);
+			
+			if (method == SatelliteOffset.SIMPLIFIED)
+				this.offsets = null;
+			else {
+				this.offsets = new MultiSatelliteOffset(ephemeris, theory);
+				
+				offsets.setMethod(method);
+				offsets.setReferenceSystem(refsys);
+			}
+		}
+		
+		boolean covers(double jdA, double jdB) {
+			return jdA >= jdEarliest && jdB <= jdLatest;
+		}
+		
+		/*
+		 * The simplified offsets and the partials are calculated together for the whole
+		 * run; for the other methods, the offsets are then replaced epoch by epoch.
+		 */
+		
+		void calculateOffsets(double[] epochs, int from, int to, double[] results, double[] partials) throws JPLEphemerisException {
+			if (offsets == null || partials != null)
+				simplifiedOffsets.calculateOffsets(epochs, from, to, results, partials);
+			
+			if (offsets == null)
+				return;
+			
+			for (int iEpoch = from; iEpoch < to; iEpoch++) {
+				offsets.calculateOffsets(epochs[iEpoch], buffer);
+				
+				System.arraycopy(buffer, 0, results, buffer.length * iEpoch, buffer.length);
+			}
+		}
+	}
+	
+	/*
+	 * Each worker thread keeps its pipeline from one run to the next, and builds a new one,
+	 * reading a span of the ephemeris with a generous margin, only when a run falls
+	 * outside it.
+	 */
+	
+	private Worker getWorker(double jdA, double jdB) {
+		Worker worker = workers.get();
+		
+		if (worker == null || !worker.covers(jdA, jdB)) {
+			try {
+				worker = new Worker(theory, method, refsys, partialsEpoch, jdA - EPHEMERIS_MARGIN, jdB + EPHEMERIS_MARGIN);
+			} catch (IOException | JPLEphemerisException e) {
+				throw new IllegalStateException("Failed to create a worker pipeline", e);
+			}
+			
+			workers.set(worker);
+		}
+		
+		return worker;
+	}
+	
+	private double getComputed(int i, int component) {
+		int base = 3 * SaturnSystemOffsets.N_SATELLITES * epochIndex[i];
+		
+		double value = offsets[base + 3 * satellite[i] + component];
+		
+		if (reference[i] != SATURN)
+			value -= offsets[base + 3 * reference[i] + component];
+		
+		return value;
+	}
+	
+	/*
+	 * The partial derivative of a computed offset with respect to an element of the
+	 * satellite, or of the reference satellite if reference is true.
+	 */
+	
+	private double getPartial(int i, int component, int iElement, boolean reference) {
+		int body = reference ? this.reference[i] : satellite[i];
+		
+		if (body == SATURN)
+			return 0.0;
+		
+		int n = SaturnSystemOffsets.N_ELEMENTS;
+		
+		double value = partialsByEpoch[3 * n * (SaturnSystemOffsets.N_SATELLITES * epochIndex[i] + body) + 3 * iElement + component];
+		
+		return reference ? -value : value;
+	}
+	
+	private void formatResiduals(StringBuilder sb, int i) {
+		ChebyshevJSONWriter.appendFixed(sb, jd[i], 6, 15);
+		sb.append(' ').append(satellite[i]);
+		sb.append(' ');
+		ChebyshevJSONWriter.appendFixed(sb, reference[i], 0, 2);
+		sb.append(' ');
+		ChebyshevJSONWriter.appendFixed(sb, dx[i] - getComputed(i, 0), 4, 9);
+		sb.append(' ');
+		ChebyshevJSONWriter.appendFixed(sb, dy[i] - getComputed(i, 1), 4, 9);
+		
+		if (partials) {
+			for (int r = 0; r < 2; r++) {
+				for (int component = 0; component < 2; component++) {
+					for (int iElement = 0; iElement < SaturnSystemOffsets.N_ELEMENTS; iElement++) {
+						sb.append(' ');
+						ChebyshevJSONWriter.appendFixed(sb, getPartial(i, component, iElement, r == 1), 4, 11);
+					}
+				}
+			}
+		}
+		
+		sb.append('\n');
+	}
+	
+	private void writeResiduals(TabulationWriter writer, int i) throws IOException {
+		writer.setDouble(0, jd[i]);
+		writer.setInt(1, satellite[i]);
+		writer.setInt(2, reference[i]);
+		writer.setDouble(3, dx[i] - getComputed(i, 0));
+		writer.setDouble(4, dy[i] - getComputed(i, 1));
+		
+		if (partials) {
+			int column = 5;
+			
+			for (int r = 0; r < 2; r++)
+				for (int component = 0; component < 2; component++)
+					for (int iElement = 0; iElement < SaturnSystemOffsets.N_ELEMENTS; iElement++)
+						writer.setDouble(column++, getPartial(i, component, iElement, r == 1));
+		}
+		
+		writer.endRow();
+	}
+}
@@ -29,18 +29,20 @@ import com.obliquity.astronomy.almanac.MovingPoint;
 import com.obliquity.astronomy.almanac.PlanetCentre;
 import com.obliquity.astronomy.almanac.chebyshev.Chebyshev;
 import com.obliquity.astronomy.almanac.chebyshev.Evaluatable;
+import com.obliquity.astronomy.tass17.ReferenceSystemMatrices;
+import com.obliquity.astronomy.tass17.SaturnSystem;
 import com.obliquity.astronomy.tass17.TASSElements;
 import com.obliquity.astronomy.tass17.TASSMovingPoint;
 import com.obliquity.astronomy.tass17.TASSTheory;
 
-public class SatelliteOffset implements Evaluatable {
+public class SatelliteOffset implements Evaluatable, GranuleFunction {
 	public static final int X_OFFSET = 0, Y_OFFSET = 1, Z_OFFSET = 2;
-	public static final int RIGOROUS = 0, SIMPLIFIED = 1;
+	public static final int RIGOROUS = 0, SIMPLIFIED = 1, HYBRID = 2;
 	public static final int J2000 = 0, MEAN = 1, OF_DATE = 2;
 	
 	private int method = SIMPLIFIED;
 	private int component = X_OFFSET;
-	private int referenceSystem = J2000;
+	private int[] referenceSystems = { J2000 };
 	private double tMinimum = 0.0, tMaximum = 0.0;
 	private double[] offsets = new double[3];
 	
@@ -49,14 +51,37 @@ public class SatelliteOffset implements Evaluatable {
 	private ApparentPlace apSaturn;
 	private ApparentPlace apSatellite;
 	private IAUEarthRotationModel erm = null;
+	private ReferenceSystemMatrices matrices;
 	private TASSTheory theory;
+	private DifferentialPlace differentialPlace;
+	private SaturnSystemOffsets simplifiedOffsets = null;
 	private final double cosObliquity, sinObliquity;
 	
+	private final TASSElements elements = new TASSElements();
+	private final double[] position = new double[3];
+	private final double[] velocity = new double[3];
+	
+	/*
+	 * A SatelliteOffset for one satellite on its own evaluates the theory for that
+	 * satellite alone.  Offsets for several satellites at the same epochs should share a
+	 * SaturnSystem, which evaluates the theory once for all eight.
+	 */
+	
 	public SatelliteOffset(JPLEphemeris ephemeris, TASSTheory theory, int iSat) throws IOException {
+		this(ephemeris, theory, new PlanetCentre(ephemeris, JPLEphemeris.SATURN),
+				new TASSMovingPoint(ephemeris, theory, iSat), iSat);
+	}
+	
+	public SatelliteOffset(JPLEphemeris ephemeris, SaturnSystem system, int iSat) {
+		this(ephemeris, system.getTheory(), system.getSaturn(), system.getSatellite(iSat), iSat);
+	}
+	
+	private SatelliteOffset(JPLEphemeris ephemeris, TASSTheory theory, MovingPoint saturn, MovingPoint satellite, int iSat) {
 		this.theory = theory;
 		this.iSat = iSat;
 		
 		this.erm = new IAUEarthRotationModel();
+		this.matrices = new ReferenceSystemMatrices(erm);
 		
 		double obliquity = erm.meanObliquity(2451545.0);
 		
@@ -67,12 +92,11 @@ public class SatelliteOffset implements Evaluatable {
 		
 		MovingPoint sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
 		
-		MovingPoint saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
-		
 		this.apSaturn = new ApparentPlace(earth, saturn, sun, erm);
 		
-		MovingPoint satellite = new TASSMovingPoint(ephemeris, iSat);
 		apSatellite = new ApparentPlace(earth, satellite, sun, erm);
+		
+		differentialPlace = new DifferentialPlace(ephemeris);
 	}
 	
 	public void setDateRange(double tMinimum, double tMaximum) {
@@ -89,8 +113,8 @@ public class SatelliteOffset implements Evaluatable {
 	}
 	
 	public void setMethod(int method) {
-		if (method != RIGOROUS && method != SIMPLIFIED)
-			throw new IllegalArgumentException("Method should be RIGOROUS or SIMPLIFED");
+		if (method != RIGOROUS && method != SIMPLIFIED && method != HYBRID)
+			throw new IllegalArgumentException("Method should be RIGOROUS or SIMPLIFED or HYBRID");
 		
 		this.method = method;
 	}
@@ -100,14 +124,34 @@ public class SatelliteOffset implements Evaluatable {
 	}
 	
 	public void setReferenceSystem(int refsys) {
-		if (refsys < J2000 || refsys > OF_DATE)
-			throw new IllegalArgumentException("Reference systems should be J2000 or MEAN or OF_DATE");
-		
-		this.referenceSystem = refsys;
+		setReferenceSystems(refsys);
 	}
 	
 	public int getReferenceSystem() {
-		return referenceSystem;
+		return referenceSystems[0];
+	}
+	
+	/*
+	 * Calculate the offsets in several reference systems at once.  The vector form of
+	 * evaluate then returns the X, Y and Z offsets in the first reference system, followed
+	 * by those in the second, and so on, all from the same apparent places.  The scalar
+	 * form returns the selected component in the first reference system.
+	 */
+	
+	public void setReferenceSystems(int... refsys) {
+		if (refsys.length == 0)
+			throw new IllegalArgumentException("At least one reference system is required");
+		
+		for (int r : refsys)
+			if (r < J2000 || r > OF_DATE)
+				throw new IllegalArgumentException("Reference systems should be J2000 or MEAN or OF_DATE");
+		
+		this.referenceSystems = refsys.clone();
+		this.offsets = new double[3 * refsys.length];
+	}
+	
+	public int[] getReferenceSystems() {
+		return referenceSystems.clone();
 	}
 	
 	public void setComponent(int component) {
@@ -136,6 +180,36 @@ public class SatelliteOffset implements Evaluatable {
 		return offsets[component];
 	}
 	
+	public int getDimension() {
+		return offsets.length;
+	}
+	
+	/*
+	 * Calculate all three offsets, in every reference system, at once.  In the rigorous
+	 * method, this computes the apparent place of Saturn only once for all components.
+	 */
+	
+	public void evaluate(double x, double[] values) {
+		if (tMinimum == 0.0 || tMaximum == 0.0)
+			throw new IllegalStateException("Date range has not been set");
+		
+		double t = tMinimum + (x + 1.0) * (tMaximum - tMinimum)/2.0;
+		
+		try {
+			calculateOffsets(t);
+		} catch (JPLEphemerisException e) {
+			e.printStackTrace();
+		}
+		
+		System.arraycopy(offsets, 0, values, 0, offsets.length);
+	}
+	
+	public void calculateOffsets(double jd, double[] values) throws JPLEphemerisException {
+		calculateOffsets(jd);
+		
+		System.arraycopy(offsets, 0, values, 0, offsets.length);
+	}
+	
 	private void calculateOffsets(double jd) throws JPLEphemerisException {
     	switch (method) {
     	case RIGOROUS:
@@ -145,13 +219,17 @@ public class SatelliteOffset implements Evaluatable {
     	case SIMPLIFIED:
     		calculateSimplifiedOffsets(jd);
     		break;
+    		
+    	case HYBRID:
+    		calculateHybridOffsets(jd);
+    		break;
 
     	default:
-    		throw new IllegalStateException("Method was not one of RIGOROUS or SIMPLIFIED");
+    		throw new IllegalStateException("Method was not one of RIGOROUS or SIMPLIFIED or HYBRID");
     	}
 	}
 	
-	private double getRightAscension(ApparentPlace ap) {
+	private double getRightAscension(ApparentPlace ap, int referenceSystem) {
 		switch (referenceSystem) {
 		case J2000:
 			return ap.getRightAscensionJ2000();
@@ -167,7 +245,7 @@ public class SatelliteOffset implements Evaluatable {
 		}
 	}
 	
-	private double getDeclination(ApparentPlace ap) {
+	private double getDeclination(ApparentPlace ap, int referenceSystem) {
 		switch (referenceSystem) {
 		case J2000:
 			return ap.getDeclinationJ2000();
@@ -185,56 +263,86 @@ public class SatelliteOffset implements Evaluatable {
 	
 	private void calculateRigorousOffsets(double jd) throws JPLEphemerisException {
 		apSaturn.calculateApparentPlace(jd);
-		
-		double raSaturn = getRightAscension(apSaturn);
-		double decSaturn = getDeclination(apSaturn);
   		double gdSaturn = apSaturn.getGeometricDistance();
 
    		apSatellite.calculateApparentPlace(jd);
-   			
-   		double raSatellite = getRightAscension(apSatellite);
-   		double decSatellite = getDeclination(apSatellite);
    		double gdSatellite = apSatellite.getGeometricDistance();
+   		
+   		for (int i = 0; i < referenceSystems.length; i++) {
+   			int refsys = referenceSystems[i];
+   			
+   			double raSaturn = getRightAscension(apSaturn, refsys);
+   			double decSaturn = getDeclination(apSaturn, refsys);
+   			
+   			double raSatellite = getRightAscension(apSatellite, refsys);
+   			double decSatellite = getDeclination(apSatellite, refsys);
    			
-   		offsets[0] = (raSatellite - raSaturn) * Math.cos(decSaturn) * 3600.0 * 180.0/Math.PI;
-   		offsets[1] = (decSatellite - decSaturn) * 3600.0 * 180.0/Math.PI;
-   		offsets[2] = ((gdSatellite - gdSaturn)/gdSaturn) * 3600.0 * 180.0/Math.PI;
+   			double dra = raSatellite - raSaturn;
+   			
+   			if (dra > Math.PI)
+   				dra -= 2.0 * Math.PI;
+   			else if (dra < -Math.PI)
+   				dra += 2.0 * Math.PI;
+   			
+   			offsets[3 * i] = dra * Math.cos(decSaturn) * 3600.0 * 180.0/Math.PI;
+   			offsets[3 * i + 1] = (decSatellite - decSaturn) * 3600.0 * 180.0/Math.PI;
+   			offsets[3 * i + 2] = ((gdSatellite - gdSaturn)/gdSaturn) * 3600.0 * 180.0/Math.PI;
+   		}
 	}
 	
 	private void calculateSimplifiedOffsets(double jd) throws JPLEphemerisException {
+		if (simplifiedOffsets == null)
+			simplifiedOffsets = new SaturnSystemOffsets(apSaturn, matrices, theory);
+		
+		simplifiedOffsets.setReferenceSystems(referenceSystems);
+		
+		simplifiedOffsets.calculateOffsets(jd, iSat, offsets);
+	}
+	
+	/*
+	 * Saturn's apparent place is calculated rigorously, and the satellite's offset from it
+	 * by first-order differential corrections for light time and aberration.  See the
+	 * comments on DifferentialPlace.
+	 */
+	
+	private void calculateHybridOffsets(double jd) throws JPLEphemerisException {
 		apSaturn.calculateApparentPlace(jd);
 		
-		double raSaturn = getRightAscension(apSaturn);
-		double decSaturn = getDeclination(apSaturn);
-    	double jdSatellites = jd - apSaturn.getLightTime();
-    	
-		double ca = Math.cos(raSaturn);
-		double sa = Math.sin(raSaturn);
-		double cd = Math.cos(decSaturn);
-		double sd = Math.sin(decSaturn);
-
-    	TASSElements elements = new TASSElements();
-    	theory.calculateElements(jdSatellites, iSat, elements);
-
-    	double[] position = new double[3];
-
-   		theory.calculatePosition(iSat, elements, position);
-   			
-   		double xe = position[0], ye = position[1], ze = position[2];
-   			
-   		double xa = xe;
-   		double ya = ye * cosObliquity - ze * sinObliquity;
-   		double za = ye * sinObliquity + ze * cosObliquity;
-   			
-   		double q = (3600.0 * 180.0 / Math.PI)/apSaturn.getGeometricDistance();
-   			
-   		double ux = ca * cd, uy = sa * cd, uz = sd;
-   		double vx = -sa, vy = ca, vz = 0.0;
-   		double wx = -ca * sd, wy = -sa * sd, wz = cd;
-   			
-   		offsets[0] = (vx * xa + vy * ya + vz * za) * q;
-   		offsets[1] = (wx * xa + wy * ya + wz * za) * q;
-   		offsets[2] = (ux * xa + uy * ya + uz * za) * q;
+		differentialPlace.setSaturnPlace(jd, apSaturn);
+		
+		theory.calculateElements(jd - apSaturn.getLightTime(), iSat, elements);
+		theory.calculatePositionAndVelocity(iSat, elements, position, velocity);
+		
+		rotateToJ2000(position);
+		rotateToJ2000(velocity);
+		
+		differentialPlace.setSatellite(position, velocity);
+		
+		theory.calculateElements(jd, iSat, elements);
+		theory.calculatePosition(iSat, elements, position);
+		
+		rotateToJ2000(position);
+		
+		double zOffset = differentialPlace.calculateDistanceOffset(position);
+		
+		for (int i = 0; i < referenceSystems.length; i++) {
+			int refsys = referenceSystems[i];
+			
+			if (refsys != J2000)
+				matrices.setEpoch(jd);
+			
+			differentialPlace.calculateOffsets(matrices, refsys, getRightAscension(apSaturn, refsys),
+					getDeclination(apSaturn, refsys), offsets, 3 * i);
+			
+			offsets[3 * i + 2] = zOffset;
+		}
+	}
+	
+	private void rotateToJ2000(double[] xyz) {
+		double y = xyz[1], z = xyz[2];
+		
+		xyz[1] = y * cosObliquity - z * sinObliquity;
+		xyz[2] = y * sinObliquity + z * cosObliquity;
 	}
 	
 	public void calculateChebyshevCoefficients(double[] coeffs) {
@@ -246,4 +354,8 @@ public class SatelliteOffset implements Evaluatable {
 		calculateChebyshevCoefficients(coeffs);
 		return coeffs;
 	}
+	
+	public void calculateChebyshevCoefficients(double[][] coeffs) {
+		VectorChebyshev.calculateChebyshevCoefficients(this, coeffs);
+	}
 }
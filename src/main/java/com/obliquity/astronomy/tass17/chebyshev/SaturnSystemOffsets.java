@@ -0,0 +1,602 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.util.Arrays;
+
+import com.obliquity.astronomy.almanac.ApparentPlace;
+import com.obliquity.astronomy.almanac.EarthCentre;
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.tass17.ReferenceSystemMatrices;
+import com.obliquity.astronomy.tass17.TASSConstants;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+
+/*
+ * The simplified sky-plane offsets of the eight satellites from Saturn, in arcseconds.
+ * The Saturnicentric J2000 position of each satellite at Saturn's retarded epoch is
+ * projected onto the tangent plane at Saturn's apparent place: X towards the east, Y
+ * towards the north, and Z away from the observer, all scaled by Saturn's geometric
+ * distance.
+ *
+ * Saturn's apparent place in each reference system is reduced to a frame of three unit
+ * vectors, referred to the J2000 axes, so that the positions need not be rotated into
+ * the frame of date.  For a batch of epochs, the frame, Saturn's distance and its light
+ * time are calculated rigorously only at the Chebyshev nodes of intervals of at most
+ * getInterpolationInterval() days, and interpolated between them.  Saturn's place
+ * changes so smoothly that over a day the interpolation error is far below a
+ * microarcsecond.  The epochs of a batch need not be in order: they are grouped by
+ * interval, so that each interval is fitted only once.
+ *
+ * Offsets of all the satellites are stored in flat arrays: for each reference system in
+ * turn, the X, Y and Z offsets of each satellite in turn.  No memory is allocated after
+ * construction, except to enlarge the work arrays for a larger batch than any before.
+ * Instances are not thread-safe.
+ *
+ * The partial derivatives of the offsets with respect to corrections to the elements of
+ * each satellite may be calculated with them, by central differences.  They are stored
+ * in the same order, with the partials of the X, Y and Z offsets with respect to each
+ * element in turn in place of each satellite's offsets.  The elements are in the order
+ * of the constants N_ELEMENT to P_ELEMENT, and lambda is in radians.
+ *
+ * The corrections are constant offsets to the elements at the partials epoch, so that a
+ * correction to the mean motion adjustment also carries the mean longitude along by
+ * MEAN_MOTIONS[iSat] * (t - epoch) per unit, where t is the retarded epoch.  They are
+ * the quantities which a fit to observations over a span of years should solve for.
+ */
+
+public class SaturnSystemOffsets {
+	public static final int N_SATELLITES = 8;
+	public static final double DEFAULT_INTERPOLATION_INTERVAL = 1.0;
+	
+	public static final int N_ELEMENT = 0, LAMBDA_ELEMENT = 1, K_ELEMENT = 2, H_ELEMENT = 3, Q_ELEMENT = 4,
+			P_ELEMENT = 5;
+	public static final int N_ELEMENTS = 6;
+	
+	private static final double ELEMENT_STEP = 1.0e-7;
+	
+	public static final double DEFAULT_PARTIALS_EPOCH = 2451545.0;
+	
+	private static final int N_NODES = 8;
+	private static final double ARCSECONDS_PER_RADIAN = 3600.0 * 180.0/Math.PI;
+	
+	private static final double[] NODES = new double[N_NODES];
+	private static final double[][] COSINES = new double[N_NODES][N_NODES];
+	
+	static {
+		for (int k = 0; k < N_NODES; k++) {
+			NODES[k] = Math.cos(Math.PI * (k + 0.5)/N_NODES);
+			
+			for (int j = 0; j < N_NODES; j++)
+				COSINES[j][k] = Math.cos(Math.PI * j * (k + 0.5)/N_NODES);
+		}
+	}
+	
+	private final ApparentPlace apSaturn;
+	private final ReferenceSystemMatrices matrices;
+	private final TASSTheory theory;
+	private final double cosObliquity, sinObliquity;
+	
+	private int[] referenceSystems = { SatelliteOffset.J2000 };
+	private double interpolationInterval = DEFAULT_INTERPOLATION_INTERVAL;
+	private double partialsEpoch = DEFAULT_PARTIALS_EPOCH;
+	
+	private final TASSElements[] elements = new TASSElements[N_SATELLITES];
+	private final double[] deltaLambda = new double[8];
+	private final double[] position = new double[3];
+	private final double[] plus = new double[3], minus = new double[3];
+	private final double[] derivatives = new double[3 * N_ELEMENTS];
+	private final TASSElements perturbed = new TASSElements();
+	private final double[] basis = new double[9];
+	
+	private double[] frame;
+	private double[] nodeFrames;
+	private double[] coefficients;
+	
+	private int[] segmentOf = new int[0], byInterval = new int[0], segmentStart = new int[0];
+	
+	public SaturnSystemOffsets(JPLEphemeris ephemeris, TASSTheory theory) {
+		this(createApparentPlace(ephemeris), new ReferenceSystemMatrices(new IAUEarthRotationModel()), theory);
+	}
+	
+	/*
+	 * The apparent place of Saturn and the reference system matrices may be shared with
+	 * the caller, which should not rely on their state after a call to this class.
+	 */
+	
+	public SaturnSystemOffsets(ApparentPlace apSaturn, ReferenceSystemMatrices matrices, TASSTheory theory) {
+		this.apSaturn = apSaturn;
+		this.matrices = matrices;
+		this.theory = theory;
+		
+		double obliquity = new IAUEarthRotationModel().meanObliquity(2451545.0);
+		
+		sinObliquity = Math.sin(obliquity);
+		cosObliquity = Math.cos(obliquity);
+		
+		for (int iSat = 0; iSat < N_SATELLITES; iSat++)
+			elements[iSat] = new TASSElements();
+		
+		allocateFrames();
+	}
+	
+	private static ApparentPlace createApparentPlace(JPLEphemeris ephemeris) {
+		MovingPoint sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
+		MovingPoint saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+		
+		return new ApparentPlace(new EarthCentre(ephemeris), saturn, sun, new IAUEarthRotationModel());
+	}
+	
+	/*
+	 * The frame holds nine basis vector components for each reference system, followed
+	 * by the scale in arcseconds per AU and Saturn's light time.
+	 */
+	
+	private void allocateFrames() {
+		int nQuantities = 9 * referenceSystems.length + 2;
+		
+		frame = new double[nQuantities];
+		nodeFrames = new double[N_NODES * nQuantities];
+		coefficients = new double[N_NODES * nQuantities];
+	}
+	
+	public void setReferenceSystem(int refsys) {
+		setReferenceSystems(refsys);
+	}
+	
+	public void setReferenceSystems(int... refsys) {
+		if (refsys.length == 0)
+			throw new IllegalArgumentException("At least one reference system is required");
+		
+		for (int r : refsys)
+			if (r < SatelliteOffset.J2000 || r > SatelliteOffset.OF_DATE)
+				throw new IllegalArgumentException("Reference systems should be J2000 or MEAN or OF_DATE");
+		
+		if (!java.util.Arrays.equals(refsys, referenceSystems)) {
+			this.referenceSystems = refsys.clone();
+			allocateFrames();
+		}
+	}
+	
+	public int[] getReferenceSystems() {
+		return referenceSystems.clone();
+	}
+	
+	/*
+	 * An interval of zero disables interpolation, so that Saturn's place is calculated
+	 * rigorously for every epoch of a batch.
+	 */
+	
+	public void setInterpolationInterval(double interpolationInterval) {
+		if (interpolationInterval < 0.0)
+			throw new IllegalArgumentException("Interpolation interval must not be negative");
+		
+		this.interpolationInterval = interpolationInterval;
+	}
+	
+	public double getInterpolationInterval() {
+		return interpolationInterval;
+	}
+	
+	/*
+	 * The epoch at which the element corrections of the partials apply.
+	 */
+	
+	public void setPartialsEpoch(double partialsEpoch) {
+		this.partialsEpoch = partialsEpoch;
+	}
+	
+	public double getPartialsEpoch() {
+		return partialsEpoch;
+	}
+	
+	/*
+	 * The number of offsets for one epoch.
+	 */
+	
+	public int getDimension() {
+		return 3 * N_SATELLITES * referenceSystems.length;
+	}
+	
+	/*
+	 * The number of partial derivatives for one epoch.
+	 */
+	
+	public int getPartialsDimension() {
+		return N_ELEMENTS * getDimension();
+	}
+	
+	/*
+	 * Calculate the offsets of all the satellites at one epoch.
+	 */
+	
+	public void calculateOffsets(double jd, double[] offsets) throws JPLEphemerisException {
+		calculateOffsets(jd, offsets, null);
+	}
+	
+	/*
+	 * Calculate the offsets of all the satellites at one epoch, and their partials if the
+	 * partials array is not null.
+	 */
+	
+	public void calculateOffsets(double jd, double[] offsets, double[] partials) throws JPLEphemerisException {
+		calculateFrame(jd, frame, 0, 1);
+		
+		project(jd, offsets, 0, partials, 0);
+	}
+	
+	/*
+	 * Calculate the offsets of one satellite at one epoch.  The X, Y and Z offsets in
+	 * each reference system are stored in turn.
+	 */
+	
+	public void calculateOffsets(double jd, int iSat, double[] offsets) throws JPLEphemerisException {
+		calculateFrame(jd, frame, 0, 1);
+		
+		int nRefsys = referenceSystems.length;
+		
+		theory.calculateElements(jd - frame[9 * nRefsys + 1], iSat, elements[iSat], deltaLambda);
+		
+		calculatePosition(iSat);
+		
+		for (int i = 0; i < nRefsys; i++)
+			projectPosition(frame, 9 * i, frame[9 * nRefsys], offsets, 3 * i);
+	}
+	
+	/*
+	 * Calculate the offsets of all the satellites at the epochs jd[from] to jd[to-1].  The
+	 * offsets for jd[i] are stored from offsets[i * getDimension()].
+	 */
+	
+	public void calculateOffsets(double[] jd, int from, int to, double[] offsets) throws JPLEphemerisException {
+		calculateOffsets(jd, from, to, offsets, null);
+	}
+	
+	/*
+	 * As above, and if the partials array is not null, store the partials for jd[i] from
+	 * partials[i * getPartialsDimension()].
+	 */
+	
+	public void calculateOffsets(double[] jd, int from, int to, double[] offsets, double[] partials)
+			throws JPLEphemerisException {
+		if (from < 0 || to > jd.length || from > to)
+			throw new IllegalArgumentException("Invalid range of epochs");
+		
+		int dimension = getDimension();
+		int partialsDimension = getPartialsDimension();
+		
+		if (offsets == null || offsets.length < dimension * to)
+			throw new IllegalArgumentException("offsets array is null or too small");
+		
+		if (partials != null && partials.length < partialsDimension * to)
+			throw new IllegalArgumentException("partials array is too small");
+		
+		double jdMin = Double.POSITIVE_INFINITY, jdMax = Double.NEGATIVE_INFINITY;
+		
+		for (int i = from; i < to; i++) {
+			jdMin = Math.min(jdMin, jd[i]);
+			jdMax = Math.max(jdMax, jd[i]);
+		}
+		
+		int nSegments = interpolationInterval > 0.0 ? Math.max(1, (int)Math.ceil((jdMax - jdMin)/interpolationInterval)) : 0;
+		
+		if (nSegments == 0 || jdMax == jdMin || nSegments * N_NODES >= to - from) {
+			for (int i = from; i < to; i++) {
+				calculateFrame(jd[i], frame, 0, 1);
+				
+				project(jd[i], offsets, dimension * i, partials, partialsDimension * i);
+			}
+			
+			return;
+		}
+		
+		double segmentLength = (jdMax - jdMin)/nSegments;
+		
+		groupBySegment(jd, from, to, jdMin, segmentLength, nSegments);
+		
+		int currentSegment = -1;
+		
+		for (int k = 0; k < to - from; k++) {
+			int i = byInterval[k];
+			int iSegment = segmentOf[i - from];
+			
+			double jdA = jdMin + iSegment * segmentLength;
+			
+			if (iSegment != currentSegment) {
+				fitSegment(jdA, jdA + segmentLength);
+				currentSegment = iSegment;
+			}
+			
+			double x = Math.max(-1.0, Math.min(1.0, 2.0 * (jd[i] - jdA)/segmentLength - 1.0));
+			
+			for (int j = 0; j < frame.length; j++)
+				frame[j] = Clenshaw.evaluate(coefficients, j * N_NODES, N_NODES, x);
+			
+			project(jd[i], offsets, dimension * i, partials, partialsDimension * i);
+		}
+	}
+	
+	/*
+	 * Sort the epochs into the order of their segments, keeping their order within each
+	 * segment, by counting the epochs in each segment.  byInterval then holds the indices
+	 * of the epochs in that order.
+	 */
+	
+	private void groupBySegment(double[] jd, int from, int to, double jdMin, double segmentLength, int nSegments) {
+		int n = to - from;
+		
+		if (segmentOf.length < n) {
+			segmentOf = new int[n];
+			byInterval = new int[n];
+		}
+		
+		if (segmentStart.length < nSegments + 1)
+			segmentStart = new int[nSegments + 1];
+		
+		Arrays.fill(segmentStart, 0, nSegments + 1, 0);
+		
+		for (int i = from; i < to; i++) {
+			int iSegment = Math.min(nSegments - 1, (int)((jd[i] - jdMin)/segmentLength));
+			
+			segmentOf[i - from] = iSegment;
+			segmentStart[iSegment + 1]++;
+		}
+		
+		for (int iSegment = 0; iSegment < nSegments; iSegment++)
+			segmentStart[iSegment + 1] += segmentStart[iSegment];
+		
+		for (int i = from; i < to; i++)
+			byInterval[segmentStart[segmentOf[i - from]]++] = i;
+	}
+	
+	/*
+	 * Calculate the frames at the Chebyshev nodes of a segment, and the coefficients of
+	 * the series which interpolates each quantity.
+	 */
+	
+	private void fitSegment(double jdA, double jdB) throws JPLEphemerisException {
+		int nQuantities = frame.length;
+		
+		for (int k = 0; k < N_NODES; k++)
+			calculateFrame(0.5 * (jdA + jdB) + 0.5 * (jdB - jdA) * NODES[k], nodeFrames, k, N_NODES);
+		
+		for (int q = 0; q < nQuantities; q++) {
+			for (int j = 0; j < N_NODES; j++) {
+				double sum = 0.0;
+				
+				for (int k = 0; k < N_NODES; k++)
+					sum += nodeFrames[q * N_NODES + k] * COSINES[j][k];
+				
+				coefficients[q * N_NODES + j] = (j == 0 ? 1.0 : 2.0) * sum/N_NODES;
+			}
+		}
+	}
+	
+	/*
+	 * Calculate the frame at an epoch, storing quantity q at index offset + q * stride.
+	 */
+	
+	private void calculateFrame(double jd, double[] target, int offset, int stride) throws JPLEphemerisException {
+		apSaturn.calculateApparentPlace(jd);
+		
+		int nRefsys = referenceSystems.length;
+		
+		for (int i = 0; i < nRefsys; i++) {
+			int refsys = referenceSystems[i];
+			
+			double ra = getRightAscension(apSaturn, refsys);
+			double dec = getDeclination(apSaturn, refsys);
+			
+			double ca = Math.cos(ra), sa = Math.sin(ra);
+			double cd = Math.cos(dec), sd = Math.sin(dec);
+			
+			basis[0] = -sa;
+			basis[1] = ca;
+			basis[2] = 0.0;
+			
+			basis[3] = -ca * sd;
+			basis[4] = -sa * sd;
+			basis[5] = cd;
+			
+			basis[6] = ca * cd;
+			basis[7] = sa * cd;
+			basis[8] = sd;
+			
+			if (refsys != SatelliteOffset.J2000) {
+				matrices.setEpoch(jd);
+				
+				double[][] m = matrices.getMatrix(refsys);
+				
+				for (int b = 0; b < 9; b += 3) {
+					double x = basis[b], y = basis[b + 1], z = basis[b + 2];
+					
+					for (int j = 0; j < 3; j++)
+						basis[b + j] = m[0][j] * x + m[1][j] * y + m[2][j] * z;
+				}
+			}
+			
+			for (int j = 0; j < 9; j++)
+				target[offset + (9 * i + j) * stride] = basis[j];
+		}
+		
+		target[offset + 9 * nRefsys * stride] = ARCSECONDS_PER_RADIAN/apSaturn.getGeometricDistance();
+		target[offset + (9 * nRefsys + 1) * stride] = apSaturn.getLightTime();
+	}
+	
+	private void project(double jd, double[] offsets, int base, double[] partials, int partialsBase) {
+		int nRefsys = referenceSystems.length;
+		
+		double t = jd - frame[9 * nRefsys + 1];
+		
+		theory.calculateElementsForAllSatellites(t, elements, deltaLambda);
+		
+		double scale = frame[9 * nRefsys];
+		
+		for (int iSat = 0; iSat < N_SATELLITES; iSat++) {
+			calculatePosition(iSat);
+			
+			for (int i = 0; i < nRefsys; i++)
+				projectPosition(frame, 9 * i, scale, offsets, base + 3 * (N_SATELLITES * i + iSat));
+			
+			if (partials != null)
+				calculatePartials(iSat, t - partialsEpoch, scale, partials, partialsBase);
+		}
+	}
+	
+	/*
+	 * The projection is linear, so the partials of the offsets are the projections of the
+	 * partials of the position.  The position is restored when they are done.  The mean
+	 * motion partial is the osculating one plus the drift in longitude since the partials
+	 * epoch, dt days before the retarded epoch.
+	 */
+	
+	private void calculatePartials(int iSat, double dt, double scale, double[] partials, int partialsBase) {
+		int nRefsys = referenceSystems.length;
+		
+		double x = position[0], y = position[1], z = position[2];
+		
+		for (int iElement = 0; iElement < N_ELEMENTS; iElement++) {
+			calculatePerturbedPosition(iSat, iElement, ELEMENT_STEP, plus);
+			calculatePerturbedPosition(iSat, iElement, -ELEMENT_STEP, minus);
+			
+			for (int j = 0; j < 3; j++)
+				derivatives[3 * iElement + j] = (plus[j] - minus[j])/(2.0 * ELEMENT_STEP);
+		}
+		
+		double drift = TASSConstants.MEAN_MOTIONS[iSat] * dt;
+		
+		for (int j = 0; j < 3; j++)
+			derivatives[3 * N_ELEMENT + j] += drift * derivatives[3 * LAMBDA_ELEMENT + j];
+		
+		for (int iElement = 0; iElement < N_ELEMENTS; iElement++) {
+			for (int j = 0; j < 3; j++)
+				position[j] = derivatives[3 * iElement + j];
+			
+			for (int i = 0; i < nRefsys; i++)
+				projectPosition(frame, 9 * i, scale, partials,
+						partialsBase + N_ELEMENTS * 3 * (N_SATELLITES * i + iSat) + 3 * iElement);
+		}
+		
+		position[0] = x;
+		position[1] = y;
+		position[2] = z;
+	}
+	
+	private void calculatePerturbedPosition(int iSat, int iElement, double delta, double[] result) {
+		TASSElements e = elements[iSat];
+		
+		perturbed.meanMotionAdjustment = e.meanMotionAdjustment;
+		perturbed.lambda = e.lambda;
+		perturbed.k = e.k;
+		perturbed.h = e.h;
+		perturbed.q = e.q;
+		perturbed.p = e.p;
+		
+		switch (iElement) {
+		case N_ELEMENT:
+			perturbed.meanMotionAdjustment += delta;
+			break;
+		
+		case LAMBDA_ELEMENT:
+			perturbed.lambda += delta;
+			break;
+		
+		case K_ELEMENT:
+			perturbed.k += delta;
+			break;
+		
+		case H_ELEMENT:
+			perturbed.h += delta;
+			break;
+		
+		case Q_ELEMENT:
+			perturbed.q += delta;
+			break;
+		
+		case P_ELEMENT:
+			perturbed.p += delta;
+			break;
+		}
+		
+		theory.calculatePosition(iSat, perturbed, result);
+		
+		double ry = result[1], rz = result[2];
+		
+		result[1] = ry * cosObliquity - rz * sinObliquity;
+		result[2] = ry * sinObliquity + rz * cosObliquity;
+	}
+	
+	/*
+	 * Calculate the position of a satellite from its elements and rotate it from the
+	 * ecliptic to the equator of J2000.
+	 */
+	
+	private void calculatePosition(int iSat) {
+		theory.calculatePosition(iSat, elements[iSat], position);
+		
+		double y = position[1], z = position[2];
+		
+		position[1] = y * cosObliquity - z * sinObliquity;
+		position[2] = y * sinObliquity + z * cosObliquity;
+	}
+	
+	private void projectPosition(double[] frame, int b, double scale, double[] offsets, int index) {
+		double x = position[0], y = position[1], z = position[2];
+		
+		offsets[index] = (frame[b] * x + frame[b + 1] * y + frame[b + 2] * z) * scale;
+		offsets[index + 1] = (frame[b + 3] * x + frame[b + 4] * y + frame[b + 5] * z) * scale;
+		offsets[index + 2] = (frame[b + 6] * x + frame[b + 7] * y + frame[b + 8] * z) * scale;
+	}
+	
+	private static double getRightAscension(ApparentPlace ap, int referenceSystem) {
+		switch (referenceSystem) {
+		case SatelliteOffset.J2000:
+			return ap.getRightAscensionJ2000();
+		
+		case SatelliteOffset.MEAN:
+			return ap.getMeanRightAscension();
+		
+		case SatelliteOffset.OF_DATE:
+			return ap.getRightAscensionOfDate();
+		
+		default:
+			throw new IllegalStateException("referenceSystem has an invalid value");
+		}
+	}
+	
+	private static double getDeclination(ApparentPlace ap, int referenceSystem) {
+		switch (referenceSystem) {
+		case SatelliteOffset.J2000:
+			return ap.getDeclinationJ2000();
+		
+		case SatelliteOffset.MEAN:
+			return ap.getMeanDeclination();
+		
+		case SatelliteOffset.OF_DATE:
+			return ap.getDeclinationOfDate();
+		
+		default:
+			throw new IllegalStateException("referenceSystem has an invalid value");
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.almanac.StateVector;
+import com.obliquity.astronomy.almanac.Vector;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+
+/*
+ * The common part of the MovingPoint implementations which take the Saturnicentric
+ * position of a satellite from some representation other than the TASS17 series.
+ * Subclasses supply the Saturnicentric J2000 position and velocity, and this class
+ * adds the barycentric position and velocity of Saturn.
+ */
+
+public abstract class SaturnicentricMovingPoint implements MovingPoint {
+	protected final TASSTheory theory;
+	protected final int satelliteID;
+	protected final double cosObliquity, sinObliquity;
+	
+	private final MovingPoint saturn;
+	
+	private final double[] position = new double[3];
+	private final double[] velocity = new double[3];
+	private final StateVector saturnState = new StateVector(new Vector(), new Vector());
+	
+	protected SaturnicentricMovingPoint(JPLEphemeris ephemeris, TASSTheory theory, int satelliteID) {
+		this.theory = theory;
+		this.satelliteID = satelliteID;
+		
+		double obliquity = new IAUEarthRotationModel().meanObliquity(2451545.0);
+		
+		sinObliquity = Math.sin(obliquity);
+		cosObliquity = Math.cos(obliquity);
+		
+		this.saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+	}
+	
+	/*
+	 * Calculate the Saturnicentric J2000 position and, if the array is not null, the
+	 * velocity in AU/day.
+	 */
+	
+	public abstract void getSaturnicentricPositionAndVelocity(double jd, double[] position, double[] velocity);
+	
+	protected void calculateFromTheory(double jd, double[] position, double[] velocity) {
+		TASSElements elements = theory.calculateElements(jd, satelliteID);
+		
+		theory.calculatePositionAndVelocity(satelliteID, elements, position, velocity);
+		
+		rotateToJ2000(position);
+		
+		if (velocity != null)
+			rotateToJ2000(velocity);
+	}
+	
+	protected void rotateToJ2000(double[] xyz) {
+		double y = xyz[1], z = xyz[2];
+		
+		xyz[1] = y * cosObliquity - z * sinObliquity;
+		xyz[2] = y * sinObliquity + z * cosObliquity;
+	}
+
+	public int getBodyCode() {
+		return satelliteID;
+	}
+
+	public JPLEphemeris getEphemeris() {
+		return saturn.getEphemeris();
+	}
+
+	public double getEpoch() {
+		return saturn.getEpoch();
+	}
+
+	public double getEarliestDate() {
+		return saturn.getEarliestDate();
+	}
+
+	public double getLatestDate() {
+		return saturn.getLatestDate();
+	}
+
+	public boolean isValidDate(double t) {
+		return saturn.isValidDate(t);
+	}
+
+	public Vector getPosition(double jd) throws JPLEphemerisException {
+		Vector pos = new Vector();
+		
+		getPosition(jd, pos);
+		
+		return pos;
+	}
+
+	public void getPosition(double jd, Vector pos) throws JPLEphemerisException {
+		saturn.getPosition(jd, pos);
+		
+		getSaturnicentricPositionAndVelocity(jd, position, null);
+		
+		pos.setComponents(pos.getX() + position[0], pos.getY() + position[1], pos.getZ() + position[2]);
+	}
+
+	public StateVector getStateVector(double jd) throws JPLEphemerisException {
+		StateVector sv = new StateVector(new Vector(), new Vector());
+		
+		getStateVector(jd, sv);
+		
+		return sv;
+	}
+
+	public void getStateVector(double jd, StateVector sv) throws JPLEphemerisException {
+		saturn.getStateVector(jd, saturnState);
+		
+		getSaturnicentricPositionAndVelocity(jd, position, velocity);
+		
+		Vector saturnPosition = saturnState.getPosition();
+		Vector saturnVelocity = saturnState.getVelocity();
+		
+		sv.getPosition().setComponents(saturnPosition.getX() + position[0],
+				saturnPosition.getY() + position[1],
+				saturnPosition.getZ() + position[2]);
+		
+		sv.getVelocity().setComponents(saturnVelocity.getX() + velocity[0],
+				saturnVelocity.getY() + velocity[1],
+				saturnVelocity.getZ() + velocity[2]);
+	}
+}
@@ -0,0 +1,546 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+
+/*
+ * A long GenerateJSONData run divided into shards, each a whole number of granules,
+ * which are generated independently and merged at the end.  The job is described by a
+ * manifest, a properties file which records the options of the run and the date range
+ * and file name of each shard.  Shard files are written beside the manifest.
+ *
+ *   -create <manifest>  writes a manifest from the usual GenerateJSONData options, with
+ *                       -shards <n> or -shard-length <days> to set the size of the shards
+ *   -run <manifest>     generates every shard which is not yet complete, or only those
+ *                       given by -select, e.g. "0-9,12", or by -worker <k>/<n>, which
+ *                       takes every n-th shard starting with the k-th
+ *   -status <manifest>  lists the shards and whether each is complete
+ *   -merge <manifest>   writes the shards, in order, to the archive named by -out, which
+ *                       is quantised if -resolution is given
+ *
+ * Each shard is written to a temporary file which is renamed once it is complete, so a
+ * shard file which exists is always whole, and a restarted run skips it.  Several
+ * processes, on one host or on several hosts sharing the directory, may run the same
+ * manifest provided that their selections do not overlap.
+ *
+ * Sharded jobs use a fixed granule length and number of coefficients; the adaptive
+ * mode of GenerateJSONData chooses a granule length for each run, which would not
+ * give contiguous shards.
+ */
+
+public class ShardedJob {
+	private final File manifestFile;
+	private final Properties manifest;
+	
+	public static void main(String[] args) {
+		String command = null, manifestFilename = null;
+		int satID = -1;
+		double jdStart = 0.0, jdFinish = 0.0, stepSize = 0.0, shardLength = 0.0, resolution = 0.0;
+		int nCoeffs = -1, nShards = 0, nThreads = Runtime.getRuntime().availableProcessors();
+		int method = SatelliteOffset.RIGOROUS;
+		boolean[] refsysRequested = new boolean[3];
+		boolean gzip = false;
+		String selection = null, outputFilename = null;
+		
+		for (int i = 0; i < args.length; i++) {
+			String keyword = args[i].toLowerCase();
+			
+			switch (keyword) {
+			case "-create":
+			case "-run":
+			case "-status":
+			case "-merge":
+				command = keyword;
+				manifestFilename = args[++i];
+				break;
+			
+			case "-name":
+			case "-moon":
+			case "-body":
+				satID = GenerateJSONData.nameToID(args[++i]);
+				break;
+			
+			case "-startdate":
+			case "-start":
+				jdStart = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-enddate":
+			case "-end":
+				jdFinish = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-step":
+			case "-stepsize":
+				stepSize = Double.parseDouble(args[++i]);
+				break;
+			
+			case "-ncoeffs":
+			case "-order":
+				nCoeffs = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-shards":
+				nShards = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-shard-length":
+				shardLength = Double.parseDouble(args[++i]);
+				break;
+			
+			case "-simplified":
+				method = SatelliteOffset.SIMPLIFIED;
+				break;
+			
+			case "-hybrid":
+				method = SatelliteOffset.HYBRID;
+				break;
+			
+			case "-j2000":
+				refsysRequested[SatelliteOffset.J2000] = true;
+				break;
+			
+			case "-mean":
+				refsysRequested[SatelliteOffset.MEAN] = true;
+				break;
+			
+			case "-of-date":
+				refsysRequested[SatelliteOffset.OF_DATE] = true;
+				break;
+			
+			case "-all-refsys":
+				Arrays.fill(refsysRequested, true);
+				break;
+			
+			case "-gzip":
+				gzip = true;
+				break;
+			
+			case "-select":
+				selection = args[++i];
+				break;
+			
+			case "-worker":
+				selection = "worker:" + args[++i];
+				break;
+			
+			case "-threads":
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-output":
+			case "-out":
+				outputFilename = args[++i];
+				break;
+			
+			case "-resolution":
+				resolution = Double.parseDouble(args[++i]);
+				break;
+			
+			default:
+				System.err.println("Unknown keyword: " + keyword);
+				System.exit(1);
+			}
+		}
+		
+		if (command == null) {
+			System.err.println("One of -create, -run, -status or -merge is required.");
+			System.exit(2);
+		}
+		
+		try {
+			File file = new File(manifestFilename);
+			
+			switch (command) {
+			case "-create":
+				if (satID < 0 || jdStart == 0.0 || jdFinish <= jdStart || stepSize <= 0.0 || nCoeffs < 1 ||
+						(nShards < 1 && shardLength <= 0.0)) {
+					System.err.println("Invalid or missing options.");
+					System.exit(2);
+				}
+				
+				int[] refsys = IntStream.range(0, 3).filter(r -> refsysRequested[r]).toArray();
+				
+				if (refsys.length == 0)
+					refsys = new int[] { SatelliteOffset.J2000 };
+				
+				create(file, satID, jdStart, jdFinish, stepSize, nCoeffs, method, refsys, nShards, shardLength, gzip);
+				break;
+			
+			case "-run":
+				if (nThreads < 1) {
+					System.err.println("Invalid or missing options.");
+					System.exit(2);
+				}
+				
+				new ShardedJob(file).run(selection, nThreads);
+				break;
+			
+			case "-status":
+				new ShardedJob(file).status();
+				break;
+			
+			case "-merge":
+				if (outputFilename == null) {
+					System.err.println("Invalid or missing options.");
+					System.exit(2);
+				}
+				
+				new ShardedJob(file).merge(new File(outputFilename), resolution);
+				break;
+			}
+		} catch (IOException | JPLEphemerisException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			System.exit(3);
+		}
+	}
+	
+	public ShardedJob(File manifestFile) throws IOException {
+		this.manifestFile = manifestFile;
+		this.manifest = new Properties();
+		
+		try (InputStream is = new FileInputStream(manifestFile)) {
+			manifest.load(is);
+		}
+	}
+	
+	/*
+	 * Write a manifest.  The shard length is rounded to a whole number of granules, and
+	 * the last shard ends at the first granule boundary on or after the finish date.
+	 */
+	
+	public static void create(File manifestFile, int satID, double jdStart, double jdFinish, double stepSize, int nCoeffs,
+			int method, int[] refsys, int nShards, double shardLength, boolean gzip) throws IOException {
+		int nGranules = (int)Math.ceil((jdFinish - jdStart)/stepSize - 1.0e-9);
+		
+		int granulesPerShard = nShards > 0 ? (nGranules + nShards - 1)/nShards :
+			Math.max(1, (int)Math.round(shardLength/stepSize));
+		
+		nShards = (nGranules + granulesPerShard - 1)/granulesPerShard;
+		
+		String satelliteName = satID == GenerateJSONData.ALL_SATELLITES ? "all" : GenerateJSONData.idToName[satID];
+		
+		String prefix = manifestFile.getName().replaceFirst("\\.[^.]*$", "");
+		
+		Properties manifest = new Properties();
+		
+		manifest.setProperty("moon", satelliteName);
+		manifest.setProperty("start", Double.toString(jdStart));
+		manifest.setProperty("finish", Double.toString(jdStart + nGranules * stepSize));
+		manifest.setProperty("step", Double.toString(stepSize));
+		manifest.setProperty("ncoeffs", Integer.toString(nCoeffs));
+		manifest.setProperty("method", GenerateJSONData.methodToName[method]);
+		manifest.setProperty("refsys", String.join(",",
+				Arrays.stream(refsys).mapToObj(r -> GenerateJSONData.refsysToName[r]).toArray(String[]::new)));
+		manifest.setProperty("shards", Integer.toString(nShards));
+		
+		for (int iShard = 0; iShard < nShards; iShard++) {
+			int firstGranule = iShard * granulesPerShard;
+			int lastGranule = Math.min(firstGranule + granulesPerShard, nGranules);
+			
+			manifest.setProperty("shard." + iShard + ".start", Double.toString(jdStart + firstGranule * stepSize));
+			manifest.setProperty("shard." + iShard + ".finish", Double.toString(jdStart + lastGranule * stepSize));
+			manifest.setProperty("shard." + iShard + ".file", String.format("%s-%05d.json%s", prefix, iShard, gzip ? ".gz" : ""));
+		}
+		
+		try (OutputStream os = new FileOutputStream(manifestFile)) {
+			manifest.store(os, "TASS17 Chebyshev sharded job");
+		}
+		
+		System.out.printf("Created %d shards of %d granules\n", nShards, granulesPerShard);
+	}
+	
+	public int getNumberOfShards() {
+		return Integer.parseInt(getProperty("shards"));
+	}
+	
+	public File getShardFile(int iShard) {
+		return new File(manifestFile.getAbsoluteFile().getParentFile(), getProperty("shard." + iShard + ".file"));
+	}
+	
+	public boolean isComplete(int iShard) {
+		return getShardFile(iShard).isFile();
+	}
+	
+	private String getProperty(String key) {
+		String value = manifest.getProperty(key);
+		
+		if (value == null)
+			throw new IllegalStateException("Manifest " + manifestFile + " has no property " + key);
+		
+		return value.trim();
+	}
+	
+	private double getDouble(String key) {
+		return Double.parseDouble(getProperty(key));
+	}
+	
+	private int getSatelliteID() {
+		int satID = GenerateJSONData.nameToID(getProperty("moon"));
+		
+		if (satID < 0)
+			throw new IllegalStateException("Manifest has an unknown satellite: " + getProperty("moon"));
+		
+		return satID;
+	}
+	
+	private int getMethod() {
+		int method = Arrays.asList(GenerateJSONData.methodToName).indexOf(getProperty("method"));
+		
+		if (method < 0)
+			throw new IllegalStateException("Manifest has an unknown method: " + getProperty("method"));
+		
+		return method;
+	}
+	
+	private int[] getReferenceSystems() {
+		int[] refsys = Arrays.stream(getProperty("refsys").split(",")).map(String::trim)
+				.mapToInt(name -> Arrays.asList(GenerateJSONData.refsysToName).indexOf(name)).toArray();
+		
+		for (int r : refsys)
+			if (r < 0)
+				throw new IllegalStateException("Manifest has an unknown reference system: " + getProperty("refsys"));
+		
+		return refsys;
+	}
+	
+	/*
+	 * The selection is null for every shard, "worker:k/n" for every n-th shard starting
+	 * with the k-th, or a list of shard numbers and ranges such as "0-9,12".
+	 */
+	
+	private boolean[] parseSelection(String selection) {
+		int nShards = getNumberOfShards();
+		
+		boolean[] selected = new boolean[nShards];
+		
+		if (selection == null) {
+			Arrays.fill(selected, true);
+		} else if (selection.startsWith("worker:")) {
+			String[] words = selection.substring(7).split("/");
+			
+			int k = Integer.parseInt(words[0]), n = Integer.parseInt(words[1]);
+			
+			if (n < 1 || k < 0 || k >= n)
+				throw new IllegalArgumentException("Worker should be k/n with 0 <= k < n");
+			
+			for (int iShard = k; iShard < nShards; iShard += n)
+				selected[iShard] = true;
+		} else {
+			for (String item : selection.split(",")) {
+				String[] words = item.trim().split("-");
+				
+				int first = Integer.parseInt(words[0]);
+				int last = words.length > 1 ? Integer.parseInt(words[1]) : first;
+				
+				if (first < 0 || last >= nShards || first > last)
+					throw new IllegalArgumentException("Shard selection is out of range: " + item);
+				
+				for (int iShard = first; iShard <= last; iShard++)
+					selected[iShard] = true;
+			}
+		}
+		
+		return selected;
+	}
+	
+	public void run(String selection, int nThreads)
+			throws IOException, JPLEphemerisException, InterruptedException, ExecutionException {
+		boolean[] selected = parseSelection(selection);
+		
+		int satID = getSatelliteID();
+		int method = getMethod();
+		int[] refsys = getReferenceSystems();
+		double stepSize = getDouble("step");
+		int nCoeffs = Integer.parseInt(getProperty("ncoeffs"));
+		
+		String suffix = "." + ProcessHandle.current().pid() + ".tmp";
+		
+		for (int iShard = 0; iShard < selected.length; iShard++) {
+			if (!selected[iShard])
+				continue;
+			
+			File shardFile = getShardFile(iShard);
+			
+			if (shardFile.isFile()) {
+				System.err.println("Shard " + iShard + " is already complete");
+				continue;
+			}
+			
+			double jdStart = getDouble("shard." + iShard + ".start");
+			double jdFinish = getDouble("shard." + iShard + ".finish");
+			
+			File temporaryFile = new File(shardFile.getPath() + suffix);
+			
+			long tick0 = System.currentTimeMillis();
+			
+			try {
+				GenerateJSONData.generateJSONData(satID, jdStart, jdFinish, stepSize, nCoeffs, method, refsys, 0.0,
+						nThreads, temporaryFile.getPath(), shardFile.getName().endsWith(".gz"));
+				
+				Files.move(temporaryFile.toPath(), shardFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temporaryFile.toPath());
+			}
+			
+			System.err.printf("Shard %d completed in %.1f s\n", iShard, 0.001 * (System.currentTimeMillis() - tick0));
+		}
+	}
+	
+	public void status() {
+		int nShards = getNumberOfShards(), nComplete = 0;
+		
+		for (int iShard = 0; iShard < nShards; iShard++) {
+			boolean complete = isComplete(iShard);
+			
+			if (complete)
+				nComplete++;
+			
+			System.out.printf("%5d  %13.5f  %13.5f  %-8s  %s\n", iShard, getDouble("shard." + iShard + ".start"),
+					getDouble("shard." + iShard + ".finish"), complete ? "complete" : "pending", getShardFile(iShard).getName());
+		}
+		
+		System.out.printf("%d of %d shards complete\n", nComplete, nShards);
+	}
+	
+	/*
+	 * Merge the shards into an archive, checking that every shard is complete, that each
+	 * holds the bodies and reference systems of the job, and that its granules start
+	 * where those of the previous shard end.
+	 */
+	
+	@SuppressWarnings("unchecked")
+	public void merge(File output, double resolution) throws IOException {
+		int nShards = getNumberOfShards();
+		
+		for (int iShard = 0; iShard < nShards; iShard++)
+			if (!isComplete(iShard))
+				throw new IOException("Shard " + iShard + " is not complete");
+		
+		int satID = getSatelliteID();
+		
+		int[] bodies = satID == GenerateJSONData.ALL_SATELLITES ?
+				IntStream.range(0, GenerateJSONData.ALL_SATELLITES).toArray() : new int[] { satID };
+		int[] refsys = getReferenceSystems();
+		
+		int nComponents = 3 * bodies.length * refsys.length;
+		
+		int[] orders = new int[nComponents];
+		
+		Arrays.fill(orders, Integer.parseInt(getProperty("ncoeffs")));
+		
+		double jdStart = getDouble("start"), stepSize = getDouble("step");
+		
+		/*
+		 * The archive is written to a temporary file beside the output, and moved into
+		 * place only when it is complete, so that a failed merge leaves no partial archive.
+		 */
+		
+		File temporaryFile = new File(output.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
+		
+		try {
+			GranuleArchiveWriter writer = resolution > 0.0 ?
+					new QuantisedArchiveWriter(temporaryFile, bodies, refsys, orders, jdStart, stepSize, resolution) :
+						new ChebyshevArchiveWriter(temporaryFile, bodies, refsys, orders, jdStart, stepSize);
+			
+			double[][] coeffs = new double[nComponents][];
+			double jdNext = jdStart, maxError = Double.NaN;
+			
+			try (writer) {
+				for (int iShard = 0; iShard < nShards; iShard++) {
+					File shardFile = getShardFile(iShard);
+					
+					Map<String, Object> document = ConvertJSONToArchive.readDocument(shardFile);
+					
+					Object names = document.containsKey("names") ? document.get("names") : document.get("name");
+					
+					if (!Arrays.equals(ConvertJSONToArchive.toCodes(names, GenerateJSONData.idToName, "satellite"), bodies) ||
+							!Arrays.equals(ConvertJSONToArchive.toCodes(document.get("refsys"), GenerateJSONData.refsysToName, "reference system"), refsys))
+						throw new IOException("Shard " + shardFile + " does not match the manifest");
+					
+					if (document.containsKey("maxerror")) {
+						double shardError = ConvertJSONToArchive.toDouble(document.get("maxerror"));
+						
+						maxError = Double.isNaN(maxError) ? shardError : Math.max(maxError, shardError);
+					}
+					
+					List<Object> data = (List<Object>)document.get("data");
+					
+					if (data == null || data.isEmpty())
+						throw new IOException("Shard " + shardFile + " has no data");
+					
+					for (Object granule : data) {
+						List<Object> rows = (List<Object>)granule;
+						
+						double jd0 = ConvertJSONToArchive.toDouble(rows.get(0));
+						double jd1 = ConvertJSONToArchive.toDouble(rows.get(1));
+						
+						if (Math.abs(jd0 - jdNext) > 1.0e-5)
+							throw new IOException("Shard " + shardFile + " has a granule starting at " + rows.get(0) +
+									" where one starting at " + jdNext + " was expected");
+						
+						if (rows.size() != nComponents + 2)
+							throw new IOException("Shard " + shardFile + " has a granule with the wrong number of components");
+						
+						for (int i = 0; i < nComponents; i++) {
+							List<Object> row = (List<Object>)rows.get(i + 2);
+							
+							coeffs[i] = new double[row.size()];
+							
+							for (int j = 0; j < coeffs[i].length; j++)
+								coeffs[i][j] = ConvertJSONToArchive.toDouble(row.get(j));
+						}
+						
+						writer.writeGranule(jd0, coeffs);
+						
+						jdNext = jd1;
+					}
+				}
+				
+				if (Math.abs(jdNext - getDouble("finish")) > 1.0e-5)
+					throw new IOException("The shards end at " + jdNext + " instead of " + getProperty("finish"));
+				
+				writer.setMaximumError(maxError);
+				writer.setMethod(getMethod());
+			}
+			
+			Files.move(temporaryFile.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile.toPath());
+		}
+		
+		System.out.printf("Merged %d shards into %s\n", nShards, output);
+	}
+}
@@ -0,0 +1,251 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A small parser for the JSON documents written by GenerateJSONData, so that they can
+ * be read without an external library.  Objects become maps, arrays become lists,
+ * strings become strings and numbers become doubles.
+ */
+
+public class SimpleJSONParser {
+	private final Reader reader;
+	private int lookahead = -2;
+	private long position = 0;
+	
+	private SimpleJSONParser(Reader reader) {
+		this.reader = reader;
+	}
+	
+	public static Object parse(Reader reader) throws IOException {
+		SimpleJSONParser parser = new SimpleJSONParser(reader);
+		
+		Object value = parser.parseValue();
+		
+		if (parser.skipWhitespace() != -1)
+			throw parser.error("Unexpected text after the end of the document");
+		
+		return value;
+	}
+	
+	private int peek() throws IOException {
+		if (lookahead == -2)
+			lookahead = reader.read();
+		
+		return lookahead;
+	}
+	
+	private int next() throws IOException {
+		int c = peek();
+		
+		lookahead = -2;
+		position++;
+		
+		return c;
+	}
+	
+	private int skipWhitespace() throws IOException {
+		while (Character.isWhitespace(peek()))
+			next();
+		
+		return peek();
+	}
+	
+	private IOException error(String message) {
+		return new IOException(message + " at character " + position);
+	}
+	
+	private void expect(int expected) throws IOException {
+		if (skipWhitespace() != expected)
+			throw error("Expected '" + (char)expected + "'");
+		
+		next();
+	}
+	
+	private Object parseValue() throws IOException {
+		int c = skipWhitespace();
+		
+		switch (c) {
+		case '{':
+			return parseObject();
+			
+		case '[':
+			return parseArray();
+			
+		case '"':
+			return parseString();
+			
+		case -1:
+			throw error("Unexpected end of document");
+			
+		default:
+			return parseLiteral();
+		}
+	}
+	
+	private Map<String, Object> parseObject() throws IOException {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		
+		expect('{');
+		
+		if (skipWhitespace() == '}') {
+			next();
+			return map;
+		}
+		
+		for (;;) {
+			if (skipWhitespace() != '"')
+				throw error("Expected a member name");
+			
+			String name = parseString();
+			
+			expect(':');
+			
+			map.put(name, parseValue());
+			
+			int c = skipWhitespace();
+			
+			next();
+			
+			if (c == '}')
+				return map;
+			
+			if (c != ',')
+				throw error("Expected ',' or '}'");
+		}
+	}
+	
+	private List<Object> parseArray() throws IOException {
+		List<Object> list = new ArrayList<Object>();
+		
+		expect('[');
+		
+		if (skipWhitespace() == ']') {
+			next();
+			return list;
+		}
+		
+		for (;;) {
+			list.add(parseValue());
+			
+			int c = skipWhitespace();
+			
+			next();
+			
+			if (c == ']')
+				return list;
+			
+			if (c != ',')
+				throw error("Expected ',' or ']'");
+		}
+	}
+	
+	private String parseString() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		
+		next();
+		
+		for (;;) {
+			int c = next();
+			
+			switch (c) {
+			case -1:
+				throw error("Unterminated string");
+				
+			case '"':
+				return sb.toString();
+				
+			case '\\':
+				int e = next();
+				
+				switch (e) {
+				case 'n':
+					sb.append('\n');
+					break;
+					
+				case 't':
+					sb.append('\t');
+					break;
+					
+				case 'r':
+					sb.append('\r');
+					break;
+					
+				case 'b':
+					sb.append('\b');
+					break;
+					
+				case 'f':
+					sb.append('\f');
+					break;
+					
+				case 'u':
+					char[] hex = new char[4];
+					
+					for (int i = 0; i < 4; i++)
+						hex[i] = (char)next();
+					
+					sb.append((char)Integer.parseInt(new String(hex), 16));
+					break;
+					
+				default:
+					sb.append((char)e);
+				}
+				break;
+				
+			default:
+				sb.append((char)c);
+			}
+		}
+	}
+	
+	private Object parseLiteral() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		
+		for (int c = peek(); c != -1 && c != ',' && c != ']' && c != '}' && !Character.isWhitespace(c); c = peek())
+			sb.append((char)next());
+		
+		String literal = sb.toString();
+		
+		switch (literal) {
+		case "true":
+			return Boolean.TRUE;
+			
+		case "false":
+			return Boolean.FALSE;
+			
+		case "null":
+			return null;
+			
+		default:
+			try {
+				return Double.valueOf(literal);
+			} catch (NumberFormatException e) {
+				throw error("Invalid literal \"" + literal + "\"");
+			}
+		}
+	}
+}
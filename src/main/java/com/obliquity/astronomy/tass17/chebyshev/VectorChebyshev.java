@@ -0,0 +1,70 @@
+package com.obliquity.astronomy.tass17.chebyshev;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+/*
+ * Fit Chebyshev series to every component of a VectorEvaluatable at once.  The nodes
+ * and the normalisation are the same as those used by Chebyshev.calculateChebyshevCoefficients
+ * in astrojava, so the coefficients are identical to fitting each component in turn,
+ * but the function is evaluated only once per node.
+ */
+
+public class VectorChebyshev {
+	private VectorChebyshev() {
+	}
+	
+	public static void calculateChebyshevCoefficients(VectorEvaluatable f, double[][] coeffs) {
+		int nComponents = f.getDimension();
+		
+		if (coeffs.length < nComponents)
+			throw new IllegalArgumentException("Coefficient array has fewer rows than the function has components");
+		
+		int N = coeffs[0].length;
+		
+		double[][] samples = new double[N][nComponents];
+		
+		for (int k = 0; k < N; k++)
+			f.evaluate(Math.cos(Math.PI * (k + 0.5)/N), samples[k]);
+		
+		for (int j = 0; j < N; j++) {
+			for (int iComponent = 0; iComponent < nComponents; iComponent++)
+				coeffs[iComponent][j] = 0.0;
+			
+			for (int k = 0; k < N; k++) {
+				double c = Math.cos(Math.PI * j * (k + 0.5)/N);
+				
+				for (int iComponent = 0; iComponent < nComponents; iComponent++)
+					coeffs[iComponent][j] += samples[k][iComponent] * c;
+			}
+			
+			double scale = (j == 0 ? 1.0 : 2.0)/N;
+			
+			for (int iComponent = 0; iComponent < nComponents; iComponent++)
+				coeffs[iComponent][j] *= scale;
+		}
+	}
+	
+	public static double[][] calculateChebyshevCoefficients(VectorEvaluatable f, int N) {
+		double[][] coeffs = new double[f.getDimension()][N];
+		
+		calculateChebyshevCoefficients(f, coeffs);
+		
+		return coeffs;
+	}
+}
@@ -31,16 +31,18 @@ import com.obliquity.astronomy.almanac.MovingPoint;
 import com.obliquity.astronomy.almanac.PlanetCentre;
 import com.obliquity.astronomy.almanac.SaturnRingAngles;
 import com.obliquity.astronomy.almanac.AlmanacData;
-import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.ReferenceSystemMatrices;
 import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.chebyshev.SaturnSystemOffsets;
 
 public class TASS17Model {
 	private ApparentPlace apSaturn, apSun;
 	private IAUEarthRotationModel erm = null;
 	private TASSTheory theory;
-	private final double cosObliquity, sinObliquity;
+	private SaturnSystemOffsets systemOffsets;
 	private double jd = Double.NaN;
 	private double[][] satelliteOffsets = new double[8][3];
+	private final double[] offsets = new double[24];
 	private boolean validData = false;
 	private AlmanacData saturnData = new AlmanacData();
 	private String dateAsText;
@@ -50,11 +52,6 @@ public class TASS17Model {
 		
 		this.erm = new IAUEarthRotationModel();
 		
-		double obliquity = erm.meanObliquity(2451545.0);
-		
-		sinObliquity = Math.sin(obliquity);
-		cosObliquity = Math.cos(obliquity);
-		
 		EarthCentre earth = new EarthCentre(ephemeris);
 		
 		MovingPoint sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
@@ -64,6 +61,8 @@ public class TASS17Model {
 		this.apSaturn = new ApparentPlace(earth, saturn, sun, erm);
 
 		this.apSun = new ApparentPlace(earth, sun, sun, erm);
+		
+		this.systemOffsets = new SaturnSystemOffsets(apSaturn, new ReferenceSystemMatrices(erm), theory);
 	}
 	
 	public void setTime(double jd) throws JPLEphemerisException {
@@ -115,46 +114,11 @@ public class TASS17Model {
 	private void calculateData() throws JPLEphemerisException {
 		saturnData = AlmanacData.calculateAlmanacData(apSaturn, apSun, jd, AlmanacData.J2000, saturnData);
 		
-		apSaturn.calculateApparentPlace(jd);
-
-		double raSaturn = apSaturn.getRightAscensionJ2000();
-		double ca = Math.cos(raSaturn);
-		double sa = Math.sin(raSaturn);
-		
-		double decSaturn = apSaturn.getDeclinationJ2000();
-		double cd = Math.cos(decSaturn);
-		double sd = Math.sin(decSaturn);
+		systemOffsets.calculateOffsets(jd, offsets);
 		
-    	TASSElements[] elements = new TASSElements[8];
-    	
-    	double[] position = new double[3];
-			
-		double q = (3600.0 * 180.0 / Math.PI)/apSaturn.getGeometricDistance();
-		
-		double lightTime = apSaturn.getLightTime();
+		for (int iSat = 0; iSat < 8; iSat++)
+			System.arraycopy(offsets, 3 * iSat, satelliteOffsets[iSat], 0, 3);
 		
-		double jdSatellites = jd - lightTime;
-
-   		theory.calculateElementsForAllSatellites(jdSatellites, elements);
-  		
-   		for (int iSat = 0; iSat < 8; iSat++) {
-   			theory.calculatePosition(iSat, elements[iSat], position);
-   			
-   			double xe = position[0], ye = position[1], ze = position[2];
-   			
-   			double xa = xe;
-   			double ya = ye * cosObliquity - ze * sinObliquity;
-   			double za = ye * sinObliquity + ze * cosObliquity;
-   			
-   			double ux = ca * cd, uy = sa * cd, uz = sd;
-   			double vx = -sa, vy = ca, vz = 0.0;
-   			double wx = -ca * sd, wy = -sa * sd, wz = cd;
-   			
-   			satelliteOffsets[iSat][0] = (vx * xa + vy * ya + vz * za) * q;
-   			satelliteOffsets[iSat][1] = (wx * xa + wy * ya + wz * za) * q;
-   			satelliteOffsets[iSat][2] = (ux * xa + uy * ya + uz * za) * q;
-   		}
-   		
    		AstronomicalDate ad = new AstronomicalDate(jd);
    		
    		ad.roundToNearestMinute();
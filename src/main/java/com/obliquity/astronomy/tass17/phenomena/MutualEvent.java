@@ -0,0 +1,101 @@
+package com.obliquity.astronomy.tass17.phenomena;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+/*
+ * A mutual occultation or eclipse of one satellite by another.  The active satellite
+ * is the one in front, as seen from the Earth or from the Sun, and the passive one is
+ * occulted or eclipsed.  The times are those of first contact, of minimum separation
+ * and of last contact, and the minimum separation is that of the centres, in km,
+ * perpendicular to the line of sight or to the line from the Sun.
+ */
+
+public class MutualEvent implements Comparable<MutualEvent> {
+	public static final int OCCULTATION = 0, ECLIPSE = 1;
+	
+	private final int type;
+	private final int active, passive;
+	private final double jdStart, jdMaximum, jdEnd;
+	private final double minimumSeparation, contactSeparation;
+	
+	public MutualEvent(int type, int active, int passive, double jdStart, double jdMaximum, double jdEnd,
+			double minimumSeparation, double contactSeparation) {
+		if (type != OCCULTATION && type != ECLIPSE)
+			throw new IllegalArgumentException("Type should be OCCULTATION or ECLIPSE");
+		
+		this.type = type;
+		this.active = active;
+		this.passive = passive;
+		this.jdStart = jdStart;
+		this.jdMaximum = jdMaximum;
+		this.jdEnd = jdEnd;
+		this.minimumSeparation = minimumSeparation;
+		this.contactSeparation = contactSeparation;
+	}
+	
+	public int getType() {
+		return type;
+	}
+	
+	public int getActiveSatellite() {
+		return active;
+	}
+	
+	public int getPassiveSatellite() {
+		return passive;
+	}
+	
+	public double getStartTime() {
+		return jdStart;
+	}
+	
+	public double getTimeOfMaximum() {
+		return jdMaximum;
+	}
+	
+	public double getEndTime() {
+		return jdEnd;
+	}
+	
+	public double getMinimumSeparation() {
+		return minimumSeparation;
+	}
+	
+	/*
+	 * The separation at first and last contact: the sum of the radii, and for an eclipse
+	 * the width of the penumbra at the passive satellite.
+	 */
+	
+	public double getContactSeparation() {
+		return contactSeparation;
+	}
+	
+	/*
+	 * The minimum separation as a fraction of the separation at contact, so that zero is
+	 * a central event and one a grazing one.
+	 */
+	
+	public double getImpactParameter() {
+		return minimumSeparation/contactSeparation;
+	}
+	
+	public int compareTo(MutualEvent that) {
+		return Double.compare(jdStart, that.jdStart);
+	}
+}
@@ -0,0 +1,546 @@
+package com.obliquity.astronomy.tass17.phenomena;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import com.obliquity.astronomy.almanac.ApparentPlace;
+import com.obliquity.astronomy.almanac.AstronomicalDate;
+import com.obliquity.astronomy.almanac.EarthCentre;
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.tass17.TASSConstants;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.chebyshev.GenerateJSONData;
+
+/*
+ * Search for mutual occultations and eclipses of the satellites.
+ *
+ * At each epoch, the theory is evaluated once for all eight satellites, at Saturn's
+ * retarded epoch, and the separations of all 28 pairs are calculated perpendicular to
+ * the line of sight to Saturn and to the line from the Sun.  The positions are
+ * corrected to first order for the light time across the system: along the line of
+ * sight for an occultation, and for an eclipse also from the satellite in front to the
+ * one behind it, as seen from the Sun.  For each pair and line, g is the separation less
+ * the separation at contact, which is the sum of the radii, and for an eclipse the width
+ * of the penumbra as well.
+ *
+ * The search steps through time with a step bounded by how fast any g can change, from
+ * the speeds of the two satellites at pericentre and the rate at which the lines turn,
+ * so pairs which are far from conjunction, and seasons in which the lines are far from
+ * the orbital planes, are passed over in long steps.  A change of sign of g is refined
+ * by bisection to give the contact times, and the minimum separation between them by a
+ * golden section search.  Events shorter than MINIMUM_STEP may be missed, and events in
+ * progress at the start of the search are not reported.  No account is taken of either
+ * satellite being hidden by Saturn or in its shadow.
+ *
+ * The date range is divided into chunks which are searched in parallel, each by a
+ * worker with its own ephemeris.  A chunk owns the events which start within it, and
+ * follows each of them to its end even if that lies beyond the chunk.
+ */
+
+public class MutualEventSearch {
+	public static final int N_SATELLITES = 8;
+	public static final int N_PAIRS = N_SATELLITES * (N_SATELLITES - 1)/2;
+	
+	public static final double[] RADII = { 198.2, 252.1, 531.1, 561.4, 763.8, 2574.7, 135.0, 734.5 };
+	
+	public static final double AU = 149597870.7;
+	public static final double SPEED_OF_LIGHT = 299792.458 * 86400.0;
+	public static final double SOLAR_RADIUS = 695700.0;
+	
+	public static final double DEFAULT_CHUNK_LENGTH = 20.0;
+	
+	private static final double MINIMUM_STEP = 0.0001;
+	private static final double TOLERANCE = 1.0e-6;
+	private static final double SAFETY_FACTOR = 1.25;
+	private static final double ECCENTRICITY_MARGIN = 0.05;
+	private static final double MAXIMUM_TURNING_RATE = 0.01;
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	private static final double GOLDEN_RATIO = 0.5 * (Math.sqrt(5.0) - 1.0);
+	
+	private static final int[] PAIR_FIRST = new int[N_PAIRS], PAIR_SECOND = new int[N_PAIRS];
+	
+	static {
+		int k = 0;
+		
+		for (int i = 0; i < N_SATELLITES; i++) {
+			for (int j = i + 1; j < N_SATELLITES; j++) {
+				PAIR_FIRST[k] = i;
+				PAIR_SECOND[k] = j;
+				k++;
+			}
+		}
+	}
+	
+	private static final String[] NAMES = {
+			"Mimas", "Enceladus", "Tethys", "Dione", "Rhea", "Titan", "Hyperion", "Iapetus"
+	};
+	
+	private static final String[] TYPE_NAMES = { "Occ", "Ecl" };
+	
+	private final TASSTheory theory;
+	private final File ephemerisFile;
+	private final int nThreads;
+	private double chunkLength = DEFAULT_CHUNK_LENGTH;
+	
+	public static void main(String[] args) {
+		double jdStart = 0.0, jdFinish = 0.0;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		boolean ut = false;
+		
+		for (int i = 0; i < args.length; i++) {
+			String keyword = args[i].toLowerCase();
+			
+			switch (keyword) {
+			case "-startdate":
+			case "-start":
+				jdStart = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-enddate":
+			case "-end":
+				jdFinish = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-threads":
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-ut":
+				ut = true;
+				break;
+			
+			default:
+				System.err.println("Unknown keyword: " + keyword);
+				System.exit(1);
+			}
+		}
+		
+		if (jdStart == 0.0 || jdFinish <= jdStart || nThreads < 1) {
+			System.err.println("Invalid or missing options.");
+			System.exit(2);
+		}
+		
+		String ephemerisHomeName = System.getProperty("ephemeris.home");
+		
+		if (ephemerisHomeName == null) {
+			System.err.println("Set property ephemeris.home and re-run");
+			System.exit(1);
+		}
+		
+		File de430 = new File(ephemerisHomeName, "de430/lnxp1550p2650.430");
+		
+		if (!de430.exists()) {
+			System.err.println("File does not exist: " + de430.getAbsolutePath());
+			System.exit(2);
+		}
+		
+		try {
+			MutualEventSearch search = new MutualEventSearch(new TASSTheory(), de430, nThreads);
+			
+			IAUEarthRotationModel erm = new IAUEarthRotationModel();
+			PrintStream ps = System.out;
+			final boolean showUT = ut;
+			
+			search.search(jdStart, jdFinish, e -> print(ps, e, showUT ? erm.deltaT(e.getTimeOfMaximum()) : 0.0));
+			
+			ps.flush();
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void print(PrintStream ps, MutualEvent e, double deltaT) {
+		double jd = e.getTimeOfMaximum() - deltaT;
+		
+		AstronomicalDate ad = new AstronomicalDate(jd);
+		
+		ps.printf("%4d-%02d-%02d %02d:%02d:%04.1f  %s  %-9s  %-9s  %13.6f  %13.6f  %13.6f  %7.2f  %7.1f  %5.3f\n",
+				ad.getYear(), ad.getMonth(), ad.getDay(), ad.getHour(), ad.getMinute(), ad.getSecond(),
+				TYPE_NAMES[e.getType()], NAMES[e.getActiveSatellite()], NAMES[e.getPassiveSatellite()],
+				e.getStartTime() - deltaT, jd, e.getEndTime() - deltaT, (e.getEndTime() - e.getStartTime()) * 1440.0,
+				e.getMinimumSeparation(), e.getImpactParameter());
+	}
+	
+	public MutualEventSearch(TASSTheory theory, File ephemerisFile, int nThreads) {
+		this.theory = theory;
+		this.ephemerisFile = ephemerisFile;
+		this.nThreads = nThreads;
+	}
+	
+	public void setChunkLength(double chunkLength) {
+		if (chunkLength <= 0.0)
+			throw new IllegalArgumentException("Chunk length must be positive");
+		
+		this.chunkLength = chunkLength;
+	}
+	
+	public double getChunkLength() {
+		return chunkLength;
+	}
+	
+	/*
+	 * Find the events which start between the two epochs, in TT, passing them to the sink
+	 * in order of their start times.
+	 */
+	
+	public void search(double jdStart, double jdFinish, Consumer<MutualEvent> sink)
+			throws InterruptedException, ExecutionException {
+		double jdEarliest = jdStart - 1.0;
+		double jdLatest = jdFinish + chunkLength + 1.0;
+		
+		ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> {
+			try {
+				return new Worker(theory, new JPLEphemeris(ephemerisFile, jdEarliest, jdLatest));
+			} catch (IOException | JPLEphemerisException e) {
+				throw new IllegalStateException("Failed to create a worker pipeline", e);
+			}
+		});
+		
+		int nChunks = (int)Math.ceil((jdFinish - jdStart)/chunkLength);
+		
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		
+		ArrayDeque<ForkJoinTask<List<MutualEvent>>> pending = new ArrayDeque<ForkJoinTask<List<MutualEvent>>>();
+		int window = CHUNKS_PER_THREAD * nThreads;
+		
+		try {
+			int iChunk = 0;
+			
+			while (iChunk < nChunks || !pending.isEmpty()) {
+				while (iChunk < nChunks && pending.size() < window) {
+					final double jdA = jdStart + iChunk * chunkLength;
+					final double jdB = Math.min(jdFinish, jdA + chunkLength);
+					
+					pending.add(pool.submit(() -> workers.get().search(jdA, jdB)));
+					
+					iChunk++;
+				}
+				
+				pending.remove().get().forEach(sink);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/*
+	 * The state of one worker thread.  Quantities for pair k are stored at index 2k for
+	 * the line of sight and 2k+1 for the line from the Sun.
+	 */
+	
+	private static class Worker {
+		private static final int N_LINES = 2 * N_PAIRS;
+		
+		private final TASSTheory theory;
+		private final ApparentPlace apSaturn, apSun;
+		private final double cosObliquity, sinObliquity;
+		
+		private final TASSElements[] elements = new TASSElements[N_SATELLITES];
+		private final double[] deltaLambda = new double[8];
+		private final double[] position = new double[3], velocity = new double[3];
+		private final double[][] positions = new double[N_SATELLITES][3], velocities = new double[N_SATELLITES][3];
+		private final double[] toEarth = new double[N_SATELLITES], fromSun = new double[N_SATELLITES];
+		private final double[] u = new double[3], s = new double[3], d = new double[3];
+		
+		private final double[] speedBounds = new double[N_SATELLITES];
+		private final double[] rateBounds = new double[N_PAIRS];
+		
+		private final double[] g = new double[N_LINES], g1 = new double[N_LINES], gMid = new double[N_LINES];
+		private final double[] separation = new double[N_LINES], contact = new double[N_LINES];
+		private final int[] active = new int[N_LINES], passive = new int[N_LINES];
+		
+		private final boolean[] owned = new boolean[N_LINES];
+		private final double[] startTimes = new double[N_LINES];
+		
+		Worker(TASSTheory theory, JPLEphemeris ephemeris) {
+			this.theory = theory;
+			
+			IAUEarthRotationModel erm = new IAUEarthRotationModel();
+			
+			double obliquity = erm.meanObliquity(2451545.0);
+			
+			sinObliquity = Math.sin(obliquity);
+			cosObliquity = Math.cos(obliquity);
+			
+			MovingPoint sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
+			MovingPoint saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+			
+			this.apSaturn = new ApparentPlace(new EarthCentre(ephemeris), saturn, sun, erm);
+			this.apSun = new ApparentPlace(saturn, sun, sun, erm);
+			
+			for (int iSat = 0; iSat < N_SATELLITES; iSat++)
+				elements[iSat] = new TASSElements();
+		}
+		
+		List<MutualEvent> search(double jdA, double jdB) throws JPLEphemerisException {
+			List<MutualEvent> events = new ArrayList<MutualEvent>();
+			
+			calculateRateBounds(jdA);
+			
+			double t = jdA;
+			
+			evaluate(t, g);
+			
+			for (int k = 0; k < N_LINES; k++)
+				owned[k] = false;
+			
+			boolean following = false;
+			
+			while (t < jdB || following) {
+				double step = Double.POSITIVE_INFINITY;
+				
+				for (int k = 0; k < N_LINES; k++)
+					if (t < jdB || owned[k])
+						step = Math.min(step, Math.abs(g[k])/rateBounds[k/2]);
+				
+				step = Math.max(MINIMUM_STEP, step);
+				
+				double t1 = t < jdB ? Math.min(jdB, t + step) : t + step;
+				
+				evaluate(t1, g1);
+				
+				following = false;
+				
+				for (int k = 0; k < N_LINES; k++) {
+					if (g[k] >= 0.0 && g1[k] < 0.0 && t < jdB) {
+						startTimes[k] = refine(k, t, t1, true);
+						owned[k] = true;
+					} else if (g[k] < 0.0 && g1[k] >= 0.0) {
+						if (owned[k])
+							events.add(createEvent(k, startTimes[k], refine(k, t, t1, false)));
+						
+						owned[k] = false;
+					}
+					
+					following |= owned[k];
+				}
+				
+				t = t1;
+				
+				System.arraycopy(g1, 0, g, 0, N_LINES);
+			}
+			
+			Collections.sort(events);
+			
+			return events;
+		}
+		
+		/*
+		 * Bounds on the rates at which the separation of each pair can change, in km/day,
+		 * from the speeds of the satellites at pericentre, allowing for the eccentricities
+		 * to grow, and the distances at apocentre times the rate at which the lines turn.
+		 */
+		
+		private void calculateRateBounds(double jd) {
+			theory.calculateElementsForAllSatellites(jd, elements, deltaLambda);
+			
+			for (int iSat = 0; iSat < N_SATELLITES; iSat++) {
+				TASSElements e = elements[iSat];
+				
+				double a = theory.calculateSemiMajorAxis(iSat, e);
+				double n = TASSConstants.MEAN_MOTIONS[iSat] * (1.0 + e.meanMotionAdjustment);
+				double ecc = Math.min(0.5, Math.sqrt(e.k * e.k + e.h * e.h) + ECCENTRICITY_MARGIN);
+				
+				speedBounds[iSat] = (n * a * Math.sqrt((1.0 + ecc)/(1.0 - ecc)) + a * (1.0 + ecc) * MAXIMUM_TURNING_RATE) * AU;
+			}
+			
+			for (int k = 0; k < N_PAIRS; k++)
+				rateBounds[k] = SAFETY_FACTOR * (speedBounds[PAIR_FIRST[k]] + speedBounds[PAIR_SECOND[k]]);
+		}
+		
+		private double refine(int k, double tA, double tB, boolean starts) throws JPLEphemerisException {
+			while (tB - tA > TOLERANCE) {
+				double t = 0.5 * (tA + tB);
+				
+				evaluate(t, gMid);
+				
+				if ((gMid[k] >= 0.0) == starts)
+					tA = t;
+				else
+					tB = t;
+			}
+			
+			return 0.5 * (tA + tB);
+		}
+		
+		/*
+		 * Find the minimum separation between the contacts by a golden section search, and
+		 * take the roles of the satellites from the geometry at that time.
+		 */
+		
+		private MutualEvent createEvent(int k, double tStart, double tEnd) throws JPLEphemerisException {
+			double tA = tStart, tB = tEnd;
+			
+			double tC = tB - GOLDEN_RATIO * (tB - tA);
+			double tD = tA + GOLDEN_RATIO * (tB - tA);
+			
+			evaluate(tC, gMid);
+			double sC = separation[k];
+			
+			evaluate(tD, gMid);
+			double sD = separation[k];
+			
+			while (tB - tA > TOLERANCE) {
+				if (sC < sD) {
+					tB = tD;
+					tD = tC;
+					sD = sC;
+					tC = tB - GOLDEN_RATIO * (tB - tA);
+					
+					evaluate(tC, gMid);
+					sC = separation[k];
+				} else {
+					tA = tC;
+					tC = tD;
+					sC = sD;
+					tD = tA + GOLDEN_RATIO * (tB - tA);
+					
+					evaluate(tD, gMid);
+					sD = separation[k];
+				}
+			}
+			
+			double tMaximum = 0.5 * (tA + tB);
+			
+			evaluate(tMaximum, gMid);
+			
+			int type = k % 2 == 0 ? MutualEvent.OCCULTATION : MutualEvent.ECLIPSE;
+			
+			return new MutualEvent(type, active[k], passive[k], tStart, tMaximum, tEnd, separation[k], contact[k]);
+		}
+		
+		/*
+		 * Calculate g for every pair and line, with the separations, the separations at
+		 * contact, and the roles of the satellites.
+		 */
+		
+		private void evaluate(double jd, double[] g) throws JPLEphemerisException {
+			apSaturn.calculateApparentPlace(jd);
+			
+			double jdSatellites = jd - apSaturn.getLightTime();
+			
+			setDirection(apSaturn.getRightAscensionJ2000(), apSaturn.getDeclinationJ2000(), u);
+			
+			apSun.calculateApparentPlace(jdSatellites);
+			
+			setDirection(apSun.getRightAscensionJ2000(), apSun.getDeclinationJ2000(), s);
+			
+			double penumbra = SOLAR_RADIUS/(apSun.getGeometricDistance() * AU);
+			
+			theory.calculateElementsForAllSatellites(jdSatellites, elements, deltaLambda);
+			
+			for (int iSat = 0; iSat < N_SATELLITES; iSat++) {
+				theory.calculatePositionAndVelocity(iSat, elements[iSat], position, velocity);
+				
+				double[] r = positions[iSat], v = velocities[iSat];
+				
+				toEquatorKm(position, r);
+				toEquatorKm(velocity, v);
+				
+				toEarth[iSat] = dot(r, u);
+				
+				for (int j = 0; j < 3; j++)
+					r[j] -= v[j] * toEarth[iSat]/SPEED_OF_LIGHT;
+				
+				fromSun[iSat] = -dot(r, s);
+			}
+			
+			for (int k = 0; k < N_PAIRS; k++) {
+				int i = PAIR_FIRST[k], j = PAIR_SECOND[k];
+				
+				int behind = toEarth[j] > toEarth[i] ? j : i, front = i + j - behind;
+				
+				for (int m = 0; m < 3; m++)
+					d[m] = positions[behind][m] - positions[front][m];
+				
+				setLine(2 * k, g, front, behind, perpendicular(d, u), RADII[i] + RADII[j]);
+				
+				behind = fromSun[j] > fromSun[i] ? j : i;
+				front = i + j - behind;
+				
+				double distance = fromSun[behind] - fromSun[front];
+				double delay = (toEarth[behind] - toEarth[front] + distance)/SPEED_OF_LIGHT;
+				
+				for (int m = 0; m < 3; m++)
+					d[m] = positions[behind][m] - positions[front][m] + velocities[front][m] * delay;
+				
+				setLine(2 * k + 1, g, front, behind, perpendicular(d, s), RADII[i] + RADII[j] + distance * penumbra);
+			}
+		}
+		
+		private void setLine(int k, double[] g, int front, int behind, double separation, double contact) {
+			this.separation[k] = separation;
+			this.contact[k] = contact;
+			active[k] = front;
+			passive[k] = behind;
+			g[k] = separation - contact;
+		}
+		
+		private void setDirection(double ra, double dec, double[] direction) {
+			double cd = Math.cos(dec);
+			
+			direction[0] = cd * Math.cos(ra);
+			direction[1] = cd * Math.sin(ra);
+			direction[2] = Math.sin(dec);
+		}
+		
+		/*
+		 * Rotate an ecliptic vector in AU to the equator of J2000, in km.
+		 */
+		
+		private void toEquatorKm(double[] v, double[] result) {
+			double y = v[1], z = v[2];
+			
+			result[0] = v[0] * AU;
+			result[1] = (y * cosObliquity - z * sinObliquity) * AU;
+			result[2] = (y * sinObliquity + z * cosObliquity) * AU;
+		}
+		
+		private static double dot(double[] a, double[] b) {
+			return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+		}
+		
+		/*
+		 * The length of the component of a vector perpendicular to a unit vector.
+		 */
+		
+		private static double perpendicular(double[] a, double[] unit) {
+			double along = dot(a, unit);
+			
+			return Math.sqrt(Math.max(0.0, dot(a, a) - along * along));
+		}
+	}
+}
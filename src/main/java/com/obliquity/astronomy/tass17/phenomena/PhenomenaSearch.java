@@ -0,0 +1,446 @@
+package com.obliquity.astronomy.tass17.phenomena;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import com.obliquity.astronomy.almanac.ApparentPlace;
+import com.obliquity.astronomy.almanac.AstronomicalDate;
+import com.obliquity.astronomy.almanac.EarthCentre;
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.almanac.MovingPoint;
+import com.obliquity.astronomy.almanac.PlanetCentre;
+import com.obliquity.astronomy.tass17.TASSConstants;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.chebyshev.GenerateJSONData;
+
+/*
+ * Search for the eclipses, occultations, transits and shadow transits of the satellites
+ * by Saturn's globe.
+ *
+ * The geometry is that of the simplified offsets: the satellite's Saturnicentric
+ * position at Saturn's retarded epoch is compared with the line of sight to Saturn's
+ * apparent place, and with the line from the apparent place of the Sun as seen from
+ * Saturn.  Both are referred to Saturn's equator, as defined by the TASS constants, and
+ * the polar axis is stretched so that the oblate globe becomes a sphere of Saturn's
+ * equatorial radius.  For each line, the function g is the distance of the satellite
+ * from the line in equatorial radii, less one: a contact is a root of g, and which side
+ * of Saturn the satellite is on tells an occultation from a transit, or an eclipse from
+ * a shadow transit.  Contacts are those of the centre of the satellite, and the shadow
+ * is the geometric shadow, a cylinder, without a penumbra.
+ *
+ * The search steps through time with a step bounded by how fast g can change: from
+ * the speed of the satellite at pericentre, and the rate at which the lines turn, the
+ * satellite cannot reach a line sooner than |g| divided by that bound, so long steps
+ * are taken far from conjunction, and no contact can be stepped over unless the whole
+ * phenomenon is shorter than MINIMUM_STEP.  A change of sign of g is refined by
+ * bisection.
+ *
+ * The date range is divided into chunks, and each satellite in each chunk is searched
+ * by a separate task in a fork-join pool.  Each worker thread has its own ephemeris and
+ * apparent place pipeline, sharing only the TASSTheory.  Chunks are passed on in order,
+ * with the contacts of all satellites sorted by time.
+ */
+
+public class PhenomenaSearch {
+	public static final int N_SATELLITES = 8;
+	
+	public static final double SATURN_EQUATORIAL_RADIUS = 60268.0, SATURN_POLAR_RADIUS = 54364.0;
+	public static final double AU = 149597870.7;
+	
+	public static final double DEFAULT_CHUNK_LENGTH = 100.0;
+	
+	private static final double MINIMUM_STEP = 0.001;
+	private static final double TOLERANCE = 1.0e-6;
+	private static final double SAFETY_FACTOR = 1.25;
+	private static final double ECCENTRICITY_MARGIN = 0.05;
+	private static final double MAXIMUM_TURNING_RATE = 0.01;
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	private static final int OBSERVER = 0, SUN = 1;
+	
+	private static final String[] NAMES = {
+			"Mimas", "Enceladus", "Tethys", "Dione", "Rhea", "Titan", "Hyperion", "Iapetus"
+	};
+	
+	private final TASSTheory theory;
+	private final File ephemerisFile;
+	private final int nThreads;
+	private double chunkLength = DEFAULT_CHUNK_LENGTH;
+	
+	public static void main(String[] args) {
+		int satID = GenerateJSONData.ALL_SATELLITES;
+		double jdStart = 0.0, jdFinish = 0.0;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		boolean ut = false;
+		
+		for (int i = 0; i < args.length; i++) {
+			String keyword = args[i].toLowerCase();
+			
+			switch (keyword) {
+			case "-name":
+			case "-moon":
+			case "-body":
+				satID = GenerateJSONData.nameToID(args[++i]);
+				break;
+			
+			case "-startdate":
+			case "-start":
+				jdStart = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-enddate":
+			case "-end":
+				jdFinish = GenerateJSONData.parseDate(args[++i]);
+				break;
+			
+			case "-threads":
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+			
+			case "-ut":
+				ut = true;
+				break;
+			
+			default:
+				System.err.println("Unknown keyword: " + keyword);
+				System.exit(1);
+			}
+		}
+		
+		if (satID < 0 || jdStart == 0.0 || jdFinish <= jdStart || nThreads < 1) {
+			System.err.println("Invalid or missing options.");
+			System.exit(2);
+		}
+		
+		String ephemerisHomeName = System.getProperty("ephemeris.home");
+		
+		if (ephemerisHomeName == null) {
+			System.err.println("Set property ephemeris.home and re-run");
+			System.exit(1);
+		}
+		
+		File de430 = new File(ephemerisHomeName, "de430/lnxp1550p2650.430");
+		
+		if (!de430.exists()) {
+			System.err.println("File does not exist: " + de430.getAbsolutePath());
+			System.exit(2);
+		}
+		
+		try {
+			PhenomenaSearch search = new PhenomenaSearch(new TASSTheory(), de430, nThreads);
+			
+			int[] satellites = satID == GenerateJSONData.ALL_SATELLITES ? new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }
+					: new int[] { satID };
+			
+			IAUEarthRotationModel erm = new IAUEarthRotationModel();
+			PrintStream ps = System.out;
+			final boolean showUT = ut;
+			
+			search.search(jdStart, jdFinish, satellites, p -> print(ps, p, showUT ? erm.deltaT(p.getJulianDate()) : 0.0));
+			
+			ps.flush();
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void print(PrintStream ps, Phenomenon p, double deltaT) {
+		double jd = p.getJulianDate() - deltaT;
+		
+		AstronomicalDate ad = new AstronomicalDate(jd);
+		
+		ps.printf("%4d-%02d-%02d %02d:%02d:%04.1f  %13.6f  %-9s  %s\n", ad.getYear(), ad.getMonth(), ad.getDay(),
+				ad.getHour(), ad.getMinute(), ad.getSecond(), jd, NAMES[p.getSatellite()], p.getCode());
+	}
+	
+	public PhenomenaSearch(TASSTheory theory, File ephemerisFile, int nThreads) {
+		this.theory = theory;
+		this.ephemerisFile = ephemerisFile;
+		this.nThreads = nThreads;
+	}
+	
+	public void setChunkLength(double chunkLength) {
+		if (chunkLength <= 0.0)
+			throw new IllegalArgumentException("Chunk length must be positive");
+		
+		this.chunkLength = chunkLength;
+	}
+	
+	public double getChunkLength() {
+		return chunkLength;
+	}
+	
+	/*
+	 * Find the contacts of the given satellites between the two epochs, in TT, passing
+	 * them to the sink in order of time.
+	 */
+	
+	public void search(double jdStart, double jdFinish, int[] satellites, Consumer<Phenomenon> sink)
+			throws InterruptedException, ExecutionException {
+		double jdEarliest = jdStart - 1.0;
+		double jdLatest = jdFinish + 1.0;
+		
+		ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> {
+			try {
+				return new Worker(theory, new JPLEphemeris(ephemerisFile, jdEarliest, jdLatest));
+			} catch (IOException | JPLEphemerisException e) {
+				throw new IllegalStateException("Failed to create a worker pipeline", e);
+			}
+		});
+		
+		int nChunks = (int)Math.ceil((jdFinish - jdStart)/chunkLength);
+		
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		
+		ArrayDeque<List<ForkJoinTask<List<Phenomenon>>>> pending = new ArrayDeque<List<ForkJoinTask<List<Phenomenon>>>>();
+		int window = CHUNKS_PER_THREAD * nThreads;
+		
+		try {
+			int iChunk = 0;
+			
+			while (iChunk < nChunks || !pending.isEmpty()) {
+				while (iChunk < nChunks && pending.size() < window) {
+					final double jdA = jdStart + iChunk * chunkLength;
+					final double jdB = Math.min(jdFinish, jdA + chunkLength);
+					
+					List<ForkJoinTask<List<Phenomenon>>> tasks = new ArrayList<ForkJoinTask<List<Phenomenon>>>();
+					
+					for (int iSat : satellites)
+						tasks.add(pool.submit(() -> workers.get().search(iSat, jdA, jdB)));
+					
+					pending.add(tasks);
+					
+					iChunk++;
+				}
+				
+				List<Phenomenon> phenomena = new ArrayList<Phenomenon>();
+				
+				for (ForkJoinTask<List<Phenomenon>> task : pending.remove())
+					phenomena.addAll(task.get());
+				
+				Collections.sort(phenomena);
+				
+				phenomena.forEach(sink);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/*
+	 * The state of one worker thread.  The working storage is reused from one call to the
+	 * next, so instances are not thread-safe.
+	 */
+	
+	private static class Worker {
+		private final TASSTheory theory;
+		private final ApparentPlace apSaturn, apSun;
+		private final double cosObliquity, sinObliquity;
+		
+		private final TASSElements elements = new TASSElements();
+		private final double[] deltaLambda = new double[8];
+		private final double[] position = new double[3];
+		private final double[] direction = new double[3];
+		
+		private final double[] g = new double[2], along = new double[2];
+		private final double[] g1 = new double[2], along1 = new double[2];
+		private final double[] gMid = new double[2], alongMid = new double[2];
+		
+		Worker(TASSTheory theory, JPLEphemeris ephemeris) {
+			this.theory = theory;
+			
+			IAUEarthRotationModel erm = new IAUEarthRotationModel();
+			
+			double obliquity = erm.meanObliquity(2451545.0);
+			
+			sinObliquity = Math.sin(obliquity);
+			cosObliquity = Math.cos(obliquity);
+			
+			MovingPoint sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
+			MovingPoint saturn = new PlanetCentre(ephemeris, JPLEphemeris.SATURN);
+			
+			this.apSaturn = new ApparentPlace(new EarthCentre(ephemeris), saturn, sun, erm);
+			this.apSun = new ApparentPlace(saturn, sun, sun, erm);
+		}
+		
+		List<Phenomenon> search(int iSat, double jdA, double jdB) throws JPLEphemerisException {
+			List<Phenomenon> phenomena = new ArrayList<Phenomenon>();
+			
+			double gDotMaximum = calculateRateBound(iSat, jdA);
+			
+			double t = jdA;
+			
+			evaluate(t, iSat, g, along);
+			
+			while (t < jdB) {
+				double step = Math.max(MINIMUM_STEP, Math.min(Math.abs(g[OBSERVER]), Math.abs(g[SUN]))/gDotMaximum);
+				
+				double t1 = Math.min(jdB, t + step);
+				
+				evaluate(t1, iSat, g1, along1);
+				
+				for (int line = OBSERVER; line <= SUN; line++)
+					if ((g[line] > 0.0) != (g1[line] > 0.0))
+						phenomena.add(refine(iSat, line, t, t1, g[line] > 0.0));
+				
+				t = t1;
+				
+				System.arraycopy(g1, 0, g, 0, 2);
+			}
+			
+			return phenomena;
+		}
+		
+		/*
+		 * An upper bound on the rate of change of g, in equatorial radii per day, from the
+		 * speed of the satellite at pericentre, allowing for the eccentricity to grow, and
+		 * the distance at apocentre times the rate at which the lines turn.  The polar
+		 * stretch can increase either by the ratio of the radii.
+		 */
+		
+		private double calculateRateBound(int iSat, double jd) {
+			theory.calculateElements(jd, iSat, elements, deltaLambda);
+			
+			double a = theory.calculateSemiMajorAxis(iSat, elements);
+			double n = TASSConstants.MEAN_MOTIONS[iSat] * (1.0 + elements.meanMotionAdjustment);
+			double e = Math.min(0.5, Math.sqrt(elements.k * elements.k + elements.h * elements.h) + ECCENTRICITY_MARGIN);
+			
+			double speed = n * a * Math.sqrt((1.0 + e)/(1.0 - e));
+			double distance = a * (1.0 + e);
+			
+			double stretch = SATURN_EQUATORIAL_RADIUS/SATURN_POLAR_RADIUS;
+			double radius = SATURN_EQUATORIAL_RADIUS/AU;
+			
+			return SAFETY_FACTOR * stretch * (speed + distance * MAXIMUM_TURNING_RATE)/radius;
+		}
+		
+		private Phenomenon refine(int iSat, int line, double tA, double tB, boolean begins) throws JPLEphemerisException {
+			while (tB - tA > TOLERANCE) {
+				double t = 0.5 * (tA + tB);
+				
+				evaluate(t, iSat, gMid, alongMid);
+				
+				if ((gMid[line] > 0.0) == begins)
+					tA = t;
+				else
+					tB = t;
+			}
+			
+			double t = 0.5 * (tA + tB);
+			
+			evaluate(t, iSat, gMid, alongMid);
+			
+			boolean beyond = alongMid[line] > 0.0;
+			
+			int type = line == OBSERVER ? (beyond ? Phenomenon.OCCULTATION : Phenomenon.TRANSIT)
+					: (beyond ? Phenomenon.ECLIPSE : Phenomenon.SHADOW_TRANSIT);
+			
+			return new Phenomenon(t, iSat, type, begins);
+		}
+		
+		/*
+		 * Calculate g and the distance along each line, from the observer or from the Sun,
+		 * of the satellite beyond Saturn.
+		 */
+		
+		private void evaluate(double jd, int iSat, double[] g, double[] along) throws JPLEphemerisException {
+			apSaturn.calculateApparentPlace(jd);
+			
+			double jdSatellite = jd - apSaturn.getLightTime();
+			
+			theory.calculateElements(jdSatellite, iSat, elements, deltaLambda);
+			theory.calculatePosition(iSat, elements, position);
+			
+			toSaturnEquator(position);
+			
+			setDirection(apSaturn.getRightAscensionJ2000(), apSaturn.getDeclinationJ2000(), 1.0);
+			
+			project(position, OBSERVER, g, along);
+			
+			apSun.calculateApparentPlace(jdSatellite);
+			
+			setDirection(apSun.getRightAscensionJ2000(), apSun.getDeclinationJ2000(), -1.0);
+			
+			project(position, SUN, g, along);
+		}
+		
+		/*
+		 * Set the direction of a line, given the right ascension and declination of the body
+		 * at its far end, or at its near end if the sign is negative.
+		 */
+		
+		private void setDirection(double ra, double dec, double sign) {
+			double cd = Math.cos(dec);
+			
+			double x = sign * cd * Math.cos(ra);
+			double y = sign * cd * Math.sin(ra);
+			double z = sign * Math.sin(dec);
+			
+			direction[0] = x;
+			direction[1] = y * cosObliquity + z * sinObliquity;
+			direction[2] = -y * sinObliquity + z * cosObliquity;
+			
+			toSaturnEquator(direction);
+		}
+		
+		/*
+		 * Rotate an ecliptic vector onto Saturn's equator, which is the inverse of the
+		 * rotation in TASSTheory.calculatePositionAndVelocity, and stretch it along the
+		 * polar axis.
+		 */
+		
+		private static void toSaturnEquator(double[] v) {
+			double x = v[0], y = v[1], z = v[2];
+			
+			double CO = TASSConstants.CO, SO = TASSConstants.SO;
+			double CI = TASSConstants.CI, SI = TASSConstants.SI;
+			
+			v[0] = CO * x + SO * y;
+			v[1] = -SO * CI * x + CO * CI * y + SI * z;
+			v[2] = (SO * SI * x - CO * SI * y + CI * z) * SATURN_EQUATORIAL_RADIUS/SATURN_POLAR_RADIUS;
+		}
+		
+		private void project(double[] r, int line, double[] g, double[] along) {
+			double d2 = direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2];
+			
+			double s = (r[0] * direction[0] + r[1] * direction[1] + r[2] * direction[2])/Math.sqrt(d2);
+			
+			double r2 = r[0] * r[0] + r[1] * r[1] + r[2] * r[2];
+			
+			double rho = Math.sqrt(Math.max(0.0, r2 - s * s));
+			
+			g[line] = rho * AU/SATURN_EQUATORIAL_RADIUS - 1.0;
+			along[line] = s;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.obliquity.astronomy.tass17.phenomena;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+/*
+ * One contact of a satellite phenomenon: the start or the end of an eclipse by Saturn's
+ * shadow, an occultation by the globe, a transit across it, or a shadow transit.  The
+ * codes are those of the almanacs: D and R for the disappearance and reappearance of
+ * the satellite in an eclipse or occultation, and I and E for the ingress and egress of
+ * the satellite or its shadow in a transit.
+ */
+
+public class Phenomenon implements Comparable<Phenomenon> {
+	public static final int ECLIPSE = 0, OCCULTATION = 1, TRANSIT = 2, SHADOW_TRANSIT = 3;
+	
+	private static final String[] TYPE_CODES = { "Ec", "Oc", "Tr", "Sh" };
+	
+	private final double jd;
+	private final int iSat;
+	private final int type;
+	private final boolean begins;
+	
+	public Phenomenon(double jd, int iSat, int type, boolean begins) {
+		if (type < ECLIPSE || type > SHADOW_TRANSIT)
+			throw new IllegalArgumentException("Type should be ECLIPSE or OCCULTATION or TRANSIT or SHADOW_TRANSIT");
+		
+		this.jd = jd;
+		this.iSat = iSat;
+		this.type = type;
+		this.begins = begins;
+	}
+	
+	public double getJulianDate() {
+		return jd;
+	}
+	
+	public int getSatellite() {
+		return iSat;
+	}
+	
+	public int getType() {
+		return type;
+	}
+	
+	public boolean begins() {
+		return begins;
+	}
+	
+	public String getCode() {
+		boolean hidden = type == ECLIPSE || type == OCCULTATION;
+		
+		return TYPE_CODES[type] + " " + (hidden ? (begins ? "D" : "R") : (begins ? "I" : "E"));
+	}
+	
+	public int compareTo(Phenomenon that) {
+		int c = Double.compare(jd, that.jd);
+		
+		return c != 0 ? c : Integer.compare(iSat, that.iSat);
+	}
+}
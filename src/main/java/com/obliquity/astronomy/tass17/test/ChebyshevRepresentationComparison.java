@@ -0,0 +1,211 @@
+package com.obliquity.astronomy.tass17.test;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.IOException;
+
+import com.obliquity.astronomy.almanac.IAUEarthRotationModel;
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.tass17.TASSElements;
+import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.chebyshev.ChebyshevMovingPoint;
+import com.obliquity.astronomy.tass17.chebyshev.ElementChebyshevMovingPoint;
+import com.obliquity.astronomy.tass17.chebyshev.SaturnicentricMovingPoint;
+
+/*
+ * Compare the Cartesian and element-space Chebyshev representations of each satellite.
+ * For each granule length, find the smallest number of coefficients which reproduces
+ * the TASS17 Saturnicentric position to within the given tolerance, and report the
+ * number of coefficients needed per year and the time taken to evaluate the position.
+ */
+
+public class ChebyshevRepresentationComparison {
+	private static final double AU = 149597870.7;
+	
+	private static final double[] GRANULE_LENGTHS = { 0.5, 1.0, 2.0, 4.0, 8.0, 16.0, 32.0, 64.0 };
+	
+	private static final int MAX_COEFFICIENTS = 40;
+	
+	private static final int SAMPLES_PER_GRANULE = 25;
+	
+	private final String[] names = { "Mimas", "Enceladus", "Tethys", "Dione", "Rhea", "Titan", "Hyperion", "Iapetus" };
+	
+	private final JPLEphemeris ephemeris;
+	private final TASSTheory theory;
+	private final double cosObliquity, sinObliquity;
+	
+	public static void main(String[] args) {
+		String ephemerisHomeName = System.getProperty("ephemeris.home");
+		
+		double jdStart = 2460000.5;
+		double tolerance = 1.0;
+		
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i].toLowerCase()) {
+			case "-start":
+				jdStart = Double.parseDouble(args[++i]);
+				break;
+				
+			case "-tolerance":
+				tolerance = Double.parseDouble(args[++i]);
+				break;
+				
+			default:
+				System.err.println("Option not recognised: " + args[i]);
+				System.exit(1);
+			}
+		}
+		
+		if (ephemerisHomeName == null) {
+			System.err.println("Set property ephemeris.home and re-run");
+			System.exit(1);
+		}
+		
+		File de430 = new File(ephemerisHomeName, "de430/lnxp1550p2650.430");
+		
+		if (!de430.exists()) {
+			System.err.println("File does not exist: " + de430.getAbsolutePath());
+			System.exit(2);
+		}
+		
+		try {
+			ChebyshevRepresentationComparison comparison = new ChebyshevRepresentationComparison(new JPLEphemeris(de430), new TASSTheory());
+			
+			comparison.run(jdStart, tolerance/AU);
+		} catch (IOException | JPLEphemerisException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public ChebyshevRepresentationComparison(JPLEphemeris ephemeris, TASSTheory theory) {
+		this.ephemeris = ephemeris;
+		this.theory = theory;
+		
+		double obliquity = new IAUEarthRotationModel().meanObliquity(2451545.0);
+		
+		sinObliquity = Math.sin(obliquity);
+		cosObliquity = Math.cos(obliquity);
+	}
+	
+	/*
+	 * The tolerance is in AU.  Each trial fit covers two of the longest granules, so that
+	 * granule boundaries are included in the test for every granule length.
+	 */
+	
+	public void run(double jdStart, double tolerance) {
+		double jdFinish = jdStart + 2.0 * GRANULE_LENGTHS[GRANULE_LENGTHS.length - 1];
+		
+		System.out.printf("Tolerance %.3f km over JD %.1f to %.1f\n\n", tolerance * AU, jdStart, jdFinish);
+		
+		System.out.println("Satellite      Method     Granule  Coeffs  Coeffs/year  Max error (km)  Time (ns)");
+		
+		for (int iSat = 0; iSat < 8; iSat++) {
+			for (int iMethod = 0; iMethod < 2; iMethod++) {
+				SaturnicentricMovingPoint best = null;
+				double bestCost = Double.POSITIVE_INFINITY, bestLength = 0.0, bestError = 0.0;
+				int bestCoeffs = 0;
+				
+				for (double granuleLength : GRANULE_LENGTHS) {
+					for (int nCoeffs = 4; nCoeffs <= MAX_COEFFICIENTS; nCoeffs++) {
+						SaturnicentricMovingPoint mp = iMethod == 0 ?
+								new ChebyshevMovingPoint(ephemeris, theory, iSat, jdStart, jdFinish, granuleLength, nCoeffs) :
+								new ElementChebyshevMovingPoint(ephemeris, theory, iSat, jdStart, jdFinish, granuleLength, nCoeffs);
+						
+						double error = maximumError(mp, iSat, jdStart, jdFinish, granuleLength);
+						
+						if (error <= tolerance) {
+							int nComponents = iMethod == 0 ? 3 : ElementChebyshevMovingPoint.N_ELEMENTS;
+							
+							double cost = nComponents * nCoeffs * 365.25/granuleLength;
+							
+							if (cost < bestCost) {
+								best = mp;
+								bestCost = cost;
+								bestLength = granuleLength;
+								bestCoeffs = nCoeffs;
+								bestError = error;
+							}
+							
+							break;
+						}
+					}
+				}
+				
+				String method = iMethod == 0 ? "Cartesian" : "Elements";
+				
+				if (best == null)
+					System.out.printf("%-14s %-10s  no fit within %d coefficients\n", names[iSat], method, MAX_COEFFICIENTS);
+				else
+					System.out.printf("%-14s %-10s %7.1f  %6d  %11.0f  %14.6f  %9.0f\n", names[iSat], method, bestLength, bestCoeffs, bestCost,
+							bestError * AU, timePerEvaluation(best, jdStart, jdFinish));
+			}
+		}
+	}
+	
+	private double maximumError(SaturnicentricMovingPoint mp, int iSat, double jdStart, double jdFinish, double granuleLength) {
+		double[] position = new double[3];
+		double[] reference = new double[3];
+		
+		TASSElements elements = new TASSElements();
+		
+		int nSamples = (int)Math.round(SAMPLES_PER_GRANULE * (jdFinish - jdStart)/granuleLength);
+		
+		double maxError = 0.0;
+		
+		for (int i = 0; i <= nSamples; i++) {
+			double jd = jdStart + (jdFinish - jdStart) * (double)i/(double)nSamples;
+			
+			mp.getSaturnicentricPositionAndVelocity(jd, position, null);
+			
+			theory.calculateElements(jd, iSat, elements);
+			theory.calculatePosition(iSat, elements, reference);
+			
+			double y = reference[1], z = reference[2];
+			
+			reference[1] = y * cosObliquity - z * sinObliquity;
+			reference[2] = y * sinObliquity + z * cosObliquity;
+			
+			double dx = position[0] - reference[0], dy = position[1] - reference[1], dz = position[2] - reference[2];
+			
+			maxError = Math.max(maxError, Math.sqrt(dx * dx + dy * dy + dz * dz));
+		}
+		
+		return maxError;
+	}
+	
+	private double timePerEvaluation(SaturnicentricMovingPoint mp, double jdStart, double jdFinish) {
+		double[] position = new double[3];
+		double[] velocity = new double[3];
+		
+		int nSteps = 200000;
+		double step = (jdFinish - jdStart)/nSteps;
+		
+		for (int i = 0; i < nSteps; i++)
+			mp.getSaturnicentricPositionAndVelocity(jdStart + i * step, position, velocity);
+		
+		long tick0 = System.nanoTime();
+		
+		for (int i = 0; i < nSteps; i++)
+			mp.getSaturnicentricPositionAndVelocity(jdStart + i * step, position, velocity);
+		
+		return (double)(System.nanoTime() - tick0)/nSteps;
+	}
+}
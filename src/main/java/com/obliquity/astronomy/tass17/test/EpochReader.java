@@ -0,0 +1,146 @@
+package com.obliquity.astronomy.tass17.test;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Read a stream of epochs in batches, for the streaming modes of the test programs.
+ * The epochs are either Julian Dates as text, separated by any white space, or raw
+ * little-endian 8-byte doubles.  The input is read in large blocks rather than by
+ * line, and text is split into numbers without regular expressions.
+ */
+
+public class EpochReader {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final ReadableByteChannel channel;
+	private final boolean binary;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final byte[] token = new byte[64];
+	private int tokenLength = 0;
+	private boolean endOfInput = false;
+	
+	public EpochReader(InputStream is, boolean binary) {
+		this.channel = Channels.newChannel(is);
+		this.binary = binary;
+		
+		buffer.flip();
+	}
+	
+	/*
+	 * Read up to jd.length epochs, and return the number read, which is zero only at the
+	 * end of the input.  Once at least one epoch has been read, the call returns rather
+	 * than wait for more input, so the reader may be fed interactively through a pipe.
+	 */
+	
+	public int read(double[] jd) throws IOException {
+		while (true) {
+			int n = 0;
+			
+			if (binary) {
+				while (n < jd.length && buffer.remaining() >= 8)
+					jd[n++] = buffer.getDouble();
+			} else
+				n = parse(jd);
+			
+			if (n > 0)
+				return n;
+			
+			if (!fill()) {
+				if (binary && buffer.hasRemaining())
+					throw new IOException("The input ends part of the way through a double");
+				
+				if (tokenLength == 0)
+					return 0;
+				
+				jd[0] = parseToken();
+				tokenLength = 0;
+				
+				return 1;
+			}
+		}
+	}
+	
+	/*
+	 * Parse the numbers in the buffer.  A number which runs to the end of the buffer is
+	 * kept in the token array until the next read completes it.
+	 */
+	
+	private int parse(double[] jd) throws IOException {
+		int n = 0;
+		
+		while (n < jd.length && buffer.hasRemaining()) {
+			byte b = buffer.get();
+			
+			if (b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == ',') {
+				if (tokenLength > 0) {
+					jd[n++] = parseToken();
+					tokenLength = 0;
+				}
+			} else {
+				if (tokenLength == token.length)
+					throw new IOException("Invalid epoch in input: " + new String(token, 0, 16, StandardCharsets.US_ASCII) + "...");
+				
+				token[tokenLength++] = b;
+			}
+		}
+		
+		return n;
+	}
+	
+	private double parseToken() throws IOException {
+		String text = new String(token, 0, tokenLength, StandardCharsets.US_ASCII);
+		
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid epoch in input: " + text);
+		}
+	}
+	
+	/*
+	 * Refill the buffer, keeping any part of a double which has not been read.  Return
+	 * false at the end of the input.
+	 */
+	
+	private boolean fill() throws IOException {
+		if (endOfInput)
+			return false;
+		
+		buffer.compact();
+		
+		int count = channel.read(buffer);
+		
+		buffer.flip();
+		
+		if (count < 0) {
+			endOfInput = true;
+			return false;
+		}
+		
+		return true;
+	}
+}
@@ -0,0 +1,143 @@
+package com.obliquity.astronomy.tass17.test;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.IOException;
+
+import com.obliquity.astronomy.almanac.JPLEphemeris;
+import com.obliquity.astronomy.almanac.JPLEphemerisException;
+import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.chebyshev.SatelliteOffset;
+
+/*
+ * Compare the simplified and hybrid offsets of each satellite with the rigorous offsets,
+ * in all three reference systems, over a range of dates.  The worst-case differences are
+ * reported for each component, together with the time taken per evaluation.
+ */
+
+public class OffsetMethodComparison {
+	private static final int[] METHODS = { SatelliteOffset.RIGOROUS, SatelliteOffset.SIMPLIFIED, SatelliteOffset.HYBRID };
+	private static final String[] METHOD_NAMES = { "Rigorous", "Simplified", "Hybrid" };
+	
+	private final String[] names = { "Mimas", "Enceladus", "Tethys", "Dione", "Rhea", "Titan", "Hyperion", "Iapetus" };
+	
+	private final JPLEphemeris ephemeris;
+	private final TASSTheory theory;
+	
+	public static void main(String[] args) {
+		String ephemerisHomeName = System.getProperty("ephemeris.home");
+		
+		double jdStart = 2460000.5;
+		double days = 365.25;
+		double stepSize = 0.05;
+		
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i].toLowerCase()) {
+			case "-start":
+				jdStart = Double.parseDouble(args[++i]);
+				break;
+				
+			case "-days":
+				days = Double.parseDouble(args[++i]);
+				break;
+				
+			case "-step":
+				stepSize = Double.parseDouble(args[++i]);
+				break;
+				
+			default:
+				System.err.println("Option not recognised: " + args[i]);
+				System.exit(1);
+			}
+		}
+		
+		if (ephemerisHomeName == null) {
+			System.err.println("Set property ephemeris.home and re-run");
+			System.exit(1);
+		}
+		
+		File de430 = new File(ephemerisHomeName, "de430/lnxp1550p2650.430");
+		
+		if (!de430.exists()) {
+			System.err.println("File does not exist: " + de430.getAbsolutePath());
+			System.exit(2);
+		}
+		
+		try {
+			OffsetMethodComparison comparison = new OffsetMethodComparison(new JPLEphemeris(de430), new TASSTheory());
+			
+			comparison.run(jdStart, days, stepSize);
+		} catch (IOException | JPLEphemerisException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public OffsetMethodComparison(JPLEphemeris ephemeris, TASSTheory theory) {
+		this.ephemeris = ephemeris;
+		this.theory = theory;
+	}
+	
+	public void run(double jdStart, double days, double stepSize) throws IOException, JPLEphemerisException {
+		int nSteps = (int)Math.round(days/stepSize);
+		
+		System.out.printf("Maximum differences from the rigorous offsets, in arc-seconds, over JD %.1f to %.1f\n\n",
+				jdStart, jdStart + nSteps * stepSize);
+		
+		System.out.println("Satellite   Method            X          Y          Z   Time (us)");
+		
+		double[][] values = new double[METHODS.length][9];
+		long[] ticks = new long[METHODS.length];
+		
+		for (int iSat = 0; iSat < 8; iSat++) {
+			SatelliteOffset[] offsets = new SatelliteOffset[METHODS.length];
+			
+			for (int iMethod = 0; iMethod < METHODS.length; iMethod++) {
+				offsets[iMethod] = new SatelliteOffset(ephemeris, theory, iSat);
+				offsets[iMethod].setMethod(METHODS[iMethod]);
+				offsets[iMethod].setReferenceSystems(SatelliteOffset.J2000, SatelliteOffset.MEAN, SatelliteOffset.OF_DATE);
+				
+				ticks[iMethod] = 0;
+			}
+			
+			double[][] maxDifference = new double[METHODS.length][3];
+			
+			for (int iStep = 0; iStep <= nSteps; iStep++) {
+				double jd = jdStart + iStep * stepSize;
+				
+				for (int iMethod = 0; iMethod < METHODS.length; iMethod++) {
+					long tick0 = System.nanoTime();
+					
+					offsets[iMethod].calculateOffsets(jd, values[iMethod]);
+					
+					ticks[iMethod] += System.nanoTime() - tick0;
+				}
+				
+				for (int iMethod = 1; iMethod < METHODS.length; iMethod++)
+					for (int j = 0; j < 9; j++)
+						maxDifference[iMethod][j % 3] = Math.max(maxDifference[iMethod][j % 3], Math.abs(values[iMethod][j] - values[0][j]));
+			}
+			
+			for (int iMethod = 0; iMethod < METHODS.length; iMethod++)
+				System.out.printf("%-11s %-10s %10.5f %10.5f %10.5f %11.1f\n", names[iSat], METHOD_NAMES[iMethod],
+						maxDifference[iMethod][0], maxDifference[iMethod][1], maxDifference[iMethod][2],
+						1.0e-3 * (double)ticks[iMethod]/(nSteps + 1));
+		}
+	}
+}
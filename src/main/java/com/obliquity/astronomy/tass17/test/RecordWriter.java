@@ -0,0 +1,109 @@
+package com.obliquity.astronomy.tass17.test;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import com.obliquity.astronomy.tass17.chebyshev.ChebyshevJSONWriter;
+
+/*
+ * Write fixed-length records of numbers, for the streaming modes of the test programs.
+ * As text, each record is one line of numbers separated by spaces, each with a fixed
+ * number of decimal places.  As binary, each number is a raw little-endian 8-byte
+ * double, and records are not delimited.  Output is buffered until flush is called,
+ * which the caller should do after each batch of records.
+ */
+
+public class RecordWriter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final WritableByteChannel channel;
+	private final boolean binary;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final StringBuilder sb = new StringBuilder(BUFFER_SIZE);
+	private boolean startOfRecord = true;
+	
+	public RecordWriter(OutputStream os, boolean binary) {
+		this.channel = Channels.newChannel(os);
+		this.binary = binary;
+	}
+	
+	public void put(double value, int decimals) throws IOException {
+		if (binary) {
+			if (buffer.remaining() < 8)
+				writeBuffer();
+			
+			buffer.putDouble(value);
+		} else {
+			if (!startOfRecord)
+				sb.append(' ');
+			
+			ChebyshevJSONWriter.appendFixed(sb, value, decimals, 0);
+		}
+		
+		startOfRecord = false;
+	}
+	
+	public void endRecord() throws IOException {
+		if (!binary) {
+			sb.append('\n');
+			
+			if (sb.length() >= BUFFER_SIZE)
+				writeText();
+		}
+		
+		startOfRecord = true;
+	}
+	
+	public void flush() throws IOException {
+		if (binary)
+			writeBuffer();
+		else
+			writeText();
+	}
+	
+	private void writeText() throws IOException {
+		for (int start = 0; start < sb.length(); ) {
+			int end = Math.min(sb.length(), start + buffer.capacity());
+			
+			for (int i = start; i < end; i++)
+				buffer.put((byte)sb.charAt(i));
+			
+			writeBuffer();
+			
+			start = end;
+		}
+		
+		sb.setLength(0);
+	}
+	
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		
+		buffer.clear();
+	}
+}
@@ -23,6 +23,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Formatter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import com.obliquity.astronomy.almanac.ApparentPlace;
 import com.obliquity.astronomy.almanac.AstronomicalDate;
@@ -32,27 +37,48 @@ import com.obliquity.astronomy.almanac.JPLEphemeris;
 import com.obliquity.astronomy.almanac.JPLEphemerisException;
 import com.obliquity.astronomy.almanac.MovingPoint;
 import com.obliquity.astronomy.almanac.PlanetCentre;
-import com.obliquity.astronomy.tass17.TASSElements;
-import com.obliquity.astronomy.tass17.TASSMovingPoint;
+import com.obliquity.astronomy.tass17.SaturnSystemApparentPlace;
 import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.TabulationFile;
+import com.obliquity.astronomy.tass17.TabulationWriter;
+import com.obliquity.astronomy.tass17.chebyshev.SatelliteOffset;
+import com.obliquity.astronomy.tass17.chebyshev.SaturnSystemOffsets;
 
 public class SaturnObserver {
 	private ApparentPlace apSaturn;
-	private ApparentPlace[] apSatellites;
+	private SaturnSystemApparentPlace apSystem;
 	private IAUEarthRotationModel erm = null;
 	private TASSTheory theory;
-	private final double cosObliquity, sinObliquity;
+	private final SaturnSystemOffsets systemOffsets;
+	
+	private final double[] systemOffsetBuffer = new double[24];
+	private double[] tdtBuffer = new double[0], batchOffsetBuffer = new double[0];
 	
 	private final String[] names = { "Mim", "Enc", "Tet", "Dio", "Rhe", "Ttn", "Hyp", "Iap" };
 	
 	private boolean timeIsUT = Boolean.getBoolean("saturnobserver.timeisut");
 	private boolean usePositionOfDate = Boolean.getBoolean("saturnobserver.usepositionofdate");
+	
+	private static final String ROW_FORMAT = " %13.5f  %1d  %8.3f  %8.3f\n";
+	
+	private static final int ROWS_PER_CHUNK = 256;
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final int STREAM_BATCH_SIZE = 4096;
+	
+	private static final String[] COLUMN_NAMES = { "jd", "satellite", "dx", "dy", "dz" };
+	private static final int[] COLUMN_TYPES = {
+			TabulationFile.TYPE_DOUBLE, TabulationFile.TYPE_INT,
+			TabulationFile.TYPE_DOUBLE, TabulationFile.TYPE_DOUBLE, TabulationFile.TYPE_DOUBLE
+	};
 
 	public static void main(String[] args) {
 		String ephemerisHomeName = System.getProperty("ephemeris.home");
 		
 		boolean dxy = true;
 		boolean tabulate = false;
+		int nThreads = 1;
+		String binaryFilename = null;
+		boolean stream = false, rawInput = false, rawOutput = false;
 		
 		for (int i = 0; i < args.length; i++) {
 			switch (args[i].toLowerCase()) {
@@ -64,6 +90,26 @@ public class SaturnObserver {
 				tabulate = true;
 				break;
 				
+			case "-threads":
+				nThreads = Integer.parseInt(args[++i]);
+				break;
+				
+			case "-binary":
+				binaryFilename = args[++i];
+				break;
+				
+			case "-stream":
+				stream = true;
+				break;
+				
+			case "-rawin":
+				rawInput = true;
+				break;
+				
+			case "-rawout":
+				rawOutput = true;
+				break;
+				
 			default:
 				System.err.println("Option not recognised: " + args[i]);
 				System.exit(1);
@@ -96,11 +142,13 @@ public class SaturnObserver {
 			
 			SaturnObserver observer = new SaturnObserver(ephemeris, theory);
 			
-			if (tabulate)
-				observer.tabulate(dxy);
+			if (stream)
+				observer.stream(dxy, rawInput, rawOutput);
+			else if (tabulate)
+				observer.tabulate(dxy, nThreads, de430, binaryFilename);
 			else
 				observer.run();
-		} catch (IOException | JPLEphemerisException e) {
+		} catch (IOException | JPLEphemerisException | InterruptedException | ExecutionException e) {
 			e.printStackTrace();
 		}
 	}
@@ -110,11 +158,6 @@ public class SaturnObserver {
 		
 		this.erm = new IAUEarthRotationModel();
 		
-		double obliquity = erm.meanObliquity(2451545.0);
-		
-		sinObliquity = Math.sin(obliquity);
-		cosObliquity = Math.cos(obliquity);
-		
 		EarthCentre earth = new EarthCentre(ephemeris);
 		
 		MovingPoint sun = new PlanetCentre(ephemeris, JPLEphemeris.SUN);
@@ -123,12 +166,11 @@ public class SaturnObserver {
 		
 		this.apSaturn = new ApparentPlace(earth, saturn, sun, erm);
 		
-		apSatellites = new ApparentPlace[8];
+		this.apSystem = new SaturnSystemApparentPlace(ephemeris, theory);
 		
-		for (int iSat = 0; iSat < 8; iSat++) {
-			MovingPoint satellite = new TASSMovingPoint(ephemeris, iSat);
-			apSatellites[iSat] = new ApparentPlace(earth, satellite, sun, erm);
-		}
+		this.systemOffsets = new SaturnSystemOffsets(apSaturn, apSystem.getReferenceSystemMatrices(), theory);
+		
+		systemOffsets.setReferenceSystem(usePositionOfDate ? SatelliteOffset.OF_DATE : SatelliteOffset.J2000);
 	}
 	
 	public void run() throws IOException, JPLEphemerisException {
@@ -175,7 +217,53 @@ public class SaturnObserver {
     	}
 	}
 	
-	public void tabulate(boolean dxy) throws IOException, JPLEphemerisException {
+	/*
+	 * Act as a filter, reading epochs from standard input in batches, as text or as raw
+	 * doubles.  Each epoch gives one record on standard output: the Julian Date, then the
+	 * three offsets of each satellite in turn, as calculated for the tabulation.
+	 */
+	
+	public void stream(boolean dxy, boolean rawInput, boolean rawOutput) throws IOException, JPLEphemerisException {
+		EpochReader reader = new EpochReader(System.in, rawInput);
+		RecordWriter writer = new RecordWriter(System.out, rawOutput);
+		
+		double[] jd = new double[STREAM_BATCH_SIZE];
+		double[][][] offsets = new double[STREAM_BATCH_SIZE][8][3];
+		
+		int n;
+		
+		while ((n = reader.read(jd)) > 0) {
+			calculateSatelliteOffsets(jd, n, offsets, dxy);
+			
+			for (int i = 0; i < n; i++) {
+				writer.put(jd[i], 5);
+				
+				for (int iSat = 0; iSat < 8; iSat++) {
+					writer.put(offsets[i][iSat][0], 4);
+					writer.put(offsets[i][iSat][1], 4);
+					writer.put(offsets[i][iSat][2], 6);
+				}
+				
+				writer.endRecord();
+			}
+			
+			writer.flush();
+		}
+	}
+	
+	public void tabulate(boolean dxy) throws IOException, JPLEphemerisException, InterruptedException, ExecutionException {
+		tabulate(dxy, 1, null, null);
+	}
+	
+	/*
+	 * With more than one thread, each worker builds its own pipeline, with its own
+	 * JPLEphemeris read from the given file.  If the binary file name is not null, the
+	 * table is written to it as a TabulationFile, with the columns jd, satellite, dx, dy
+	 * and dz, rather than printed.  A name of "-" selects standard output.
+	 */
+	
+	public void tabulate(boolean dxy, int nThreads, File ephemerisFile, String binaryFilename)
+			throws IOException, JPLEphemerisException, InterruptedException, ExecutionException {
     	BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
     	String line = br.readLine();
 		
@@ -193,72 +281,207 @@ public class SaturnObserver {
 		double step = Double.parseDouble(words[1]);
 		int nSteps = Integer.parseInt(words[2]);
 		
-		tabulate(jdstart, step, nSteps, dxy);
+		TabulationWriter writer = binaryFilename == null ? null
+				: TabulationWriter.open(binaryFilename, COLUMN_NAMES, COLUMN_TYPES);
+		
+		try {
+			if (nThreads > 1)
+				tabulate(jdstart, step, nSteps, dxy, nThreads, ephemerisFile, writer);
+			else
+				tabulate(jdstart, step, nSteps, dxy, writer);
+		} finally {
+			if (writer != null)
+				writer.close();
+		}
+	}
+	
+	/*
+	 * The date of each row is calculated from its index rather than accumulated, and the
+	 * rows are calculated in the same chunks as by the parallel tabulation, so that both
+	 * give identical output.
+	 */
+	
+	private void tabulate(double jdstart, double step, int nSteps, boolean dxy, TabulationWriter writer)
+			throws IOException, JPLEphemerisException {
+		for (int first = 0; first < nSteps; first += ROWS_PER_CHUNK) {
+			int last = Math.min(nSteps, first + ROWS_PER_CHUNK);
+			
+			Chunk chunk = calculateChunk(jdstart, step, first, last, dxy, false);
+			
+			for (int i = first; i < last; i++) {
+				double jd = jdstart + i * step;
+				double[][] offsets = chunk.offsets[i - first];
+				
+				if (writer != null) {
+					writeRows(writer, jd, offsets);
+					continue;
+				}
+				
+				for (int iSat = 0; iSat < 8; iSat++) {
+					System.out.printf(ROW_FORMAT, jd, iSat, offsets[iSat][0], offsets[iSat][1]);
+				}
+			}
+		}
+	}
+	
+	private static void writeRows(TabulationWriter writer, double jd, double[][] offsets) throws IOException {
+		for (int iSat = 0; iSat < 8; iSat++) {
+			writer.setDouble(0, jd);
+			writer.setInt(1, iSat);
+			writer.setDouble(2, offsets[iSat][0]);
+			writer.setDouble(3, offsets[iSat][1]);
+			writer.setDouble(4, offsets[iSat][2]);
+			writer.endRow();
+		}
+	}
+	
+	/*
+	 * Tabulate in chunks of ROWS_PER_CHUNK steps, each calculated and formatted by a
+	 * worker thread with its own ephemeris and apparent place pipeline, sharing only the
+	 * TASSTheory, which holds no working state.  Chunks are output in order as they
+	 * complete, with no more than CHUNKS_PER_THREAD per thread in flight, so memory use
+	 * does not grow with the length of the table.  Text is formatted by the workers, but
+	 * binary rows are passed to the writer by this thread, since the writer is not
+	 * thread-safe.
+	 */
+	
+	private void tabulate(double jdstart, double step, int nSteps, boolean dxy, int nThreads, File ephemerisFile,
+			TabulationWriter writer) throws IOException, InterruptedException, ExecutionException {
+		double jdEarliest = Math.min(jdstart, jdstart + nSteps * step) - 1.0;
+		double jdLatest = Math.max(jdstart, jdstart + nSteps * step) + 1.0;
+		
+		ThreadLocal<SaturnObserver> observers = ThreadLocal.withInitial(() -> {
+			try {
+				return new SaturnObserver(new JPLEphemeris(ephemerisFile, jdEarliest, jdLatest), theory);
+			} catch (IOException | JPLEphemerisException e) {
+				throw new IllegalStateException("Failed to create a worker pipeline", e);
+			}
+		});
+		
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		
+		ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<ForkJoinTask<Chunk>>();
+		boolean format = writer == null;
+		int window = CHUNKS_PER_THREAD * nThreads;
+		
+		try {
+			int iStep = 0;
+			
+			while (iStep < nSteps || !pending.isEmpty()) {
+				while (iStep < nSteps && pending.size() < window) {
+					final int first = iStep, last = Math.min(nSteps, iStep + ROWS_PER_CHUNK);
+					
+					pending.add(pool.submit(() -> observers.get().calculateChunk(jdstart, step, first, last, dxy, format)));
+					
+					iStep = last;
+				}
+				
+				Chunk chunk = pending.remove().get();
+				
+				if (format)
+					System.out.print(chunk.text);
+				else
+					for (int i = chunk.first; i < chunk.last; i++)
+						writeRows(writer, jdstart + i * step, chunk.offsets[i - chunk.first]);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		System.out.flush();
 	}
 	
-	private void tabulate(double jdstart, double step, int nSteps, boolean dxy) throws JPLEphemerisException {
-		double jd = jdstart;
-		double[][] offsets = new double[8][3];
-		
-		for (int i = 0; i < nSteps; i++) {
-			calculateSatelliteOffsets(jd, offsets, dxy);
-			for (int iSat = 0; iSat < 8; iSat++) {
-				System.out.printf(" %13.5f  %1d  %8.3f  %8.3f\n", jd, iSat, offsets[iSat][0], offsets[iSat][1]);
+	private static class Chunk {
+		final int first, last;
+		final double[][][] offsets;
+		String text = null;
+		
+		Chunk(int first, int last) {
+			this.first = first;
+			this.last = last;
+			this.offsets = new double[last - first][8][3];
+		}
+	}
+	
+	private Chunk calculateChunk(double jdstart, double step, int first, int last, boolean dxy, boolean format)
+			throws JPLEphemerisException {
+		Chunk chunk = new Chunk(first, last);
+		
+		double[] jd = new double[last - first];
+		
+		for (int i = first; i < last; i++)
+			jd[i - first] = jdstart + i * step;
+		
+		calculateSatelliteOffsets(jd, last - first, chunk.offsets, dxy);
+		
+		if (format) {
+			StringBuilder sb = new StringBuilder(64 * 8 * (last - first));
+			Formatter formatter = new Formatter(sb);
+			
+			for (int i = first; i < last; i++) {
+				double[][] offsets = chunk.offsets[i - first];
+				
+				for (int iSat = 0; iSat < 8; iSat++)
+					formatter.format(ROW_FORMAT, jdstart + i * step, iSat, offsets[iSat][0], offsets[iSat][1]);
 			}
-			jd += step;
+			
+			chunk.text = sb.toString();
 		}
+		
+		return chunk;
+	}
+	
+	/*
+	 * Calculate the offsets at the first n epochs of an array.  The simplified offsets are
+	 * calculated as a batch, interpolating Saturn's place between the epochs.
+	 */
+	
+	private void calculateSatelliteOffsets(double[] jd, int n, double[][][] offsets, boolean dxy)
+			throws JPLEphemerisException {
+		if (!dxy) {
+			for (int i = 0; i < n; i++)
+				calculateSatelliteOffsets(jd[i], offsets[i], false);
+			
+			return;
+		}
+		
+		if (tdtBuffer.length < n) {
+			tdtBuffer = new double[n];
+			batchOffsetBuffer = new double[24 * n];
+		}
+		
+		for (int i = 0; i < n; i++)
+			tdtBuffer[i] = timeIsUT ? jd[i] + erm.deltaT(jd[i]) : jd[i];
+		
+		systemOffsets.calculateOffsets(tdtBuffer, 0, n, batchOffsetBuffer);
+		
+		for (int i = 0; i < n; i++)
+			for (int iSat = 0; iSat < 8; iSat++)
+				System.arraycopy(batchOffsetBuffer, 24 * i + 3 * iSat, offsets[i][iSat], 0, 3);
 	}
 	
 	private void calculateSatelliteOffsets(double jd, double[][] offsets, boolean dxy) throws JPLEphemerisException {
 		if (timeIsUT)
 			jd += erm.deltaT(jd);
 		
-		apSaturn.calculateApparentPlace(jd);
-		
-		double raSaturn = usePositionOfDate ? apSaturn.getRightAscensionOfDate() : apSaturn.getRightAscensionJ2000();
-		double decSaturn = usePositionOfDate ? apSaturn.getDeclinationOfDate() : apSaturn.getDeclinationJ2000();
-		
     	if (dxy) {
-        	double jdSatellites = jd - apSaturn.getLightTime();
-        	
-    		double ca = Math.cos(raSaturn);
-    		double sa = Math.sin(raSaturn);
-    		double cd = Math.cos(decSaturn);
-    		double sd = Math.sin(decSaturn);
-
-        	TASSElements[] elements = new TASSElements[8];
-        	theory.calculateElementsForAllSatellites(jdSatellites, elements);
-
-        	double[] position = new double[3];
-
-        	for (int iSat = 0; iSat < 8; iSat++) {
-       			theory.calculatePosition(iSat, elements[iSat], position);
-       			
-       			double xe = position[0], ye = position[1], ze = position[2];
-       			
-       			double xa = xe;
-       			double ya = ye * cosObliquity - ze * sinObliquity;
-       			double za = ye * sinObliquity + ze * cosObliquity;
-       			
-       			double q = (3600.0 * 180.0 / Math.PI)/apSaturn.getGeometricDistance();
-       			
-       			double ux = ca * cd, uy = sa * cd, uz = sd;
-       			double vx = -sa, vy = ca, vz = 0.0;
-       			double wx = -ca * sd, wy = -sa * sd, wz = cd;
-       			
-       			offsets[iSat][0] = (vx * xa + vy * ya + vz * za) * q;
-       			offsets[iSat][1] = (wx * xa + wy * ya + wz * za) * q;
-       			offsets[iSat][2] = (ux * xa + uy * ya + uz * za) * q;
-        	}
+    		systemOffsets.calculateOffsets(jd, systemOffsetBuffer);
+    		
+    		for (int iSat = 0; iSat < 8; iSat++)
+    			System.arraycopy(systemOffsetBuffer, 3 * iSat, offsets[iSat], 0, 3);
     	} else {
-       		double gdSaturn = apSaturn.getGeometricDistance();
+    		apSystem.calculateApparentPlaces(jd);
+    		
+    		int refsys = usePositionOfDate ? SaturnSystemApparentPlace.OF_DATE : SaturnSystemApparentPlace.J2000;
+    		
+    		double raSaturn = apSystem.getRightAscension(SaturnSystemApparentPlace.SATURN, refsys);
+    		double decSaturn = apSystem.getDeclination(SaturnSystemApparentPlace.SATURN, refsys);
+       		double gdSaturn = apSystem.getGeometricDistance(SaturnSystemApparentPlace.SATURN);
 
         	for (int iSat = 0; iSat < 8; iSat++) {
-       			apSatellites[iSat].calculateApparentPlace(jd);
-       			
-       			double raSatellite = usePositionOfDate ? apSatellites[iSat].getRightAscensionOfDate() : apSatellites[iSat].getRightAscensionJ2000();
-       			double decSatellite = usePositionOfDate ? apSatellites[iSat].getDeclinationOfDate() : apSatellites[iSat].getDeclinationJ2000();
-       			double gdSatellite = apSatellites[iSat].getGeometricDistance();
+       			double raSatellite = apSystem.getRightAscension(iSat, refsys);
+       			double decSatellite = apSystem.getDeclination(iSat, refsys);
+       			double gdSatellite = apSystem.getGeometricDistance(iSat);
        			
        			offsets[iSat][0] = (raSatellite - raSaturn) * Math.cos(decSaturn) * 3600.0 * 180.0/Math.PI;
        			offsets[iSat][1] = (decSatellite - decSaturn) * 3600.0 * 180.0/Math.PI;
@@ -271,54 +494,30 @@ public class SaturnObserver {
 		if (timeIsUT)
 			jd += erm.deltaT(jd);
 		
-		apSaturn.calculateApparentPlace(jd);
+		apSystem.calculateApparentPlaces(jd);
 		
-		double raSaturn = usePositionOfDate ? apSaturn.getRightAscensionOfDate() : apSaturn.getRightAscensionJ2000();
-		double ca = Math.cos(raSaturn);
-		double sa = Math.sin(raSaturn);
+		int refsys = usePositionOfDate ? SaturnSystemApparentPlace.OF_DATE : SaturnSystemApparentPlace.J2000;
 		
-		double decSaturn = usePositionOfDate ? apSaturn.getDeclinationOfDate() : apSaturn.getDeclinationJ2000();
-		double cd = Math.cos(decSaturn);
-		double sd = Math.sin(decSaturn);
+		double raSaturn = apSystem.getRightAscension(SaturnSystemApparentPlace.SATURN, refsys);
+		double decSaturn = apSystem.getDeclination(SaturnSystemApparentPlace.SATURN, refsys);
 		
-    	TASSElements[] elements = new TASSElements[8];
-    	
-    	double[] position = new double[3];
-    	
-    	double jdSatellites = jd - apSaturn.getLightTime();
-
-    	theory.calculateElementsForAllSatellites(jdSatellites, elements);
+		systemOffsets.calculateOffsets(jd, systemOffsetBuffer);
 
    		printPosition(System.out, "SAT", jd, raSaturn, decSaturn);
    		
-   		double gdSaturn = apSaturn.getGeometricDistance();
+   		double gdSaturn = apSystem.getGeometricDistance(SaturnSystemApparentPlace.SATURN);
 
    		for (int iSat = 0; iSat < 8; iSat++) {
-   			theory.calculatePosition(iSat, elements[iSat], position);
-   			
-   			double xe = position[0], ye = position[1], ze = position[2];
-   			
-   			double xa = xe;
-   			double ya = ye * cosObliquity - ze * sinObliquity;
-   			double za = ye * sinObliquity + ze * cosObliquity;
-   			
-   			double q = (3600.0 * 180.0 / Math.PI)/apSaturn.getGeometricDistance();
-   			
-   			double ux = ca * cd, uy = sa * cd, uz = sd;
-   			double vx = -sa, vy = ca, vz = 0.0;
-   			double wx = -ca * sd, wy = -sa * sd, wz = cd;
-   			
-   			double dx = (vx * xa + vy * ya + vz * za) * q;
-   			double dy = (wx * xa + wy * ya + wz * za) * q;
-   			double dz = (ux * xa + uy * ya + uz * za) * q;
+   			double dx = systemOffsetBuffer[3 * iSat];
+   			double dy = systemOffsetBuffer[3 * iSat + 1];
+   			double dz = systemOffsetBuffer[3 * iSat + 2];
    			
-   			apSatellites[iSat].calculateApparentPlace(jd);
-   			double raSatellite = usePositionOfDate ? apSatellites[iSat].getRightAscensionOfDate() : apSatellites[iSat].getRightAscensionJ2000();
-   			double decSatellite = usePositionOfDate ? apSatellites[iSat].getDeclinationOfDate() : apSatellites[iSat].getDeclinationJ2000();
+   			double raSatellite = apSystem.getRightAscension(iSat, refsys);
+   			double decSatellite = apSystem.getDeclination(iSat, refsys);
    			double dx2 = (raSatellite - raSaturn) * Math.cos(decSaturn) * 3600.0 * 180.0/Math.PI;
    			double dy2 = (decSatellite - decSaturn) * 3600.0 * 180.0/Math.PI;
    			
-   			double gdSatellite = apSatellites[iSat].getGeometricDistance();
+   			double gdSatellite = apSystem.getGeometricDistance(iSat);
    			
    			System.out.println();
    			printPosition(System.out, names[iSat], jd, raSatellite, decSatellite);
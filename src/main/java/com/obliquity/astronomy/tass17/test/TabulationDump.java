@@ -0,0 +1,76 @@
+package com.obliquity.astronomy.tass17.test;
+
+/*
+ *  java-tass17: a Java implementation of the TASS 1.7 model of the orbits of the major satellites of Saturn
+ *  Copyright (C) 2023 David Harper at obliquity.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+
+import com.obliquity.astronomy.tass17.TabulationFile;
+import com.obliquity.astronomy.tass17.TabulationReader;
+
+/*
+ * Print a binary tabulation file as text, one row per line, with the column names on
+ * the first line.  Doubles are printed with enough digits to reproduce them exactly.
+ * With no file name, the file is read from standard input.
+ */
+
+public class TabulationDump {
+	public static void main(String[] args) {
+		try (TabulationReader reader = args.length > 0 ? new TabulationReader(new File(args[0]))
+				: new TabulationReader(Channels.newChannel(System.in))) {
+			dump(reader, System.out);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+	
+	public static void dump(TabulationReader reader, PrintStream ps) throws IOException {
+		int nColumns = reader.getNumberOfColumns();
+		
+		StringBuilder sb = new StringBuilder("#");
+		
+		for (int i = 0; i < nColumns; i++)
+			sb.append(' ').append(reader.getColumnName(i));
+		
+		ps.println(sb);
+		
+		while (reader.nextBlock()) {
+			for (int iRow = 0; iRow < reader.getBlockSize(); iRow++) {
+				sb.setLength(0);
+				
+				for (int i = 0; i < nColumns; i++) {
+					if (i > 0)
+						sb.append(' ');
+					
+					if (reader.getColumnType(i) == TabulationFile.TYPE_INT)
+						sb.append(reader.getInts(i)[iRow]);
+					else
+						sb.append(reader.getDoubles(i)[iRow]);
+				}
+				
+				ps.println(sb);
+			}
+		}
+		
+		ps.flush();
+	}
+}
@@ -74,6 +74,10 @@ public class TestChebyshevCoefficients {
 				method = SatelliteOffset.SIMPLIFIED;
 				break;
 				
+			case "-hybrid":
+				method = SatelliteOffset.HYBRID;
+				break;
+				
 			case "-rigorous":
 			case "-exact":
 				method = SatelliteOffset.RIGOROUS;
@@ -24,17 +24,149 @@ import java.io.InputStreamReader;
 
 import com.obliquity.astronomy.tass17.TASSElements;
 import com.obliquity.astronomy.tass17.TASSTheory;
+import com.obliquity.astronomy.tass17.TabulationFile;
+import com.obliquity.astronomy.tass17.TabulationWriter;
 
 public class TheoryTester {
+	private static final String[] COLUMN_NAMES = {
+			"jd", "satellite", "n", "lambda", "k", "h", "q", "p", "x", "y", "z", "vx", "vy", "vz"
+	};
+	
+	private static final int BATCH_SIZE = 4096;
+	
     public static void main(String[] args) {
+    	String binaryFilename = null;
+    	boolean stream = false, rawInput = false, rawOutput = false;
+    	
+    	for (int i = 0; i < args.length; i++) {
+    		switch (args[i].toLowerCase()) {
+    		case "-binary":
+    			binaryFilename = args[++i];
+    			break;
+    			
+    		case "-stream":
+    			stream = true;
+    			break;
+    			
+    		case "-rawin":
+    			rawInput = true;
+    			break;
+    			
+    		case "-rawout":
+    			rawOutput = true;
+    			break;
+    			
+    		default:
+    			System.err.println("Option not recognised: " + args[i]);
+    			System.exit(1);
+    		}
+    	}
+    	
     	TheoryTester tester = new TheoryTester();
     	try {
-			tester.run();
+    		if (stream)
+    			tester.stream(rawInput, rawOutput);
+    		else if (binaryFilename != null)
+    			tester.tabulate(binaryFilename);
+    		else
+    			tester.run();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
     }
     
+    /*
+     * Write the elements, position and velocity of each satellite from
+     * calculateElementsForAllSatellites, for each date read from standard input, to a
+     * TabulationFile.  A file name of "-" selects standard output.
+     */
+    
+    public void tabulate(String binaryFilename) throws IOException {
+    	TASSTheory theory = new TASSTheory();
+    	
+    	BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+    	
+    	int[] types = new int[COLUMN_NAMES.length];
+    	
+    	for (int i = 0; i < types.length; i++)
+    		types[i] = i == 1 ? TabulationFile.TYPE_INT : TabulationFile.TYPE_DOUBLE;
+    	
+    	TASSElements[] elements = new TASSElements[8];
+    	
+    	double[] position = new double[3];
+    	double[] velocity = new double[3];
+    	
+    	try (TabulationWriter writer = TabulationWriter.open(binaryFilename, COLUMN_NAMES, types)) {
+    		String line;
+    		
+    		while ((line = br.readLine()) != null) {
+    			double jd = Double.parseDouble(line);
+    			
+    			theory.calculateElementsForAllSatellites(jd, elements);
+    			
+    			for (int iSat = 0; iSat < 8; iSat++) {
+    				theory.calculatePositionAndVelocity(iSat, elements[iSat], position, velocity);
+    				
+    				writer.setDouble(0, jd);
+    				writer.setInt(1, iSat);
+    				writer.setDouble(2, elements[iSat].meanMotionAdjustment);
+    				writer.setDouble(3, elements[iSat].lambda);
+    				writer.setDouble(4, elements[iSat].k);
+    				writer.setDouble(5, elements[iSat].h);
+    				writer.setDouble(6, elements[iSat].q);
+    				writer.setDouble(7, elements[iSat].p);
+    				
+    				for (int i = 0; i < 3; i++) {
+    					writer.setDouble(8 + i, position[i]);
+    					writer.setDouble(11 + i, velocity[i]);
+    				}
+    				
+    				writer.endRow();
+    			}
+    		}
+    	}
+    }
+    
+    /*
+     * Act as a filter, reading epochs from standard input in batches, as text or as raw
+     * doubles, and calculating the positions and velocities of all eight satellites
+     * together by the batch path of TASSTheory.  Each epoch gives one record on standard output: the
+     * Julian Date, then x, y, z, vx, vy and vz of each satellite in turn.
+     */
+    
+    public void stream(boolean rawInput, boolean rawOutput) throws IOException {
+    	TASSTheory theory = new TASSTheory();
+    	
+    	EpochReader reader = new EpochReader(System.in, rawInput);
+    	RecordWriter writer = new RecordWriter(System.out, rawOutput);
+    	
+    	double[] jd = new double[BATCH_SIZE];
+    	double[][] positions = new double[8][3 * BATCH_SIZE];
+    	double[][] velocities = new double[8][3 * BATCH_SIZE];
+    	
+    	int n;
+    	
+    	while ((n = reader.read(jd)) > 0) {
+    		theory.calculatePositionsAndVelocitiesForAllSatellites(jd, 0, n, positions, velocities);
+    		
+    		for (int i = 0; i < n; i++) {
+    			writer.put(jd[i], 5);
+    			
+    			for (int iSat = 0; iSat < 8; iSat++) {
+    				for (int j = 3 * i; j < 3 * i + 3; j++)
+    					writer.put(positions[iSat][j], 10);
+    				
+    				for (int j = 3 * i; j < 3 * i + 3; j++)
+    					writer.put(velocities[iSat][j], 10);
+    			}
+    			
+    			writer.endRecord();
+    		}
+    		
+    		writer.flush();
+    	}
+    }
+    
     public void run() throws IOException {
     	TASSTheory theory = new TASSTheory();
     	